@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.*;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Ivan Arbuzov.
@@ -25,11 +26,12 @@ public class CommandLineRunner {
                     "so you just remove all watched at _that_ time paths with prefix path/.\n" +
             "       remove <path> -- see `rm` command.\n" +
             "       count <word> -- count of files contain the `word`.\n" +
-            "       find <word> -- print all file-paths `word` is contained in. Note: `word` should be without whitespaces.\n";
+            "       find <word> -- print all file-paths `word` is contained in. Note: `word` should be without whitespaces.\n" +
+            "       stat -- print indexer statistics.\n";
 
     public static final String PROMPT = ">> ";
 
-    public static final String[] COMMANDS = {"h", "q", "find", "add", "rm", "remove", "count"};
+    public static final String[] COMMANDS = {"h", "q", "find", "add", "rm", "remove", "count", "stat"};
 
     private static Path getPath(String root, String mayBeRelative) {
         if (Paths.get(mayBeRelative).isAbsolute()) {
@@ -101,6 +103,11 @@ public class CommandLineRunner {
                         List<String> paths = index.getPathsByWord(arg[1]);
                         console.println(Integer.toString(paths.size()));
                     }
+                } else if (cmd.startsWith("stat"))
+                {
+                    for (Map.Entry<String, Long> e : index.getStatistics().entrySet()) {
+                        console.println(e.getKey() + " = " + e.getValue());
+                    }
                 } else if (cmd.startsWith("find"))
                 {
                     String[] arg = cmd.split(" ");
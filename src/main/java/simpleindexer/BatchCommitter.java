@@ -0,0 +1,150 @@
+package simpleindexer;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import simpleindexer.exceptions.IndexException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * Group committer of {@link simpleindexer.IndexUpdate updates} into {@link simpleindexer.Index}.
+ * <p>
+ * Each thread accumulates its updates in its own buffer which is committed by one
+ * {@link simpleindexer.Index#commit(java.util.Collection)} call (i.e. with one index lock acquisition) as soon as it
+ * contains {@code maxDocs} updates or {@code maxBytes} bytes of indexed data. Buffers which are not full are committed
+ * by {@link #flushExpired()} when their oldest update is older than {@code maxDelayMillis}.
+ * <p>
+ * Updates of the same value are committed in the order they were added: adding an update of a value which is
+ * pending in the buffer of another thread forces that buffer to be committed first.
+ * Implementation is thread-safe.
+ *
+ * @param <K> the type of keys in index
+ * @param <V> the type of values in index
+ */
+public class BatchCommitter<K, V> {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchCommitter.class);
+
+    private final Index<K, V, ?> index;
+    private final int maxDocs;
+    private final long maxBytes;
+    private final long maxDelayMillis;
+
+    private final List<Batch> batches = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<V, Batch> owners = new ConcurrentHashMap<>();
+    private final ThreadLocal<Batch> localBatch = new ThreadLocal<Batch>() {
+        @Override
+        protected Batch initialValue() {
+            Batch batch = new Batch();
+            batches.add(batch);
+            return batch;
+        }
+    };
+
+    /**
+     * @param index to commit updates to
+     * @param maxDocs max updates count in one batch
+     * @param maxBytes max total size of indexed data in one batch
+     * @param maxDelayMillis max time update can wait in batch, see {@link #flushExpired()}
+     */
+    public BatchCommitter(@NotNull Index<K, V, ?> index, int maxDocs, long maxBytes, long maxDelayMillis) {
+        this.index = checkNotNull(index, "index");
+        this.maxDocs = maxDocs;
+        this.maxBytes = maxBytes;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Add {@code update} to the buffer of the current thread. Buffer will be committed if it is full.
+     *
+     * @param update to commit
+     */
+    public void add(@NotNull IndexUpdate<K, V> update) {
+        Batch batch = localBatch.get();
+        Batch owner = owners.put(update.getValue(), batch);
+        if (owner != null && owner != batch) {
+            owner.flush();
+        }
+        batch.add(update);
+    }
+
+    /**
+     * Commit all buffers which oldest update is older than {@code maxDelayMillis}.
+     * Is supposed to be called periodically.
+     */
+    public void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (Batch batch : batches) {
+            if (batch.isExpired(now)) {
+                batch.flush();
+            }
+        }
+    }
+
+    /**
+     * Commit all buffers.
+     */
+    public void flushAll() {
+        for (Batch batch : batches) {
+            batch.flush();
+        }
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    private class Batch {
+        private final Map<V, IndexUpdate<K, V>> updates = new LinkedHashMap<>();
+        private long bytes;
+        private long firstAddedAt;
+
+        synchronized void add(IndexUpdate<K, V> update) {
+            if (updates.isEmpty()) {
+                firstAddedAt = System.currentTimeMillis();
+            }
+            // the last update of the same value wins
+            updates.remove(update.getValue());
+            updates.put(update.getValue(), update);
+            bytes += update.getSize();
+            if (updates.size() >= maxDocs || bytes >= maxBytes) {
+                flush();
+            }
+        }
+
+        synchronized boolean isExpired(long now) {
+            return !updates.isEmpty() && now - firstAddedAt >= maxDelayMillis;
+        }
+
+        synchronized void flush() {
+            if (updates.isEmpty()) {
+                return;
+            }
+            List<IndexUpdate<K, V>> toCommit = new ArrayList<>(updates.values());
+            updates.clear();
+            bytes = 0;
+            try {
+                index.commit(toCommit);
+                log.debug("committed {} updates", toCommit.size());
+            } catch (IndexException e) {
+                log.error("Exception while committing {} updates: {}", toCommit.size(), e.getMessage());
+            } catch (RuntimeException e) {
+                // thrown on a flushing thread, it must not stop periodic flushing or the worker
+                log.error("Exception while committing " + toCommit.size() + " updates", e);
+            } finally {
+                for (IndexUpdate<K, V> u : toCommit) {
+                    owners.remove(u.getValue(), this);
+                }
+            }
+        }
+    }
+}
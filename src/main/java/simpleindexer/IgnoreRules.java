@@ -0,0 +1,233 @@
+package simpleindexer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rules of one ignore file of directory in <a href="http://git-scm.com/docs/gitignore">gitignore</a> format.
+ * <p>
+ * Each line is a glob pattern matched against path relative to the directory: {@code *} and {@code ?} don't match
+ * {@code /}, {@code **} matches any count of directories, pattern without {@code /} matches name at any depth,
+ * pattern ending with {@code /} matches directories only, pattern starting with {@code !} re-includes paths.
+ * Lines starting with {@code #} are comments. Unlike git, re-including pattern wins over all ignoring patterns
+ * of the same file, not only over previous ones.
+ * <p>
+ * All patterns of the file are compiled into a few combined regular expressions, so path is matched in one pass.
+ * Implementation is immutable and thread-safe.
+ */
+public class IgnoreRules {
+
+    /**
+     * Result of matching path against rules.
+     */
+    public static enum Match {
+        /**
+         * Path is ignored.
+         */
+        IGNORE,
+        /**
+         * Path is re-included by negated pattern.
+         */
+        INCLUDE,
+        /**
+         * No pattern matches path.
+         */
+        NONE
+    }
+
+    public static final IgnoreRules EMPTY = new IgnoreRules(Collections.<String>emptyList());
+
+    private static final String SEPARATOR = Pattern.quote(File.separator);
+    private static final String NOT_SEPARATOR = "[^" + (File.separatorChar == '\\' ? "\\\\" : File.separator) + "]";
+
+    // ignoring and re-including patterns for files and directories
+    private final Pattern ignoreFiles;
+    private final Pattern ignoreDirs;
+    private final Pattern includeFiles;
+    private final Pattern includeDirs;
+    private final int count;
+    private final ThreadLocal<Matcher[]> matchers = new ThreadLocal<Matcher[]>() {
+        @Override
+        protected Matcher[] initialValue() {
+            return new Matcher[]{matcher(ignoreFiles), matcher(ignoreDirs), matcher(includeFiles), matcher(includeDirs)};
+        }
+    };
+
+    /**
+     * @param lines of ignore file
+     */
+    public IgnoreRules(@NotNull List<String> lines) {
+        List<String> ignoreFiles = new ArrayList<>();
+        List<String> ignoreDirs = new ArrayList<>();
+        List<String> includeFiles = new ArrayList<>();
+        List<String> includeDirs = new ArrayList<>();
+        int count = 0;
+        for (String line : lines) {
+            String pattern = trimTrailingSpaces(line);
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                continue;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated) {
+                pattern = pattern.substring(1);
+            }
+            boolean dirOnly = pattern.endsWith("/");
+            if (dirOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            boolean anchored = pattern.startsWith("/");
+            if (anchored) {
+                pattern = pattern.substring(1);
+            } else {
+                anchored = pattern.contains("/");
+            }
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            String base = (anchored ? "" : "(?:.*" + SEPARATOR + ")?") + globToRegex(pattern);
+            // path is matched if it or one of its parents matches pattern
+            String any = base + "(?:" + SEPARATOR + ".*)?";
+            (negated ? includeFiles : ignoreFiles).add(dirOnly ? base + SEPARATOR + ".*" : any);
+            (negated ? includeDirs : ignoreDirs).add(any);
+            ++count;
+        }
+        this.ignoreFiles = combine(ignoreFiles);
+        this.ignoreDirs = combine(ignoreDirs);
+        this.includeFiles = combine(includeFiles);
+        this.includeDirs = combine(includeDirs);
+        this.count = count;
+    }
+
+    /**
+     * Load rules from {@code file}.
+     *
+     * @param file ignore file
+     * @return rules of {@code file} or {@link #EMPTY} if there is no such file
+     * @throws IOException
+     */
+    @NotNull
+    public static IgnoreRules load(@NotNull Path file) throws IOException {
+        try {
+            return new IgnoreRules(Files.readAllLines(file, StandardCharsets.UTF_8));
+        } catch (NoSuchFileException e) {
+            return EMPTY;
+        }
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Match path relative to directory of rules, i.e. its part starting from {@code start}, without allocations.
+     *
+     * @param path full path
+     * @param start index of the first char of relative path in {@code path}
+     * @param directory whether path is directory
+     * @return result of matching
+     */
+    @NotNull
+    public Match match(@NotNull CharSequence path, int start, boolean directory) {
+        if (count == 0) {
+            return Match.NONE;
+        }
+        Matcher[] m = matchers.get();
+        if (matches(m[directory ? 3 : 2], path, start)) {
+            return Match.INCLUDE;
+        }
+        if (matches(m[directory ? 1 : 0], path, start)) {
+            return Match.IGNORE;
+        }
+        return Match.NONE;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[patterns=" + count + "]";
+    }
+
+    private static boolean matches(@Nullable Matcher matcher, CharSequence path, int start) {
+        return matcher != null && matcher.reset(path).region(start, path.length()).matches();
+    }
+
+    @Nullable
+    private static Matcher matcher(@Nullable Pattern pattern) {
+        return pattern == null ? null : pattern.matcher("");
+    }
+
+    @Nullable
+    private static Pattern combine(List<String> regexps) {
+        if (regexps.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String r : regexps) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append("(?:").append(r).append(')');
+        }
+        return Pattern.compile(sb.toString());
+    }
+
+    private static String trimTrailingSpaces(String line) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+            --end;
+        }
+        return line.substring(0, end);
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                if (i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+                    sb.append("(?:.*").append(SEPARATOR).append(")?");
+                    i += 3;
+                } else {
+                    sb.append(".*");
+                    i += 2;
+                }
+                continue;
+            }
+            if (c == '*') {
+                sb.append(NOT_SEPARATOR).append('*');
+            } else if (c == '?') {
+                sb.append(NOT_SEPARATOR);
+            } else if (c == '/') {
+                sb.append(SEPARATOR);
+            } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                int end = glob.indexOf(']', i + 2);
+                String set = glob.substring(i + 1, end);
+                if (set.startsWith("!")) {
+                    set = "^" + set.substring(1);
+                }
+                sb.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                i = end;
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                sb.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            } else if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+            ++i;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package simpleindexer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import simpleindexer.chunker.Chunk;
+import simpleindexer.exceptions.IndexException;
+
+import java.util.List;
+
+/**
+ * {@link simpleindexer.DataIndexer} which is able to extract keys from data chunk by chunk and reuse
+ * keys of chunks which were not changed since the previous indexing.
+ *
+ * @param <K> the type of extracted keys
+ * @param <D> the type of elements used to extract data from.
+ *
+ * @see simpleindexer.chunker.ContentChunker
+ */
+public interface IncrementalDataIndexer<K, D> extends DataIndexer<K, Void, D> {
+
+    /**
+     * Extract keys from {@code data} chunk by chunk.
+     * Chunks which content is found among {@code previous} chunks are not tokenized again, their keys are reused.
+     *
+     * @param data to index keys from
+     * @param previous chunks of the previous version of {@code data} or {@code null} if there are no such
+     * @return {@link java.util.List} of chunks, or {@code null} if {@code data} is too small to be indexed by chunks.
+     *          In the last case {@link #index(Object)} should be used.
+     * @throws IndexException
+     */
+    @Nullable
+    List<Chunk<K>> indexChunks(@NotNull D data, @Nullable List<Chunk<K>> previous) throws IndexException;
+
+}
@@ -2,8 +2,11 @@ package simpleindexer;
 
 import simpleindexer.exceptions.IndexException;
 import simpleindexer.valuestorages.ValueStorage;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+
 /**
  * Interface for index implementation.
  *
@@ -53,4 +56,35 @@ public interface Index<K, V, D> {
      */
     public void remove(D data) throws IndexException;
 
+    /**
+     * Extract data from given {@code data} to update index later with {@link #commit(java.util.Collection)}.
+     * Index itself is not modified.
+     *
+     * @param data for update index from
+     * @return prepared update
+     * @throws IndexException
+     */
+    @NotNull
+    public IndexUpdate<K, V> prepareUpdate(D data) throws IndexException;
+
+    /**
+     * Prepare removal of all values corresponding to given {@code data} to commit it later with
+     * {@link #commit(java.util.Collection)}. Index itself is not modified.
+     *
+     * @param data to remove from index
+     * @return prepared removal
+     * @throws IndexException
+     */
+    @NotNull
+    public IndexUpdate<K, V> prepareRemove(D data) throws IndexException;
+
+    /**
+     * Apply all prepared {@code updates} at once.
+     * If there are several updates of the same value, the last one wins.
+     *
+     * @param updates prepared by {@link #prepareUpdate(Object)} or {@link #prepareRemove(Object)}
+     * @throws IndexException
+     */
+    public void commit(@NotNull Collection<IndexUpdate<K, V>> updates) throws IndexException;
+
 }
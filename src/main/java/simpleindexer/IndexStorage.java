@@ -2,8 +2,12 @@ package simpleindexer;
 
 import simpleindexer.exceptions.IndexException;
 import simpleindexer.valuestorages.ValueStorage;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+import java.util.SortedMap;
+
 /**
  * Interface for data structures typically used in {@link simpleindexer.Index} for storing map from key to values.
  *
@@ -33,6 +37,16 @@ public interface IndexStorage<K, V> {
      */
     public void remove(K key, V value) throws IndexException;
 
+    /**
+     * Remove {@code removed} and then add {@code added} values of many keys at once.
+     * Keys are processed in sorted order, values of each key are removed before new ones are added.
+     *
+     * @param removed values to remove by keys
+     * @param added values to add by keys
+     * @throws IndexException
+     */
+    public void merge(@NotNull SortedMap<K, List<V>> removed, @NotNull SortedMap<K, List<V>> added) throws IndexException;
+
     /**
      * Clear storage (remove all keys).
      *
@@ -4,9 +4,12 @@ import gnu.trove.map.hash.THashMap;
 import simpleindexer.exceptions.IndexException;
 import simpleindexer.valuestorages.SetValueStorage;
 import simpleindexer.valuestorages.ValueStorage;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -72,6 +75,35 @@ public class IndexStorageImpl implements IndexStorage<String, String> {
         }
     }
 
+    @Override
+    public void merge(@NotNull SortedMap<String, List<String>> removed, @NotNull SortedMap<String, List<String>> added) throws IndexException {
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, List<String>> e : removed.entrySet()) {
+                ValueStorage<String> vs = map.get(e.getKey());
+                if (vs == null)
+                    continue;
+                for (String value : e.getValue())
+                    vs.remove(value);
+                if (vs.isEmpty() && !added.containsKey(e.getKey()))
+                    map.remove(e.getKey());
+            }
+            for (Map.Entry<String, List<String>> e : added.entrySet()) {
+                ValueStorage<String> vs = map.get(e.getKey());
+                if (vs == null) {
+                    vs = new SetValueStorage<>();
+                    map.put(e.getKey(), vs);
+                }
+                for (String value : e.getValue())
+                    vs.add(value);
+            }
+        } catch (Throwable e) {
+            throw new IndexException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     @Override
     public void clear() throws IndexException {
         lock.writeLock().lock();
@@ -0,0 +1,153 @@
+package simpleindexer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import simpleindexer.chunker.Chunk;
+
+import java.util.List;
+import java.util.Set;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * Data prepared by {@link simpleindexer.Index} to be committed into it later: either new keys of {@code value}
+ * or removal of {@code value} from all its keys. Update may also carry identity of content of {@code value}
+ * (e.g. its hash), so values with equal content can share their data in index: such <i>shared</i> update carries data
+ * of another value with the same content prepared by the index, and keys of that data in case it is gone by commit.
+ * <p>
+ * Preparing (i.e. reading and tokenizing) does not touch index state, so it can be done without index locks.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of value
+ *
+ * @see simpleindexer.Index#commit(java.util.Collection)
+ */
+public class IndexUpdate<K, V> {
+    private final V value;
+    @Nullable
+    private final Set<K> keys;
+    @Nullable
+    private final List<Chunk<K>> chunks;
+    private final long size;
+    @Nullable
+    private final Object content;
+    @Nullable
+    private final Object shared;
+
+    private IndexUpdate(@NotNull V value, @Nullable Set<K> keys, @Nullable List<Chunk<K>> chunks, long size,
+                        @Nullable Object content, @Nullable Object shared) {
+        this.value = checkNotNull(value, "value");
+        this.keys = keys;
+        this.chunks = chunks;
+        this.size = size;
+        this.content = content;
+        this.shared = shared;
+    }
+
+    /**
+     * Update which replaces keys of {@code value} with {@code keys}.
+     *
+     * @param value to update
+     * @param keys new keys of {@code value}
+     * @param chunks keys of {@code value} by chunks or {@code null} if it wasn't indexed by chunks
+     * @param size of data keys were extracted from, in bytes
+     */
+    public static <K, V> IndexUpdate<K, V> update(@NotNull V value, @NotNull Set<K> keys, @Nullable List<Chunk<K>> chunks, long size) {
+        return update(value, keys, chunks, size, null);
+    }
+
+    /**
+     * Update which replaces keys of {@code value} with {@code keys} extracted from content with identity {@code content}.
+     *
+     * @param value to update
+     * @param keys new keys of {@code value}
+     * @param chunks keys of {@code value} by chunks or {@code null} if it wasn't indexed by chunks
+     * @param size of data keys were extracted from, in bytes
+     * @param content identity of data keys were extracted from or {@code null} if unknown
+     */
+    public static <K, V> IndexUpdate<K, V> update(@NotNull V value, @NotNull Set<K> keys, @Nullable List<Chunk<K>> chunks,
+                                                  long size, @Nullable Object content) {
+        return new IndexUpdate<>(value, checkNotNull(keys, "keys"), chunks, size, content, null);
+    }
+
+    /**
+     * Update which makes {@code value} share data of another value with the same content.
+     *
+     * @param value to update
+     * @param content identity of content of {@code value}
+     * @param shared data of value with the same content, prepared by index
+     * @param keys of {@code shared} data
+     * @param size of content, in bytes
+     */
+    public static <K, V> IndexUpdate<K, V> share(@NotNull V value, @NotNull Object content, @NotNull Object shared,
+                                                 @NotNull Set<K> keys, long size) {
+        return new IndexUpdate<>(value, checkNotNull(keys, "keys"), null, size, checkNotNull(content, "content"),
+                checkNotNull(shared, "shared"));
+    }
+
+    /**
+     * Update which removes {@code value} from index.
+     *
+     * @param value to remove
+     */
+    public static <K, V> IndexUpdate<K, V> remove(@NotNull V value) {
+        return new IndexUpdate<>(value, null, null, 0, null, null);
+    }
+
+    @NotNull
+    public V getValue() {
+        return value;
+    }
+
+    /**
+     * @return new keys of value or {@code null} if it is removal.
+     */
+    @Nullable
+    public Set<K> getKeys() {
+        return keys;
+    }
+
+    @Nullable
+    public List<Chunk<K>> getChunks() {
+        return chunks;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return identity of content of value or {@code null} if unknown.
+     */
+    @Nullable
+    public Object getContent() {
+        return content;
+    }
+
+    /**
+     * @return data of value with the same content if it is shared update, {@code null} otherwise.
+     */
+    @Nullable
+    public Object getShared() {
+        return shared;
+    }
+
+    public boolean isShared() {
+        return shared != null;
+    }
+
+    public boolean isRemove() {
+        return keys == null && shared == null;
+    }
+
+    @Override
+    public String toString() {
+        if (isRemove()) {
+            return "remove " + value;
+        }
+        if (isShared()) {
+            return "share " + value;
+        }
+        return "update " + value + " (" + keys.size() + " keys)";
+    }
+}
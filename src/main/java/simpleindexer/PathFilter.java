@@ -1,63 +1,286 @@
 package simpleindexer;
 
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import simpleindexer.fs.FileWrapper;
+import simpleindexer.fs.PathTable;
+import simpleindexer.utils.LiteralMatcher;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
 /**
+ * Filter of paths which should be indexed.
+ * <p>
+ * Path is rejected if it matches (i.e. contains match of) one of regexps of ignore list file, if it has binary
+ * extension, if it is file without extension and {@link WordToPathIndex.IndexProperties#isSkipFilesWithoutExt()}
+ * is set, or if it is ignored by {@value #IGNORE_FILE_NAME} file of one of its parent directories
+ * (see {@link simpleindexer.IgnoreRules}).
+ * <p>
+ * Regexps of ignore list are compiled once: literal regexps (e.g. {@code .*\.zip}) are matched all at once by
+ * {@link simpleindexer.utils.LiteralMatcher}, extensions, suffixes and prefixes are checked directly, and the rest
+ * are combined into one regexp. Path is checked without allocations and without file system calls: caller tells
+ * whether path is directory, and rules of {@value #IGNORE_FILE_NAME} files are passed by crawler as
+ * {@link Scope} of the directory being crawled, so they are read once as crawler descends. Scopes of other
+ * directories are built once and cached by ids of directories in shared {@link simpleindexer.fs.PathTable}
+ * until rules of some directory change.
+ * Implementation is thread-safe.
  *
  * Created by Arbuzov Ivan on 20/10/14.
  */
 public class PathFilter {
     private static final Logger log = LoggerFactory.getLogger(PathFilter.class);
 
-    private List<Pattern> patterns;
+    /**
+     * Name of per-directory file with ignore rules.
+     */
+    public static final String IGNORE_FILE_NAME = ".indexignore";
+
+    private static final char SEPARATOR = File.separatorChar;
+
+    /**
+     * Chain of {@link simpleindexer.IgnoreRules} of directory and its parents.
+     */
+    public static final class Scope {
+        private final String prefix;
+        private final IgnoreRules rules;
+        private final Scope parent;
+
+        private Scope(Path dir, IgnoreRules rules, Scope parent) {
+            String s = dir.toString();
+            this.prefix = s.endsWith(File.separator) ? s : s + SEPARATOR;
+            this.rules = rules;
+            this.parent = parent;
+        }
+
+        @Override
+        public String toString() {
+            return prefix + rules + (parent == null ? "" : " <- " + parent);
+        }
+    }
+
+    private final List<String> patterns = new ArrayList<>();
 
     private WordToPathIndex.IndexProperties properties;
 
-    public PathFilter(File file, WordToPathIndex.IndexProperties properties) throws IOException {
-        this(properties);
-        BufferedReader in = new BufferedReader(new FileReader(file));
-        String line = in.readLine();
-        while (line != null) {
-            if (!line.isEmpty()) {
-                patterns.add(Pattern.compile(line));
+    // compiled patterns
+    private volatile Compiled compiled;
+
+    private final Extensions binaryExtensions;
+
+    // rules of directories which have ignore files
+    private final ConcurrentMap<Path, IgnoreRules> rules = new ConcurrentHashMap<>();
+
+    private final PathTable paths;
+    // directory id -> its scope, guarded by itself
+    private final TIntObjectHashMap<CachedScope> scopes = new TIntObjectHashMap<>();
+    // incremented when rules change, guarded by scopes
+    private int scopesVersion;
+
+    public PathFilter(File file, WordToPathIndex.IndexProperties properties, @NotNull PathTable paths)
+            throws IOException {
+        this(properties, paths);
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line = in.readLine();
+            while (line != null) {
+                if (!line.isEmpty()) {
+                    patterns.add(line);
+                }
+                line = in.readLine();
             }
-            line = in.readLine();
         }
+        compiled = new Compiled(patterns);
     }
 
-    public PathFilter(WordToPathIndex.IndexProperties properties) {
-        patterns = new ArrayList<>();
+    public PathFilter(WordToPathIndex.IndexProperties properties, @NotNull PathTable paths) {
         this.properties = properties;
+        this.paths = checkNotNull(paths, "paths");
+        this.compiled = new Compiled(patterns);
+        List<String> binary = new ArrayList<>();
+        for (String marker : FileWrapper.getBinaryMarkers()) {
+            binary.add(marker.substring(1));
+        }
+        this.binaryExtensions = new Extensions(binary, true);
     }
 
-    public boolean accept(Path path) {
-        return accept(path.toString());
+    /**
+     * Check path with attributes read already, e.g. by {@link simpleindexer.fs.FSEventDispatcher}.
+     *
+     * @param path to check
+     * @param attrs attributes of {@code path}
+     * @return {@code true} if {@code path} should be indexed
+     * @see #accept(java.nio.file.Path, boolean)
+     */
+    public boolean accept(Path path, @NotNull BasicFileAttributes attrs) {
+        return accept(path, attrs.isDirectory());
     }
 
-    public boolean accept(String path) {
-        for (Pattern p : patterns) {
-            if (p.matcher(path).find()) {
-                return false;
-            }
+    /**
+     * Check path against ignore list and rules of known {@value #IGNORE_FILE_NAME} files of its parents.
+     *
+     * @param path to check
+     * @param directory whether {@code path} is directory
+     * @return {@code true} if {@code path} should be indexed
+     */
+    public boolean accept(Path path, boolean directory) {
+        Path parent = path.getParent();
+        return accept(path, directory, rules.isEmpty() || parent == null ? null : getScope(parent));
+    }
+
+    /**
+     * Check path against ignore list and rules of {@code scope}.
+     *
+     * @param path to check
+     * @param directory whether {@code path} is directory
+     * @param scope of parent directory of {@code path}, see {@link #enter(Scope, java.nio.file.Path)}
+     * @return {@code true} if {@code path} should be indexed
+     */
+    public boolean accept(Path path, boolean directory, @Nullable Scope scope) {
+        String s = path.toString();
+        int nameStart = s.lastIndexOf(SEPARATOR) + 1;
+        int dot = s.lastIndexOf('.');
+        boolean hasExtension = dot >= nameStart;
+        if (!compiled.accept(s, hasExtension ? dot + 1 : -1)) {
+            return false;
+        }
+        if (properties.isSkipFilesWithoutExt() && !directory && !hasExtension) {
+            return false;
         }
-        if (properties.isSkipFilesWithoutExt() && Files.isRegularFile(Paths.get(path)) && !path.contains("."))
+        if (hasExtension && binaryExtensions.contains(s, dot + 1)) {
             return false;
-        return defaultAccept(path);
+        }
+        // rules of the nearest directory win
+        for (Scope sc = scope; sc != null; sc = sc.parent) {
+            if (!s.startsWith(sc.prefix)) {
+                continue;
+            }
+            IgnoreRules.Match match = sc.rules.match(s, sc.prefix.length(), directory);
+            if (match != IgnoreRules.Match.NONE) {
+                return match == IgnoreRules.Match.INCLUDE;
+            }
+        }
+        return true;
     }
 
     public boolean defaultAccept(String path) {
-        return !(new FileWrapper(Paths.get(path)).isBinary());
+        int dot = path.lastIndexOf('.');
+        return dot < path.lastIndexOf(SEPARATOR) + 1 || !binaryExtensions.contains(path, dot + 1);
+    }
+
+    /**
+     * Read {@value #IGNORE_FILE_NAME} file of directory {@code dir}, which is being crawled.
+     *
+     * @param parent scope of parent of {@code dir} or {@code null}
+     * @param dir directory
+     * @return scope of {@code dir} to check its entries
+     */
+    @Nullable
+    public Scope enter(@Nullable Scope parent, @NotNull Path dir) {
+        IgnoreRules dirRules = reload(dir);
+        return dirRules.isEmpty() ? parent : new Scope(dir, dirRules, parent);
+    }
+
+    /**
+     * Get scope of directory {@code dir} built from known rules of it and its parents.
+     *
+     * @param dir directory
+     * @return scope of {@code dir} or {@code null} if there are no rules
+     */
+    @Nullable
+    public Scope getScope(@NotNull Path dir) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        int id = paths.find(dir);
+        if (id == PathTable.NO_ID) {
+            return buildScope(dir);
+        }
+        int version;
+        synchronized (scopes) {
+            CachedScope cached = scopes.get(id);
+            // id may be reused or moved to another path since the scope was built
+            if (cached != null && cached.dir.equals(dir)) {
+                return cached.scope;
+            }
+            version = scopesVersion;
+        }
+        Scope scope = buildScope(dir);
+        synchronized (scopes) {
+            if (version == scopesVersion) {
+                scopes.put(id, new CachedScope(dir, scope));
+            }
+        }
+        return scope;
+    }
+
+    private Scope buildScope(Path dir) {
+        List<Path> dirs = new ArrayList<>();
+        for (Path p = dir; p != null; p = p.getParent()) {
+            if (rules.containsKey(p)) {
+                dirs.add(p);
+            }
+        }
+        Scope scope = null;
+        for (int i = dirs.size() - 1; i >= 0; --i) {
+            IgnoreRules r = rules.get(dirs.get(i));
+            if (r != null) {
+                scope = new Scope(dirs.get(i), r, scope);
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * Read {@value #IGNORE_FILE_NAME} file of directory {@code dir} again, e.g. when it is changed.
+     *
+     * @param dir directory
+     * @return rules of {@code dir}
+     */
+    @NotNull
+    public IgnoreRules reload(@NotNull Path dir) {
+        IgnoreRules dirRules;
+        try {
+            dirRules = IgnoreRules.load(dir.resolve(IGNORE_FILE_NAME));
+        } catch (IOException e) {
+            log.warn("Can't read ignore file of {}: {}", dir, e.toString());
+            dirRules = IgnoreRules.EMPTY;
+        }
+        IgnoreRules old;
+        if (dirRules.isEmpty()) {
+            old = rules.remove(dir);
+        } else {
+            log.debug("{} of {}", dirRules, dir);
+            old = rules.put(dir, dirRules);
+        }
+        if (old != null || !dirRules.isEmpty()) {
+            synchronized (scopes) {
+                scopes.clear();
+                ++scopesVersion;
+            }
+        }
+        return dirRules;
+    }
+
+    /**
+     * @param path to check
+     * @return {@code true} if {@code path} is {@value #IGNORE_FILE_NAME} file
+     */
+    public static boolean isIgnoreFile(@NotNull Path path) {
+        Path name = path.getFileName();
+        return name != null && IGNORE_FILE_NAME.equals(name.toString());
     }
 
     public String toString() {
@@ -65,4 +288,159 @@ public class PathFilter {
             return "Empty path filter.";
         return "Path filter's regexps: " + patterns.toString();
     }
+
+    private static class CachedScope {
+        private final Path dir;
+        private final Scope scope;
+
+        CachedScope(Path dir, Scope scope) {
+            this.dir = dir;
+            this.scope = scope;
+        }
+    }
+
+    /*
+     * Regexps of ignore list split by kind.
+     */
+    private static class Compiled {
+        private final LiteralMatcher contains;
+        private final Extensions extensions;
+        private final List<String> suffixes = new ArrayList<>();
+        private final List<String> prefixes = new ArrayList<>();
+        private final Pattern combined;
+        private final ThreadLocal<Matcher> matcher = new ThreadLocal<Matcher>() {
+            @Override
+            protected Matcher initialValue() {
+                return combined.matcher("");
+            }
+        };
+
+        Compiled(List<String> patterns) {
+            List<String> literals = new ArrayList<>();
+            List<String> extensions = new ArrayList<>();
+            StringBuilder rest = new StringBuilder();
+            for (String pattern : patterns) {
+                String body = pattern;
+                boolean start = body.startsWith("^");
+                if (start) {
+                    body = body.substring(1);
+                }
+                if (body.startsWith(".*")) {
+                    // find() ignores leading .*
+                    start = false;
+                    body = body.substring(2);
+                }
+                boolean end = body.endsWith("$") && !body.endsWith("\\$");
+                if (end) {
+                    body = body.substring(0, body.length() - 1);
+                } else if (body.endsWith(".*") && !body.endsWith("\\.*")) {
+                    body = body.substring(0, body.length() - 2);
+                }
+                String literal = unescape(body);
+                if (literal == null || (start && end)) {
+                    rest.append(rest.length() > 0 ? "|" : "").append("(?:").append(pattern).append(')');
+                } else if (start) {
+                    prefixes.add(literal);
+                } else if (end && literal.length() > 1 && literal.lastIndexOf('.') == 0
+                        && literal.indexOf(SEPARATOR) < 0) {
+                    extensions.add(literal.substring(1));
+                } else if (end) {
+                    suffixes.add(literal);
+                } else {
+                    literals.add(literal);
+                }
+            }
+            this.contains = new LiteralMatcher(literals, false);
+            this.extensions = new Extensions(extensions, false);
+            this.combined = rest.length() > 0 ? Pattern.compile(rest.toString()) : null;
+        }
+
+        boolean accept(String path, int extension) {
+            for (String p : prefixes) {
+                if (path.startsWith(p)) {
+                    return false;
+                }
+            }
+            if (extension >= 0 && extensions.contains(path, extension)) {
+                return false;
+            }
+            for (String s : suffixes) {
+                if (path.endsWith(s)) {
+                    return false;
+                }
+            }
+            if (!contains.isEmpty() && contains.containsAny(path)) {
+                return false;
+            }
+            return combined == null || !matcher.get().reset(path).find();
+        }
+
+        /*
+         * Literal string matched by regexp or null if regexp is not literal.
+         */
+        private static String unescape(String regexp) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < regexp.length(); ++i) {
+                char c = regexp.charAt(i);
+                if (c == '\\') {
+                    if (i + 1 == regexp.length() || Character.isLetterOrDigit(regexp.charAt(i + 1))) {
+                        return null;
+                    }
+                    sb.append(regexp.charAt(++i));
+                } else if (".[]{}()*+?^$|".indexOf(c) >= 0) {
+                    return null;
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /*
+     * Set of extensions which is checked against part of path without allocations.
+     */
+    private static class Extensions {
+        private final String[][] buckets;
+        private final boolean ignoreCase;
+
+        Extensions(Collection<String> extensions, boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+            int size = Integer.highestOneBit(Math.max(1, extensions.size()) * 2);
+            List<List<String>> lists = new ArrayList<>(size);
+            for (int i = 0; i < size; ++i) {
+                lists.add(new ArrayList<String>(1));
+            }
+            for (String ext : extensions) {
+                String e = ignoreCase ? ext.toLowerCase() : ext;
+                lists.get(hash(e, 0) & (size - 1)).add(e);
+            }
+            buckets = new String[size][];
+            for (int i = 0; i < size; ++i) {
+                buckets[i] = lists.get(i).toArray(new String[lists.get(i).size()]);
+            }
+        }
+
+        /*
+         * Check if part of s starting from start is one of extensions.
+         */
+        boolean contains(String s, int start) {
+            int length = s.length() - start;
+            for (String e : buckets[hash(s, start) & (buckets.length - 1)]) {
+                if (e.length() == length && s.regionMatches(ignoreCase, start, e, 0, length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int hash(String s, int start) {
+            int h = 0;
+            for (int i = start; i < s.length(); ++i) {
+                char c = s.charAt(i);
+                h = 31 * h + (ignoreCase ? Character.toLowerCase(c) : c);
+            }
+            return h;
+        }
+    }
 }
@@ -1,16 +1,20 @@
 package simpleindexer;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+import simpleindexer.chunker.Chunk;
 import simpleindexer.exceptions.IndexException;
 import simpleindexer.fs.FileWrapper;
+import simpleindexer.terms.TermDictionary;
+import simpleindexer.terms.TermIds;
 import simpleindexer.valuestorages.ValueStorage;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.file.Files;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -30,11 +34,23 @@ public class StringStringIndex implements Index<String, String, FileWrapper> {
 
     private IndexStorage<String, String> indexStorage;
 
-    private Map<String, Set<String>> fileToKeys = new THashMap<>();
+    private final TermDictionary terms;
+
+    // path -> encoded ids of keys of file
+    private Map<String, byte[]> fileToKeys = new THashMap<>();
+
+    // chunks of files indexed by IncrementalDataIndexer, used to re-tokenize only changed chunks
+    private Map<String, List<Chunk<String>>> fileToChunks = new THashMap<>();
 
     public StringStringIndex(DataIndexer<String, Void, FileWrapper> dataIndexer, IndexStorage<String, String> indexStorage) {
+        this(dataIndexer, indexStorage, new TermDictionary());
+    }
+
+    public StringStringIndex(DataIndexer<String, Void, FileWrapper> dataIndexer, IndexStorage<String, String> indexStorage,
+                             @NotNull TermDictionary terms) {
         this.dataIndexer = dataIndexer;
         this.indexStorage = indexStorage;
+        this.terms = terms;
     }
 
     @Override
@@ -55,43 +71,135 @@ public class StringStringIndex implements Index<String, String, FileWrapper> {
 
     @Override
     public void clear() throws IndexException {
-        indexStorage.clear();
+        lock.writeLock().lock();
+        try {
+            indexStorage.clear();
+            for (byte[] keys : fileToKeys.values()) {
+                terms.release(TermIds.decode(keys));
+            }
+            fileToKeys.clear();
+            fileToChunks.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
     public void update(FileWrapper file) throws IndexException {
-        remove(file);
-        if (!Files.isRegularFile(file.getPath())) {
-            return;
+        commit(Collections.singletonList(prepareUpdate(file)));
+    }
+
+    @Override
+    public void remove(FileWrapper file) throws IndexException {
+        commit(Collections.singletonList(prepareRemove(file)));
+    }
+
+    @Override
+    @NotNull
+    public IndexUpdate<String, String> prepareUpdate(FileWrapper file) throws IndexException {
+        String path = file.getPath().toString();
+        if (!file.isRegularFile()) {
+            return IndexUpdate.remove(path);
         }
-        Map<String, Void> newData = dataIndexer.index(file);
-        lock.writeLock().lock();
+        List<Chunk<String>> previous;
+        lock.readLock().lock();
         try {
-            fileToKeys.put(file.getPath().toString(), newData.keySet());
-            for (String k : newData.keySet()) {
-                indexStorage.add(k, file.toString());
-            }
+            previous = fileToChunks.get(path);
         } finally {
-            lock.writeLock().unlock();
+            lock.readLock().unlock();
+        }
+        List<Chunk<String>> chunks = null;
+        if (dataIndexer instanceof IncrementalDataIndexer) {
+            chunks = ((IncrementalDataIndexer<String, FileWrapper>) dataIndexer).indexChunks(file, previous);
+        }
+        Set<String> newData;
+        if (chunks != null) {
+            newData = new THashSet<>();
+            for (Chunk<String> c : chunks) {
+                newData.addAll(c.getKeys());
+            }
+        } else {
+            newData = dataIndexer.index(file).keySet();
         }
+        return IndexUpdate.update(path, newData, chunks, file.length());
     }
 
     @Override
-    public void remove(FileWrapper file) throws IndexException {
+    @NotNull
+    public IndexUpdate<String, String> prepareRemove(FileWrapper file) throws IndexException {
+        return IndexUpdate.remove(file.toString());
+    }
+
+    /**
+     * Postings of all {@code updates} are grouped by key and merged into {@link simpleindexer.IndexStorage}
+     * in sorted order by one {@link simpleindexer.IndexStorage#merge(java.util.SortedMap, java.util.SortedMap)} call.
+     * Only postings of keys which were added to or removed from file are changed.
+     */
+    @Override
+    public void commit(@NotNull Collection<IndexUpdate<String, String>> updates) throws IndexException {
+        // the last update of the same path wins
+        Map<String, IndexUpdate<String, String>> last = new LinkedHashMap<>();
+        for (IndexUpdate<String, String> u : updates) {
+            last.put(u.getValue(), u);
+        }
+        // keys are converted to ids before index is locked
+        Map<String, int[]> newIds = new THashMap<>();
+        for (IndexUpdate<String, String> u : last.values()) {
+            if (!u.isRemove()) {
+                newIds.put(u.getValue(), terms.getIds(u.getKeys()));
+            }
+        }
+        SortedMap<String, List<String>> removed = new TreeMap<>();
+        SortedMap<String, List<String>> added = new TreeMap<>();
+        TIntArrayList removedIds = new TIntArrayList();
+        TIntArrayList addedIds = new TIntArrayList();
+        // ids of replaced keys are released after their terms are put to postings
+        List<int[]> released = new ArrayList<>();
         lock.writeLock().lock();
         try {
-            log.debug("remove from index {}", file);
-            String path = file.toString();
-            Set<String> oldKeys = fileToKeys.remove(path);
-            if (oldKeys != null && !oldKeys.isEmpty()) {
-                log.debug("remove old keys from {}", path);
-                for (String k : oldKeys) {
-                    indexStorage.remove(k, path);
+            for (IndexUpdate<String, String> u : last.values()) {
+                String path = u.getValue();
+                byte[] oldKeys = fileToKeys.remove(path);
+                fileToChunks.remove(path);
+                int[] ids = u.isRemove() ? new int[0] : newIds.get(path);
+                int[] oldIds = oldKeys == null ? new int[0] : TermIds.decode(oldKeys);
+                released.add(oldIds);
+                removedIds.resetQuick();
+                addedIds.resetQuick();
+                TermIds.diff(oldIds, ids, removedIds, addedIds);
+                log.debug("{}: {} keys removed, {} keys added", path, removedIds.size(), addedIds.size());
+                for (int i = 0; i < removedIds.size(); ++i) {
+                    postings(removed, terms.getTerm(removedIds.getQuick(i))).add(path);
+                }
+                for (int i = 0; i < addedIds.size(); ++i) {
+                    postings(added, terms.getTerm(addedIds.getQuick(i))).add(path);
                 }
+                if (!u.isRemove()) {
+                    fileToKeys.put(path, TermIds.encode(ids));
+                    if (u.getChunks() != null) {
+                        fileToChunks.put(path, u.getChunks());
+                    }
+                }
+            }
+            for (List<String> paths : added.values()) {
+                Collections.sort(paths);
             }
+            indexStorage.merge(removed, added);
         } finally {
+            for (int[] ids : released) {
+                terms.release(ids);
+            }
             lock.writeLock().unlock();
         }
     }
 
+    private static List<String> postings(Map<String, List<String>> map, String key) {
+        List<String> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        return list;
+    }
+
 }
@@ -1,21 +1,42 @@
 package simpleindexer;
 
-import gnu.trove.map.hash.THashMap;
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.THashSet;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import simpleindexer.chunker.Chunk;
 import simpleindexer.exceptions.IndexException;
 import simpleindexer.fs.FileWrapper;
+import simpleindexer.fs.PathTable;
+import simpleindexer.terms.TermDictionary;
+import simpleindexer.terms.TermFilter;
+import simpleindexer.terms.TermIds;
 import simpleindexer.valuestorages.SetValueStorage;
 import simpleindexer.valuestorages.ValueStorage;
 
-import java.nio.file.Files;
-import java.util.Map;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * More memory economical index implementation (but a little slower).
+ * <p>
+ * Indexed files are referenced by their ids in {@link simpleindexer.fs.PathTable}, which may be shared with other
+ * parts of index. Keys of file are stored as ids of {@link simpleindexer.terms.TermDictionary} encoded by
+ * {@link simpleindexer.terms.TermIds}; each document holds references to its terms, so terms of removed files are
+ * removed from dictionary. Query checks {@link simpleindexer.terms.TermFilter} of each document before decoding its
+ * keys.
+ * <p>
+ * Files with the same content (found by SHA-1 of content) share one reference-counted document, so a copy of
+ * an indexed file is neither tokenized nor stored again.
  *
  * Created by Arbuzov Ivan on 22/10/14.
  */
@@ -26,10 +47,30 @@ public class StringStringMemoIndex implements Index<String, String, FileWrapper>
 
         private DataIndexer<String, Void, FileWrapper> dataIndexer;
 
-        private Map<String, Set<String>> fileToKeys = new THashMap<>();
+        private final PathTable paths;
+
+        private final TermDictionary terms;
+
+        // file id -> its document; index holds reference to path of each indexed file
+        private TIntObjectHashMap<Document> fileToDocument = new TIntObjectHashMap<>();
+
+        // content hash -> document shared by files with such content
+        private Map<ContentHash, Document> documents = new HashMap<>();
+
+        // size of keys of documents which are shared instead of being stored again
+        private long sharedKeysBytes;
+        private long sharedFiles;
+        private final AtomicLong notTokenizedBytes = new AtomicLong();
 
         public StringStringMemoIndex(DataIndexer<String, Void, FileWrapper> dataIndexer) {
+            this(dataIndexer, new PathTable(), new TermDictionary());
+        }
+
+        public StringStringMemoIndex(DataIndexer<String, Void, FileWrapper> dataIndexer, @NotNull PathTable paths,
+                                     @NotNull TermDictionary terms) {
             this.dataIndexer = dataIndexer;
+            this.paths = paths;
+            this.terms = terms;
         }
 
         @Override
@@ -37,12 +78,17 @@ public class StringStringMemoIndex implements Index<String, String, FileWrapper>
         public ValueStorage<String> get(String key) throws IndexException {
             lock.readLock().lock();
             try {
+                int termId = terms.find(key);
+                if (termId == TermDictionary.NO_ID) {
+                    return null;
+                }
                 ValueStorage<String> vs = new SetValueStorage<>();
-                for (String p : fileToKeys.keySet()) {
-                    if (fileToKeys.get(p) == null)
-                        continue;
-                    if (fileToKeys.get(p).contains(key))
-                        vs.add(p);
+                for (TIntObjectIterator<Document> it = fileToDocument.iterator(); it.hasNext(); ) {
+                    it.advance();
+                    Document doc = it.value();
+                    // filter rejects almost all documents without the term, keys are decoded only for the rest
+                    if (TermFilter.mayContain(doc.filter, termId) && TermIds.contains(doc.keys, termId))
+                        vs.add(paths.getPath(it.key()).toString());
                 }
                 if (vs.isEmpty()) {
                     return null;
@@ -56,34 +102,231 @@ public class StringStringMemoIndex implements Index<String, String, FileWrapper>
 
         @Override
         public void clear() throws IndexException {
-            fileToKeys.clear();
+            lock.writeLock().lock();
+            try {
+                for (int id : fileToDocument.keys()) {
+                    release(fileToDocument.get(id));
+                    paths.release(id);
+                }
+                fileToDocument.clear();
+                documents.clear();
+                sharedKeysBytes = 0;
+                sharedFiles = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
         }
 
         @Override
         public void update(FileWrapper file) throws IndexException {
-            remove(file);
-            if (!Files.isRegularFile(file.getPath())) {
-                return;
-            }
-            Set<String> newData = dataIndexer.index(file).keySet();
+            commit(Collections.singletonList(prepareUpdate(file)));
+        }
+
+        @Override
+        public void remove(FileWrapper file) throws IndexException {
+            commit(Collections.singletonList(prepareRemove(file)));
+        }
+
+        @Override
+        @NotNull
+        public IndexUpdate<String, String> prepareUpdate(FileWrapper file) throws IndexException {
             String path = file.getPath().toString();
-            lock.writeLock().lock();
+            if (!file.isRegularFile()) {
+                return IndexUpdate.remove(path);
+            }
+            ContentHash hash = ContentHash.of(file);
+            List<Chunk<String>> previous = null;
+            lock.readLock().lock();
             try {
-                fileToKeys.put(path, newData);
+                Document same = hash == null ? null : documents.get(hash);
+                if (same != null) {
+                    notTokenizedBytes.addAndGet(file.length());
+                    // terms of document are freed if it is released before commit, so its keys are kept by update
+                    Set<String> keys = new THashSet<>(terms.getTerms(TermIds.decode(same.keys)));
+                    return IndexUpdate.share(path, hash, same, keys, file.length());
+                }
+                // if file is indexed, its id can't be released while index is locked
+                int id = paths.find(file.getPath());
+                Document doc = id == PathTable.NO_ID ? null : fileToDocument.get(id);
+                if (doc != null) {
+                    previous = doc.chunks;
+                }
             } finally {
-                lock.writeLock().unlock();
+                lock.readLock().unlock();
             }
+            List<Chunk<String>> chunks = null;
+            if (dataIndexer instanceof IncrementalDataIndexer) {
+                chunks = ((IncrementalDataIndexer<String, FileWrapper>) dataIndexer).indexChunks(file, previous);
+            }
+            Set<String> newData;
+            if (chunks != null) {
+                newData = new THashSet<>();
+                for (Chunk<String> c : chunks) {
+                    newData.addAll(c.getKeys());
+                }
+            } else {
+                newData = dataIndexer.index(file).keySet();
+            }
+            return IndexUpdate.update(path, newData, chunks, file.length(), hash);
         }
 
         @Override
-        public void remove(FileWrapper file) throws IndexException {
-            log.debug("remove from index {}", file);
-            String path = file.toString();
+        @NotNull
+        public IndexUpdate<String, String> prepareRemove(FileWrapper file) throws IndexException {
+            return IndexUpdate.remove(file.toString());
+        }
+
+        @Override
+        public void commit(@NotNull Collection<IndexUpdate<String, String>> updates) throws IndexException {
+            // keys are converted to ids before index is locked, ids not taken by a new document are released after
+            List<int[]> newIds = new ArrayList<>(updates.size());
+            for (IndexUpdate<String, String> u : updates) {
+                newIds.add(u.isRemove() || u.isShared() ? null : terms.getIds(u.getKeys()));
+            }
             lock.writeLock().lock();
             try {
-                fileToKeys.remove(path);
+                ListIterator<int[]> idsIt = newIds.listIterator();
+                for (IndexUpdate<String, String> u : updates) {
+                    Path path = Paths.get(u.getValue());
+                    int[] ids = idsIt.next();
+                    int id = paths.find(path);
+                    Document old = id == PathTable.NO_ID ? null : fileToDocument.get(id);
+                    if (u.isRemove()) {
+                        log.debug("remove from index {}", path);
+                        if (old != null) {
+                            fileToDocument.remove(id);
+                            release(old);
+                            paths.release(id);
+                        }
+                        continue;
+                    }
+                    ContentHash hash = (ContentHash) u.getContent();
+                    Document doc = hash == null ? null : documents.get(hash);
+                    if (doc == null) {
+                        if (u.isShared()) {
+                            // shared document is released since update was prepared, its terms may be freed already
+                            Document shared = (Document) u.getShared();
+                            doc = new Document(hash, terms.getIds(u.getKeys()), shared.chunks);
+                        } else {
+                            doc = new Document(hash, ids, u.getChunks());
+                            idsIt.set(null);
+                        }
+                        if (hash != null) {
+                            documents.put(hash, doc);
+                        }
+                    }
+                    if (doc == old) {
+                        continue;
+                    }
+                    if (old == null) {
+                        id = paths.acquire(path);
+                    }
+                    if (doc.refCount++ > 0) {
+                        ++sharedFiles;
+                        sharedKeysBytes += doc.keys.length + doc.filter.length;
+                    }
+                    fileToDocument.put(id, doc);
+                    if (old != null) {
+                        release(old);
+                    }
+                }
             } finally {
                 lock.writeLock().unlock();
+                for (int[] ids : newIds) {
+                    if (ids != null) {
+                        terms.release(ids);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Export dedup metrics: count of distinct documents and files, percent of files sharing documents
+         * of other files, bytes of keys not stored again and bytes of content not tokenized again.
+         *
+         * @param metrics to put metrics to
+         */
+        public void exportMetrics(@NotNull Map<String, Long> metrics) {
+            lock.readLock().lock();
+            try {
+                int files = fileToDocument.size();
+                metrics.put("dedup.documents", (long) documents.size());
+                metrics.put("dedup.files", (long) files);
+                metrics.put("dedup.ratio.percent", files == 0 ? 0 : 100 * sharedFiles / files);
+                metrics.put("dedup.bytes.saved", sharedKeysBytes);
+            } finally {
+                lock.readLock().unlock();
+            }
+            metrics.put("dedup.tokenize.bytes.saved", notTokenizedBytes.get());
+        }
+
+        private void release(Document doc) {
+            if (--doc.refCount > 0) {
+                --sharedFiles;
+                sharedKeysBytes -= doc.keys.length + doc.filter.length;
+            } else {
+                if (doc.hash != null && documents.get(doc.hash) == doc) {
+                    documents.remove(doc.hash);
+                }
+                terms.release(TermIds.decode(doc.keys));
+            }
+        }
+
+        /*
+         * Keys of content shared by all files with such content.
+         */
+        private static class Document {
+            private final ContentHash hash;
+            private final byte[] keys;
+            private final byte[] filter;
+            private final List<Chunk<String>> chunks;
+            private int refCount;
+
+            Document(ContentHash hash, int[] ids, List<Chunk<String>> chunks) {
+                this.hash = hash;
+                this.keys = TermIds.encode(ids);
+                this.filter = TermFilter.of(ids);
+                this.chunks = chunks;
+            }
+        }
+
+        private static final class ContentHash {
+            private final byte[] digest;
+            private final int hashCode;
+
+            private ContentHash(byte[] digest) {
+                this.digest = digest;
+                this.hashCode = Arrays.hashCode(digest);
+            }
+
+            /*
+             * Hash of content of file, which is read already, or null if it can't be read.
+             */
+            static ContentHash of(FileWrapper file) {
+                try {
+                    return new ContentHash(digest(file));
+                } catch (IOException | IndexException | NoSuchAlgorithmException e) {
+                    log.debug("Can't hash content of {}: {}", file, e.toString());
+                    return null;
+                }
+            }
+
+            private static byte[] digest(FileWrapper file)
+                    throws IOException, IndexException, NoSuchAlgorithmException {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                // content read into a buffer is hashed in place
+                md.update(file.getBuffer());
+                return md.digest();
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return this == o || o instanceof ContentHash && Arrays.equals(digest, ((ContentHash) o).digest);
+            }
+
+            @Override
+            public int hashCode() {
+                return hashCode;
             }
         }
 }
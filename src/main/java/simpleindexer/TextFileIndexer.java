@@ -1,42 +1,88 @@
 package simpleindexer;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.THashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.THashSet;
+import simpleindexer.chunker.Chunk;
+import simpleindexer.chunker.ContentChunker;
 import simpleindexer.exceptions.IndexException;
 import simpleindexer.fs.FileWrapper;
 import simpleindexer.tokenizer.Token;
 import simpleindexer.tokenizer.Tokenizer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Implementation of {@link simpleindexer.DataIndexer}, that splits file by " \t\n\r\f,.:;?![]'()".
+ * <p>
+ * Files which are not smaller than {@code minChunkedFileSize} bytes can be indexed by chunks
+ * (see {@link simpleindexer.IncrementalDataIndexer}). Files which are not smaller than {@code minParallelFileSize}
+ * bytes are split into chunks tokenized in parallel by {@link java.util.concurrent.ForkJoinPool}.
  *
  * @author Ivan Arbuzov
  * 10/7/14.
  */
-public class TextFileIndexer implements DataIndexer<String, Void, FileWrapper>{
+public class TextFileIndexer implements IncrementalDataIndexer<String, FileWrapper> {
+
+    public static final String DELIMITERS = " \t\n\r\f,.:;?![]'()";
+
+    private static final int DEFAULT_AVERAGE_CHUNK_SIZE = 64 * 1024;
+    private static final long DEFAULT_MIN_CHUNKED_FILE_SIZE = 1024 * 1024L;
+
+    private final ContentChunker chunker;
+    private final long minChunkedFileSize;
+    @Nullable
+    private final ForkJoinPool pool;
+    private final long minParallelFileSize;
+
+    /**
+     * Creates indexer which tokenizes files not smaller than {@code minParallelFileSize} bytes
+     * by chunks in parallel using {@code pool}.
+     *
+     * @param averageChunkSize average size of content-defined chunk in chars
+     * @param minChunkedFileSize files not smaller than this size are indexed by chunks
+     * @param pool for tokenizing chunks of one file in parallel, or {@code null} to tokenize sequentially
+     * @param minParallelFileSize files not smaller than this size are tokenized in parallel
+     */
+    public TextFileIndexer(int averageChunkSize, long minChunkedFileSize, @Nullable ForkJoinPool pool, long minParallelFileSize) {
+        this.chunker = new ContentChunker(DELIMITERS, averageChunkSize);
+        this.minChunkedFileSize = minChunkedFileSize;
+        this.pool = pool;
+        this.minParallelFileSize = minParallelFileSize;
+    }
+
+    public TextFileIndexer(int averageChunkSize, long minChunkedFileSize) {
+        this(averageChunkSize, minChunkedFileSize, null, Long.MAX_VALUE);
+    }
+
+    public TextFileIndexer() {
+        this(DEFAULT_AVERAGE_CHUNK_SIZE, DEFAULT_MIN_CHUNKED_FILE_SIZE);
+    }
 
     @Override
     @NotNull
     public Map<String, Void> index(@NotNull final FileWrapper file) throws IndexException {
         Map<String, Void> result = new THashMap<>();
         try {
-            Tokenizer tokenizer = new Tokenizer() {
-                private StringTokenizer stringTokenizer = new StringTokenizer(file.getContent(), " \t\n\r\f,.:;?![]'()");
-
-                @Override
-                public boolean hasMoreTokens() {
-                    return stringTokenizer.hasMoreTokens();
+            String content = file.getContent();
+            if (isParallel(file)) {
+                int[] ends = chunker.split(content);
+                int[] starts = starts(ends);
+                for (Set<String> keys : tokenize(content, starts, ends, true)) {
+                    for (String k : keys) {
+                        result.put(k, null);
+                    }
                 }
-
-                @Override
-                public Token nextToken() {
-                    return new Token(stringTokenizer.nextToken());
-                }
-            };
-
+                return result;
+            }
+            Tokenizer tokenizer = tokenizer(content);
             while (tokenizer.hasMoreTokens()) {
                 result.put(tokenizer.nextToken().get(), null);
             }
@@ -46,4 +92,137 @@ public class TextFileIndexer implements DataIndexer<String, Void, FileWrapper>{
         return result;
     }
 
+    @Override
+    @Nullable
+    public List<Chunk<String>> indexChunks(@NotNull FileWrapper file, @Nullable List<Chunk<String>> previous) throws IndexException {
+        if (file.length() < minChunkedFileSize) {
+            return null;
+        }
+        try {
+            String content = file.getContent();
+            int[] ends = chunker.split(content);
+            int[] starts = starts(ends);
+            TLongObjectMap<Chunk<String>> known = new TLongObjectHashMap<>();
+            if (previous != null) {
+                for (Chunk<String> c : previous) {
+                    known.put(c.getHash(), c);
+                }
+            }
+            List<Chunk<String>> result = new ArrayList<>(Collections.<Chunk<String>>nCopies(ends.length, null));
+            long[] hashes = new long[ends.length];
+            TIntArrayList changed = new TIntArrayList();
+            for (int i = 0; i < ends.length; ++i) {
+                hashes[i] = ContentChunker.hash(content, starts[i], ends[i]);
+                Chunk<String> old = known.get(hashes[i]);
+                if (old != null && old.matches(hashes[i], ends[i] - starts[i])) {
+                    result.set(i, old);
+                } else {
+                    changed.add(i);
+                }
+            }
+            int[] changedStarts = new int[changed.size()];
+            int[] changedEnds = new int[changed.size()];
+            for (int j = 0; j < changed.size(); ++j) {
+                changedStarts[j] = starts[changed.get(j)];
+                changedEnds[j] = ends[changed.get(j)];
+            }
+            List<Set<String>> keys = tokenize(content, changedStarts, changedEnds, isParallel(file));
+            for (int j = 0; j < changed.size(); ++j) {
+                int i = changed.get(j);
+                result.set(i, new Chunk<>(hashes[i], ends[i] - starts[i], keys.get(j)));
+            }
+            return result;
+        } catch (IOException e) {
+            throw new IndexException(e);
+        }
+    }
+
+    private boolean isParallel(FileWrapper file) {
+        return pool != null && file.length() >= minParallelFileSize;
+    }
+
+    private static int[] starts(int[] ends) {
+        int[] starts = new int[ends.length];
+        for (int i = 1; i < ends.length; ++i) {
+            starts[i] = ends[i - 1];
+        }
+        return starts;
+    }
+
+    /*
+     * Tokenize content[starts[i], ends[i]) for each i.
+     * If parallel, chunks are tokenized as fork/join subtasks of the pool.
+     */
+    private List<Set<String>> tokenize(String content, int[] starts, int[] ends, boolean parallel) {
+        List<Set<String>> keys = new ArrayList<>(Collections.<Set<String>>nCopies(ends.length, null));
+        TokenizeTask task = new TokenizeTask(content, starts, ends, keys, 0, ends.length);
+        if (parallel && ends.length > 1) {
+            pool.invoke(task);
+        } else {
+            task.compute();
+        }
+        return keys;
+    }
+
+    private static Set<String> tokenize(String text) {
+        Set<String> keys = new THashSet<>();
+        Tokenizer tokenizer = tokenizer(text);
+        while (tokenizer.hasMoreTokens()) {
+            keys.add(tokenizer.nextToken().get());
+        }
+        return keys;
+    }
+
+    private static Tokenizer tokenizer(final String text) {
+        return new Tokenizer() {
+            private StringTokenizer stringTokenizer = new StringTokenizer(text, DELIMITERS);
+
+            @Override
+            public boolean hasMoreTokens() {
+                return stringTokenizer.hasMoreTokens();
+            }
+
+            @Override
+            public Token nextToken() {
+                return new Token(stringTokenizer.nextToken());
+            }
+        };
+    }
+
+    /*
+     * Tokenizes chunks [from, to) splitting them into halves until one chunk remains.
+     */
+    private static class TokenizeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String content;
+        private final int[] starts;
+        private final int[] ends;
+        private final List<Set<String>> keys;
+        private final int from;
+        private final int to;
+
+        TokenizeTask(String content, int[] starts, int[] ends, List<Set<String>> keys, int from, int to) {
+            this.content = content;
+            this.starts = starts;
+            this.ends = ends;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int i = from; i < to; ++i) {
+                    keys.set(i, tokenize(content.substring(starts[i], ends[i])));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TokenizeTask(content, starts, ends, keys, from, middle),
+                    new TokenizeTask(content, starts, ends, keys, middle, to));
+        }
+    }
+
 }
@@ -1,13 +1,19 @@
 package simpleindexer;
 
 import com.sun.nio.file.SensitivityWatchEventModifier;
+import gnu.trove.set.hash.TIntHashSet;
 import simpleindexer.exceptions.FileHasZeroLengthException;
 import simpleindexer.exceptions.FileTooBigIndexException;
 import simpleindexer.exceptions.IndexException;
 import simpleindexer.exceptions.IndexIllegalStateException;
 import simpleindexer.fs.*;
+import simpleindexer.pipeline.IORateLimiter;
+import simpleindexer.pipeline.PriorityTaskQueue;
+import simpleindexer.pipeline.Stage;
+import simpleindexer.terms.TermDictionary;
 import simpleindexer.valuestorages.ValueStorage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +23,7 @@ import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
@@ -31,13 +38,23 @@ import static simpleindexer.utils.IndexerUtils.checkNotNull;
  *     MapReduce</a> concept).
  * There is a big (main) index represented as {@link simpleindexer.Index} uses implementation of {@link simpleindexer.IndexStorage}
  * for storing indexed data. When {@link simpleindexer.fs.FSEvent} occurs, it will be caught by
- * {@link simpleindexer.fs.FSWatcher}. Then {@link simpleindexer.fs.FSWatcher} calls
- * {@link simpleindexer.fs.FSEventDispatcher#dispatch(simpleindexer.fs.FSEvent)}, which in turn distribute this event among its
- * {@link simpleindexer.fs.FSEventListener}. In this implementation there is special {@link simpleindexer.fs.FSEventListener}
- * which used to submitting {@link java.lang.Runnable tasks} for index update to {@link java.util.concurrent.ExecutorService indexTaskExecutor}.
- * Each task use {@link simpleindexer.TextFileIndexer} to extract words from {@link simpleindexer.fs.FileWrapper}. Also you can
+ * one of shards of {@link simpleindexer.fs.FSWatcher}. Then {@link simpleindexer.fs.FSWatcher} calls
+ * {@link simpleindexer.fs.FSEventDispatcher#dispatch(java.util.List)} with a batch of events, which in turn distribute
+ * them among its {@link simpleindexer.fs.FSEventListener}. Events of the same path are merged by {@link simpleindexer.fs.FSEventDebouncer}
+ * first, then moves of files and directories are found by {@link simpleindexer.fs.FSMoveDetector}, so moved documents
+ * are just re-pointed to their new paths instead of being removed and indexed again. Paths of the same physical file
+ * (hardlinks, symbolic links) are grouped by {@link simpleindexer.fs.FileAliases}, so the file is read once. In this implementation there is special {@link simpleindexer.fs.FSEventListener}
+ * which used to submitting {@link java.lang.Runnable tasks} for index update to the indexing pipeline. Pipeline consists of
+ * three {@link simpleindexer.pipeline.Stage stages} with their own threads and bounded queues: files are read by
+ * {@code read} stage, tokenized by {@code tokenize} stage and committed into index by {@code commit} stage.
+ * Files may be read asynchronously by {@link simpleindexer.fs.AsyncFileReader} instead, see
+ * {@link simpleindexer.WordToPathIndex.IndexProperties#READ_MODE_PROPERTY}.
+ * Queue of {@code read} stage is ordered by {@link simpleindexer.pipeline.PriorityTaskQueue priority}: changes reported
+ * by FS events go before roots added by user and those before crawl, small files before big ones, with aging.
+ * Directory trees added to index are crawled in parallel by {@link simpleindexer.fs.FSCrawler}.
+ * Tokenizing uses {@link simpleindexer.TextFileIndexer} to extract words from {@link simpleindexer.fs.FileWrapper}. Also you can
  * implement your own {@link simpleindexer.DataIndexer} using custom {@link simpleindexer.tokenizer.Tokenizer} to parse file on your own way.
- * Then extracted data is merged into {@link simpleindexer.Index index}.
+ * Then extracted data is merged into {@link simpleindexer.Index index} in batches by {@link simpleindexer.BatchCommitter}.
  * <p>
  * Also you can customize index behavior by specifying {@link simpleindexer.WordToPathIndex.IndexProperties}.
  *
@@ -59,16 +76,68 @@ public class WordToPathIndex {
 
     private final Logger log = LoggerFactory.getLogger(WordToPathIndex.class);
 
+    private static final long OVERFLOW_RESCAN_DELAY_MILLIS = 100;
+    // files up to 2^SMALL_FILE_BITS bytes are not delayed for their size
+    private static final int SMALL_FILE_BITS = 16;
+
+    /*
+     * Classes of indexing work in order of their priority.
+     */
+    private static enum Priority {
+        // changes reported by FS events
+        LIVE,
+        // roots explicitly added or removed by user
+        REQUESTED,
+        // initial crawl and rescans
+        CRAWL
+    }
+
     private final WatchEvent.Kind[] EVENTS = new WatchEvent.Kind[]{ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY};
-    private final WatchService watchService;
-    private final Set<Path> pendingInconsistentPaths = new ConcurrentSkipListSet<>();
+    private final PathTable paths = new PathTable();
+    private final TermDictionary terms = new TermDictionary();
+    private final FileAliases aliases = new FileAliases(paths);
+    // ids of paths in paths table, each pending path is referenced
+    private final TIntHashSet pendingInconsistentPaths = new TIntHashSet();
     private final ReentrantReadWriteLock pendingLock = new ReentrantReadWriteLock();
-    private final LinkedBlockingQueue<Runnable> executorQueue = new LinkedBlockingQueue<>();
+    // queued and running tasks of files, from the file becoming pending until its last task is done
+    private final SubtreeTasks<FileTask> fileTasks = new SubtreeTasks<>(paths);
+    private final PriorityTaskQueue executorQueue;
+    private final Set<Path> rescanMarkers = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private final AtomicLong collapsedEvents = new AtomicLong();
+    private final Set<Path> overflowMarkers = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private final AtomicLong overflowEvents = new AtomicLong();
+    private final AtomicLong rescans = new AtomicLong();
+    private final AtomicLong rescanUpdates = new AtomicLong();
+    private final AtomicLong rescanRemoves = new AtomicLong();
+    private final AtomicLong movesApplied = new AtomicLong();
+    private final AtomicLong movesFallback = new AtomicLong();
+    private final AtomicLong cancelledTasks = new AtomicLong();
+    private final IORateLimiter ioRateLimiter;
+    private final AtomicLong[] submittedByPriority = new AtomicLong[Priority.values().length];
     private final IndexProperties properties;
     private final FSWatcher fsWatcher;
+    @Nullable
+    private WatchBudget watchBudget;
+    // buffers files are read into in all read modes
+    private final BufferPool bufferPool;
+    // reads files in async read mode, read threads only start reads then
+    @Nullable
+    private AsyncFileReader asyncReader;
+    // files with async reads in flight, which are in none of stages meanwhile
+    private final Set<FileWrapper> asyncReads = Collections.newSetFromMap(new ConcurrentHashMap<FileWrapper, Boolean>());
     private FSRegistrar fsRegistrar;
-    private ExecutorService indexTaskExecutor;
+    private Stage readStage;
+    private Stage tokenizeStage;
+    private Stage commitStage;
+    // bulk updates wait for permits of I/O rate limiter here, before they are submitted to read stage
+    private Stage throttleStage;
     private ExecutorService traversalExecutor;
+    private ForkJoinPool tokenizerPool;
+    private FSCrawler crawler;
+    private ScheduledExecutorService scheduler;
+    private BatchCommitter<String, String> committer;
+    private FSEventDebouncer debouncer;
+    private FSMoveDetector moveDetector;
     private Index<String, String, FileWrapper> index;
     private volatile boolean isTerminated;
     private final PathFilter pathFilter;
@@ -84,30 +153,96 @@ public class WordToPathIndex {
      */
     public WordToPathIndex(@NotNull final FileSystem fileSystem, @NotNull IndexProperties properties, final Path path) throws IOException {
         log.info("Initializing index...");
-        this.watchService = checkNotNull(fileSystem, "fileSystem").newWatchService();
         this.properties = checkNotNull(properties, "properties");
+        for (int i = 0; i < submittedByPriority.length; ++i) {
+            submittedByPriority[i] = new AtomicLong();
+        }
+        List<FSChangeSource> changeSources = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, properties.getWatcherShardsProperty()); ++i) {
+            if (properties.getWatchBackendProperty() == IndexProperties.WatchBackend.POLLING) {
+                changeSources.add(new PollingChangeSource(properties.getPollMinIntervalProperty(),
+                        properties.getPollMaxIntervalProperty()));
+            } else {
+                if (watchBudget == null) {
+                    watchBudget = new WatchBudget(properties.getWatchBudgetProperty());
+                }
+                // directories out of watch budget are polled
+                changeSources.add(new BudgetedChangeSource(
+                        new WatchServiceChangeSource(checkNotNull(fileSystem, "fileSystem").newWatchService(),
+                                EVENTS, SensitivityWatchEventModifier.HIGH),
+                        new PollingChangeSource(properties.getPollMinIntervalProperty(), properties.getPollMaxIntervalProperty()),
+                        watchBudget, properties.getWatchColdPeriodProperty()));
+            }
+        }
+        log.info("Use {}", changeSources);
         log.info("Properties: {}", properties);
         File ignore = new File(this.properties.getIgnoreListProperty());
-        int nThreads = properties.getIndexingThreadsCountProperty();
-        indexTaskExecutor = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, executorQueue);
+        executorQueue = new PriorityTaskQueue(properties.getQueueCapacityProperty());
+        bufferPool = new BufferPool(properties.getReadBufferSizeProperty(), properties.getReadBufferPoolBytesProperty(),
+                properties.isReadBufferDirectProperty());
+        log.info("Use {}", bufferPool);
+        if (properties.getReadModeProperty() == IndexProperties.ReadMode.ASYNC) {
+            asyncReader = new AsyncFileReader(properties.getAsyncIOThreadsCountProperty(),
+                    properties.getAsyncReadsInFlightProperty(), bufferPool);
+            log.info("Use {}", asyncReader);
+        }
+        readStage = new Stage("read", properties.getIndexingThreadsCountProperty(), executorQueue);
+        tokenizeStage = new Stage("tokenize", properties.getTokenizeThreadsCountProperty(), properties.getStageQueueCapacityProperty());
+        commitStage = new Stage("commit", properties.getCommitThreadsCountProperty(), properties.getStageQueueCapacityProperty());
+        throttleStage = new Stage("throttle", 1, properties.getStageQueueCapacityProperty());
         traversalExecutor = Executors.newFixedThreadPool(3);
-        pathFilter = ignore.isFile() ? new PathFilter(ignore, this.properties) : new PathFilter(this.properties);
+        tokenizerPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        pathFilter = ignore.isFile() ? new PathFilter(ignore, this.properties, paths)
+                : new PathFilter(this.properties, paths);
         log.info("Use {}", pathFilter);
         FSEventDispatcher<FSEventListener> fsEventDispatcher = new FSEventDispatcher<>();
-        fsWatcher = new FSWatcher(watchService, fsEventDispatcher);
+        fsWatcher = new FSWatcher(changeSources, fsEventDispatcher, properties.getWatcherBatchSizeProperty());
         fsRegistrar = new FSRegistrar(new FSRegistrar.Registrar() {
             @Override
             public WatchKey register(@NotNull Path root) throws IOException {
                 checkNotNull(root, "root");
                 checkIsRunning();
-                return root.register(watchService, EVENTS, SensitivityWatchEventModifier.HIGH);
+                return fsWatcher.register(root);
             }
-        });
-        fsEventDispatcher.addListener(new Submitter());
-        index = new StringStringMemoIndex(new TextFileIndexer());
+        }, paths);
+        ioRateLimiter = new IORateLimiter(properties.getCrawlRateBytesProperty(), properties.getCrawlRateFilesProperty(),
+                properties.getCrawlRateLatencyProperty());
+        crawler = new FSCrawler(fsRegistrar, pathFilter, properties.getCrawlThreadsCountProperty(),
+                properties.getCrawlBatchSizeProperty(), properties.isFollowLinksProperty());
+        FSEventListener listener = new Submitter();
+        if (properties.getMoveDetectionWindowProperty() > 0) {
+            moveDetector = new FSMoveDetector(listener, fsRegistrar, properties.getMoveDetectionWindowProperty());
+            moveDetector.start();
+            listener = moveDetector;
+        }
+        if (properties.getDebounceQuietPeriodProperty() > 0) {
+            debouncer = new FSEventDebouncer(listener, properties.getDebounceQuietPeriodProperty(),
+                    properties.getDebounceMaxDelayProperty(), properties.getDebounceMaxPendingProperty());
+            debouncer.start();
+            listener = debouncer;
+        }
+        fsEventDispatcher.addListener(listener);
+        index = new StringStringMemoIndex(new TextFileIndexer(
+                properties.getChunkAverageSizeProperty(), properties.getChunkMinFileSizeProperty(),
+                tokenizerPool, properties.getParallelTokenizeFileSizeProperty()), paths, terms);
+        committer = new BatchCommitter<>(index, properties.getCommitBatchDocsProperty(),
+                properties.getCommitBatchBytesProperty(), properties.getCommitBatchDelayProperty());
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        long flushPeriod = Math.max(1, properties.getCommitBatchDelayProperty() / 2);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                // an exception would cancel this task for good
+                try {
+                    committer.flushExpired();
+                } catch (RuntimeException e) {
+                    log.error("Exception while flushing expired batches", e);
+                }
+            }
+        }, flushPeriod, flushPeriod, TimeUnit.MILLISECONDS);
         fsWatcher.start();
         if (path != null)
-            submitUpdateTaskRecursive(path);
+            submitUpdateTaskRecursive(path, Priority.CRAWL);
         isTerminated = false;
         log.info("Index initialized.");
     }
@@ -186,7 +321,7 @@ public class WordToPathIndex {
             return;
         }
         log.info("Start watching {}", root);
-        submitTaskToRecursiveUpdate(root);
+        submitTaskToRecursiveUpdate(root, Priority.REQUESTED);
     }
 
     /**
@@ -210,7 +345,7 @@ public class WordToPathIndex {
             throw new NoSuchFileException("Directory " + root + " is not watched.");
         }
         log.info("Stop watching {}", root);
-        submitTaskToRecursiveRemove(root);
+        submitTaskToRecursiveRemove(root, Priority.REQUESTED);
     }
 
     /**
@@ -236,16 +371,28 @@ public class WordToPathIndex {
         try {
             ValueStorage<String> vs;
             if (properties.isBlockRequestProperty()) {
-                while(!executorQueue.isEmpty()) {
+                while(!isPipelineIdle()) {
                     checkIsRunning();
                     Thread.sleep(10); // terrible stub!
                 }
+                committer.flushAll();
             }
             vs = index.get(word);
             if (vs == null) {
                 return Collections.emptyList();
             }
-            return vs.asList();
+            List<String> result = vs.asList();
+            if (aliases.hasAliases()) {
+                // other paths of the same files are resolved at query time
+                int size = result.size();
+                result = new ArrayList<>(result);
+                for (int i = 0; i < size; ++i) {
+                    for (Path alias : aliases.getAliases(Paths.get(result.get(i)))) {
+                        result.add(alias.toString());
+                    }
+                }
+            }
+            return result;
         } catch (IndexException e) {
             log.error("Index exception while GET query: {}", e);
         } catch (IndexIllegalStateException e) {
@@ -257,7 +404,7 @@ public class WordToPathIndex {
     /**
      * Shutdown index.
      * <p>
-     * This method performs {@link java.util.concurrent.ExecutorService#shutdownNow() indexTaskExecutor.shutdownNow()},
+     * This method performs {@link simpleindexer.pipeline.Stage#shutdownNow()} of all pipeline stages,
      * {@link simpleindexer.fs.FSWatcher#stop()} and {@link Index#clear()}.
      * @throws IndexException
      */
@@ -276,10 +423,27 @@ public class WordToPathIndex {
             log.warn("Index is already stopped.");
             return;
         }
-        indexTaskExecutor.shutdownNow();
+        readStage.shutdownNow();
+        if (asyncReader != null) {
+            asyncReader.close();
+        }
+        tokenizeStage.shutdownNow();
+        commitStage.shutdownNow();
+        throttleStage.shutdownNow();
         traversalExecutor.shutdownNow();
+        tokenizerPool.shutdownNow();
+        crawler.shutdownNow();
+        scheduler.shutdownNow();
         fsWatcher.stop();
+        fsWatcher.close();
+        if (debouncer != null) {
+            debouncer.stop();
+        }
+        if (moveDetector != null) {
+            moveDetector.stop();
+        }
         index.clear();
+        aliases.clear();
         log.info("Index is stopped.");
     }
 
@@ -287,156 +451,769 @@ public class WordToPathIndex {
         return this.properties;
     }
 
-    private boolean moveToPending(Path path) {
-        if (!pendingInconsistentPaths.contains(path)) {
-            pendingLock.writeLock().lock();
-            try {
-                if (!pendingInconsistentPaths.contains(path)) {
-                    pendingInconsistentPaths.add(path);
-                    return true;
+    /**
+     * Change limits of I/O rate of crawl and rescans, indexing of changes reported by FS events is not limited.
+     * Operation is thread-safe.
+     *
+     * @param bytesPerSecond max bytes of files read per second, non-positive for no limit
+     * @param filesPerSecond max files read per second, non-positive for no limit
+     * @see simpleindexer.WordToPathIndex.IndexProperties#CRAWL_RATE_BYTES_PROPERTY
+     */
+    public void setCrawlRateLimits(long bytesPerSecond, long filesPerSecond) {
+        log.info("Set crawl rate limits: {} bytes/s, {} files/s", bytesPerSecond, filesPerSecond);
+        ioRateLimiter.setLimits(bytesPerSecond, filesPerSecond);
+    }
+
+    /**
+     * Return current values of index counters: metrics of pipeline stages, pending paths count, etc.
+     *
+     * @return {@link java.util.Map} from counter name to its value
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("registrar.registered", (long) fsRegistrar.registeredCount());
+        statistics.put("registrar.bytes", fsRegistrar.estimatedBytes());
+        statistics.put("paths.count", (long) paths.size());
+        statistics.put("paths.bytes", paths.estimatedBytes());
+        statistics.put("terms.count", (long) terms.size());
+        statistics.put("terms.bytes", terms.estimatedBytes());
+        if (index instanceof StringStringMemoIndex) {
+            ((StringStringMemoIndex) index).exportMetrics(statistics);
+        }
+        pendingLock.readLock().lock();
+        try {
+            statistics.put("pending", (long) pendingInconsistentPaths.size());
+        } finally {
+            pendingLock.readLock().unlock();
+        }
+        statistics.put("aliases.count", (long) aliases.getAliasesCount());
+        statistics.put("aliases.shared", aliases.getSharedCount());
+        fsWatcher.exportMetrics(statistics);
+        if (watchBudget != null) {
+            statistics.put("watch.budget", (long) watchBudget.getLimit());
+        }
+        statistics.put("crawl.directories", crawler.getDirectoriesCount());
+        statistics.put("crawl.files", crawler.getFilesCount());
+        statistics.put("crawl.cancelled", crawler.getCancelledDirectoriesCount());
+        statistics.put("cancelled.tasks", cancelledTasks.get());
+        ioRateLimiter.exportMetrics(statistics);
+        if (debouncer != null) {
+            statistics.put("debounce.received", debouncer.getReceivedCount());
+            statistics.put("debounce.fired", debouncer.getFiredCount());
+            statistics.put("debounce.pending", (long) debouncer.getPendingCount());
+        }
+        if (moveDetector != null) {
+            statistics.put("move.detected", moveDetector.getMovesCount());
+            statistics.put("move.pending", (long) moveDetector.getPendingCount());
+        }
+        statistics.put("move.applied", movesApplied.get());
+        statistics.put("move.fallback", movesFallback.get());
+        statistics.put("queue.collapsed.events", collapsedEvents.get());
+        statistics.put("queue.rescan.markers", (long) rescanMarkers.size());
+        statistics.put("overflow.events", overflowEvents.get());
+        for (Priority priority : Priority.values()) {
+            statistics.put("queue.submitted." + priority.name().toLowerCase(), submittedByPriority[priority.ordinal()].get());
+        }
+        statistics.put("rescan.count", rescans.get());
+        statistics.put("rescan.updates", rescanUpdates.get());
+        statistics.put("rescan.removes", rescanRemoves.get());
+        readStage.exportMetrics(statistics);
+        bufferPool.exportMetrics(statistics);
+        if (asyncReader != null) {
+            asyncReader.exportMetrics(statistics);
+        }
+        tokenizeStage.exportMetrics(statistics);
+        commitStage.exportMetrics(statistics);
+        throttleStage.exportMetrics(statistics);
+        return statistics;
+    }
+
+    private boolean isPipelineIdle() {
+        return readStage.isIdle() && (asyncReader == null || asyncReader.getInFlightCount() == 0)
+                && tokenizeStage.isIdle() && commitStage.isIdle();
+    }
+
+    /*
+     * Make file of read task pending. The task is tracked since then, under the same lock, so move(Path, Path)
+     * never misses it.
+     */
+    private boolean moveToPending(FileTask task) {
+        Path path = task.file.getPath();
+        pendingLock.readLock().lock();
+        try {
+            int id = paths.find(path);
+            if (id != PathTable.NO_ID && pendingInconsistentPaths.contains(id)) {
+                return false;
+            }
+        } finally {
+            pendingLock.readLock().unlock();
+        }
+        pendingLock.writeLock().lock();
+        try {
+            int id = paths.acquire(path);
+            if (pendingInconsistentPaths.add(id)) {
+                fileTasks.add(path, task);
+                return true;
+            }
+            paths.release(id);
+            return false;
+        } finally {
+            pendingLock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Make files of read tasks pending under one lock acquisition. Returns tasks which files were not pending before.
+     */
+    private List<FileTask> moveToPending(List<FileTask> tasks) {
+        List<FileTask> moved = new ArrayList<>(tasks.size());
+        pendingLock.writeLock().lock();
+        try {
+            for (FileTask task : tasks) {
+                Path path = task.file.getPath();
+                int id = paths.acquire(path);
+                if (pendingInconsistentPaths.add(id)) {
+                    fileTasks.add(path, task);
+                    moved.add(task);
+                } else {
+                    paths.release(id);
                 }
-            } finally {
-                pendingLock.writeLock().unlock();
             }
+        } finally {
+            pendingLock.writeLock().unlock();
         }
-        return false;
+        return moved;
     }
 
     private boolean removeFromPending(Path path) {
-        if (pendingInconsistentPaths.contains(path)) {
-            pendingLock.writeLock().lock();
+        pendingLock.writeLock().lock();
+        try {
+            int id = paths.find(path);
+            if (id != PathTable.NO_ID && pendingInconsistentPaths.remove(id)) {
+                paths.release(id);
+                return true;
+            }
+            return false;
+        } finally {
+            pendingLock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Task of indexing pipeline processing one file, which may be cancelled with its subtree.
+     * Task is in fileTasks from its submission until it is done.
+     */
+    private abstract class FileTask implements Runnable {
+        protected final FileWrapper file;
+
+        FileTask(FileWrapper file) {
+            this.file = file;
+        }
+
+        @Override
+        public final void run() {
             try {
-                if (pendingInconsistentPaths.contains(path)) {
-                    pendingInconsistentPaths.remove(path);
-                    return true;
-                }
+                execute();
             } finally {
-                pendingLock.writeLock().unlock();
+                fileTasks.remove(file.getPath(), this);
             }
         }
-        return false;
+
+        protected abstract void execute();
     }
 
-    private Runnable updateTask(final FileWrapper file) {
-        return new Runnable() {
+    /*
+     * Submit task of a file which is not pending, e.g. the next task of a file being processed. The task is tracked
+     * before the current one is done, so work of the file is seen all the time.
+     */
+    private void submit(Stage stage, FileTask task) {
+        fileTasks.add(task.file.getPath(), task);
+        try {
+            stage.submit(task);
+        } catch (RejectedExecutionException e) {
+            fileTasks.remove(task.file.getPath(), task);
+            throw e;
+        }
+    }
+
+    /*
+     * Task makes index consistent with the file: if the file is registered and exists, it is read and passed
+     * to tokenize stage, otherwise it is removed from index. So it doesn't matter which event caused the task:
+     * if the file is pending already, new event of the file can be just skipped.
+     */
+    private FileTask indexTask(final FileWrapper file) {
+        return new FileTask(file) {
             @Override
-            public void run() {
+            protected void execute() {
                 if (!removeFromPending(file.getPath())) {
                     log.warn("File already removed from pending: {}", file);
                     return;
                 }
+                // attributes are passed by crawler or rescan, otherwise they are read here once
+                BasicFileAttributes attrs = file.getAttributes();
+                if (!fsRegistrar.isRegistered(file.getPath()) || attrs == null || !attrs.isRegularFile()) {
+                    removeFromIndex(file);
+                    return;
+                }
+                // attributes are taken before reading, so if file is changed while reading, rescan will notice it
+                fsRegistrar.setAttributes(file.getPath(), attrs);
+                List<Path> stale = new ArrayList<>();
+                List<Path> orphans = new ArrayList<>();
+                Path owner = aliases.attach(file.getPath(), attrs, stale, orphans);
+                for (Path p : stale) {
+                    removeDocument(new FileWrapper(p, properties.getMaxAvailableFileSizeProperty()));
+                }
+                submitTaskToUpdate(orphans);
+                if (owner != null) {
+                    log.debug("{} is the same file as {}. Skip its reading.", file, owner);
+                    removeDocument(file);
+                    return;
+                }
                 try {
-                    index.update(file);
-                    log.info("updated {}", file);
+                    if (asyncReader != null) {
+                        asyncReads.add(file);
+                        boolean started = false;
+                        try {
+                            asyncReader.read(file, new ReadCallback());
+                            started = true;
+                        } finally {
+                            if (!started) {
+                                asyncReads.remove(file);
+                            }
+                        }
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    file.read(bufferPool);
+                    ioRateLimiter.onRead(file.length(), System.nanoTime() - start);
+                    submit(tokenizeStage, tokenizeTask(file));
                 } catch (FileTooBigIndexException | FileHasZeroLengthException e) {
                     log.warn(e.getMessage());
-                } catch (IndexException e) {
-                    log.error("Exception while indexing file {}: {}", file, e.getMessage());
+                    removeFromIndex(file);
+                } catch (IOException e) {
+                    log.error("Exception while reading file {}: {}", file, e.getMessage());
+                    removeFromIndex(file);
+                } catch (RejectedExecutionException e) {
+                    log.warn(e.toString());
+                    file.release();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
         };
     }
 
-    private Runnable removeTask(final FileWrapper file) {
-        return new Runnable() {
-            @Override
-            public void run() {
-                if (!removeFromPending(file.getPath())) {
-                    log.warn("File already removed from pending: {}", file);
-                    return;
+    /*
+     * Receives files read in async read mode, it is called by I/O threads of the reader.
+     */
+    private class ReadCallback implements AsyncFileReader.Callback {
+        @Override
+        public void completed(@NotNull FileWrapper file, long nanos) {
+            ioRateLimiter.onRead(file.length(), nanos);
+            try {
+                submit(tokenizeStage, tokenizeTask(file));
+            } catch (RejectedExecutionException e) {
+                log.warn(e.toString());
+                file.release();
+            } finally {
+                asyncReads.remove(file);
+            }
+        }
+
+        @Override
+        public void failed(@NotNull FileWrapper file, @NotNull Throwable e) {
+            try {
+                if (e instanceof FileHasZeroLengthException) {
+                    log.warn(e.getMessage());
+                } else {
+                    log.error("Exception while reading file {}: {}", file, e.toString());
                 }
+                removeFromIndex(file);
+            } finally {
+                asyncReads.remove(file);
+            }
+        }
+    }
+
+    private FileTask tokenizeTask(final FileWrapper file) {
+        return new FileTask(file) {
+            @Override
+            protected void execute() {
                 try {
-                    index.remove(file);
-                    log.info("removed {}", file);
+                    commit(file, index.prepareUpdate(file));
+                    log.info("updated {}", file);
                 } catch (IndexException e) {
-                    log.error("Exception while removing file from index {}: {}", file, e.getMessage());
+                    log.error("Exception while indexing file {}: {}", file, e.getMessage());
+                } finally {
+                    // buffer of content goes back to pool, content isn't needed after tokenization
+                    file.release();
                 }
             }
         };
     }
 
-    private void submitUpdateTask(Path path) {
+    /*
+     * Remove file from index and from its group of aliases. If file was read for its aliases, one of them is read instead.
+     */
+    private void removeFromIndex(FileWrapper file) {
+        Path orphan = aliases.detach(file.getPath());
+        if (orphan != null) {
+            submitTaskToUpdate(Collections.singletonList(orphan));
+        }
+        removeDocument(file);
+    }
+
+    private void removeDocument(FileWrapper file) {
+        try {
+            commit(file, index.prepareRemove(file));
+            log.info("removed {}", file);
+        } catch (IndexException e) {
+            log.error("Exception while removing file from index {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void commit(FileWrapper file, final IndexUpdate<String, String> update) {
+        try {
+            submit(commitStage, new FileTask(file) {
+                @Override
+                protected void execute() {
+                    committer.add(update);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn(e.toString());
+        }
+    }
+
+    /*
+     * Rank of read task in indexing queue: time of submission delayed by an aging period for each priority class
+     * below LIVE and by a quarter of the period for each doubling of file size above 64K. So tasks of lower
+     * priority wait for newer ones at most that long, and no task starves.
+     */
+    private long rank(Priority priority, long size) {
+        submittedByPriority[priority.ordinal()].incrementAndGet();
+        long aging = properties.getQueueAgingPeriodProperty();
+        int sizeClass = Math.max(0, 64 - Long.numberOfLeadingZeros(size) - SMALL_FILE_BITS);
+        return System.currentTimeMillis() + priority.ordinal() * aging + sizeClass * aging / 4;
+    }
+
+    /*
+     * Submit update of file which attributes may be known already, then they are not read again.
+     */
+    private void submitUpdateTask(final Path path, @Nullable final BasicFileAttributes attrs, final Priority priority) {
         checkIsRunning();
-        if (!moveToPending(path)) {
+        if (priority == Priority.LIVE || !ioRateLimiter.isLimited()) {
+            submitReadTask(path, attrs, priority);
             return;
         }
-        log.info("submit to update {}. Registered: {}", path, fsRegistrar.registeredCount());
+        // bulk update waits for permits in throttle stage, so crawl and traversal threads stay free for live changes,
+        // and file isn't pending meanwhile, so its live event is not skipped
         try {
-            indexTaskExecutor.submit(updateTask(new FileWrapper(path, properties.getMaxAvailableFileSizeProperty())));
+            throttleStage.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ioRateLimiter.acquire(attrs == null ? 0 : attrs.size());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    submitReadTask(path, attrs, priority);
+                }
+            });
         } catch (RejectedExecutionException e) {
             log.warn(e.toString());
-            removeFromPending(path);
         }
     }
 
-    private void submitRemoveTask(Path path) {
+    private void submitReadTask(Path path, @Nullable BasicFileAttributes attrs, Priority priority) {
+        FileTask task = indexTask(new FileWrapper(path, properties.getMaxAvailableFileSizeProperty(), attrs));
+        if (moveToPending(task)) {
+            log.info("submit to update {}. Registered: {}", path, fsRegistrar.registeredCount());
+            submitPendingReadTask(task, rank(priority, attrs == null ? 0 : attrs.size()));
+        }
+    }
+
+    private void submitPendingReadTask(FileTask task, long rank) {
+        try {
+            readStage.submit(task, rank);
+        } catch (RejectedExecutionException e) {
+            log.warn(e.toString());
+            removeFromPending(task.file.getPath());
+            fileTasks.remove(task.file.getPath(), task);
+        }
+    }
+
+    /*
+     * Submit update caused by FS event. If indexing queue is overloaded and policy is RESCAN, then
+     * event is collapsed into rescan of its directory instead of blocking watcher.
+     */
+    private void submitLiveUpdateTask(Path path) {
+        if (properties.getQueueOverflowPolicyProperty() == IndexProperties.OverflowPolicy.RESCAN
+                && readStage.getQueueSize() >= properties.getQueueRescanThresholdProperty()) {
+            markForRescan(path.getParent());
+            return;
+        }
+        submitUpdateTask(path, null, Priority.LIVE);
+    }
+
+    /*
+     * Submit updates caused by a batch of FS events at once, see submitLiveUpdateTask(Path).
+     */
+    private void submitLiveUpdateTasks(List<Path> files) {
         checkIsRunning();
-        if (!moveToPending(path)) {
-            log.warn("file already scheduled: {}", path);
+        List<FileTask> live = new ArrayList<>(files.size());
+        boolean rescanOnOverload = properties.getQueueOverflowPolicyProperty() == IndexProperties.OverflowPolicy.RESCAN;
+        for (Path path : files) {
+            if (rescanOnOverload
+                    && readStage.getQueueSize() + live.size() >= properties.getQueueRescanThresholdProperty()) {
+                markForRescan(path.getParent());
+            } else {
+                live.add(indexTask(new FileWrapper(path, properties.getMaxAvailableFileSizeProperty())));
+            }
+        }
+        for (FileTask task : moveToPending(live)) {
+            log.info("submit to update {}. Registered: {}", task.file.getPath(), fsRegistrar.registeredCount());
+            submitPendingReadTask(task, rank(Priority.LIVE, 0));
+        }
+    }
+
+    private void markForRescan(final Path dir) {
+        collapsedEvents.incrementAndGet();
+        if (!rescanMarkers.add(dir)) {
             return;
         }
-        log.debug("submit remove {}. Registered: {}", path, fsRegistrar);
+        log.info("Indexing queue is overloaded, {} will be rescanned.", dir);
         try {
-            indexTaskExecutor.submit(removeTask(new FileWrapper(path, properties.getMaxAvailableFileSizeProperty())));
+            traversalExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    rescanMarkers.remove(dir);
+                    rescan(dir, false);
+                }
+            });
         } catch (RejectedExecutionException e) {
             log.warn(e.toString());
-            removeFromPending(path);
+            rescanMarkers.remove(dir);
         }
     }
 
-    private void submitUpdateTaskRecursive(final Path dirPath) {
+    /*
+     * Schedule rescan of subtree of dir, which events were lost. Rescan starts after a short delay,
+     * so overflows of dir sub-directories received meanwhile are covered by the same rescan.
+     */
+    private void markForOverflowRescan(final Path dir) {
+        overflowEvents.incrementAndGet();
+        if (!overflowMarkers.add(dir)) {
+            return;
+        }
+        log.info("Events of {} were lost, its subtree will be rescanned.", dir);
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        traversalExecutor.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                overflowMarkers.remove(dir);
+                                for (Path p = dir.getParent(); p != null; p = p.getParent()) {
+                                    if (overflowMarkers.contains(p)) {
+                                        log.debug("{} will be rescanned with {}", dir, p);
+                                        return;
+                                    }
+                                }
+                                rescan(dir, true);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        log.warn(e.toString());
+                        overflowMarkers.remove(dir);
+                    }
+                }
+            }, OVERFLOW_RESCAN_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.warn(e.toString());
+            overflowMarkers.remove(dir);
+        }
+    }
+
+    /*
+     * Incremental rescan of registered directory root (only its entries if not recursive):
+     * submit updates of files which size or last modified time differ from ones of their indexed versions,
+     * updates of new files and directories and removes of registered paths which don't exist anymore.
+     */
+    private void rescan(final Path root, final boolean recursive) {
         checkIsRunning();
+        if (!fsRegistrar.isDirectory(root) || !Files.isDirectory(root)) {
+            log.debug("path {} is not a watched dir. Skip its rescan.", root);
+            return;
+        }
+        log.debug("rescan {}", root);
+        rescans.incrementAndGet();
         try {
-            if (!Files.isDirectory(dirPath)) {
-                log.debug("path {} is not a dir. Skip its recursive update.", dirPath);
-                return;
-            }
-            Files.walkFileTree(dirPath, new SimpleFileVisitor<Path>() {
+            Set<FileVisitOption> options = properties.isFollowLinksProperty()
+                    ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+            Files.walkFileTree(root, options, recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+                // existing children of directories being visited
+                private final Deque<Set<Path>> seen = new ArrayDeque<>();
+                // whether directories being visited are watched, i.e. not reached by links
+                private final Deque<Boolean> watched = new ArrayDeque<>();
+                // ignore rules of directories being visited, may be null
+                private final Deque<PathFilter.Scope> scopes = new LinkedList<>();
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(root)) {
+                        if (!pathFilter.accept(dir, true, scopes.peek())) {
+                            log.trace("ignore {}", dir);
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        seen.peek().add(dir);
+                        if (fsRegistrar.isRegistered(dir) && !fsRegistrar.isDirectory(dir)) {
+                            // file was replaced by directory
+                            unregisterAndRemove(dir);
+                        }
+                    }
+                    // links are not followed unless FOLLOW_LINKS is set
+                    boolean watch = (watched.isEmpty() || watched.peek())
+                            && !(properties.isFollowLinksProperty() && Files.isSymbolicLink(dir));
+                    if (!dir.equals(root)) {
+                        fsRegistrar.register(dir, attrs, watch);
+                    }
+                    seen.push(new HashSet<Path>());
+                    watched.push(watch);
+                    Path parent = dir.getParent();
+                    scopes.push(pathFilter.enter(dir.equals(root) && parent != null
+                            ? pathFilter.getScope(parent) : scopes.peek(), dir));
+                    return FileVisitResult.CONTINUE;
+                }
+
                 @Override
                 public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
-                    if (!pathFilter.accept(path)) {
+                    if (!pathFilter.accept(path, attrs.isDirectory(), scopes.peek())) {
                         log.trace("ignore {}", path);
-                    } else {
-                        log.trace("accept {}", path);
-                        fsRegistrar.register(path);
-                        submitUpdateTask(path);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    seen.peek().add(path);
+                    if (attrs.isSymbolicLink()) {
+                        // indexed version of link to file is the version of its target
+                        try {
+                            BasicFileAttributes target = Files.readAttributes(path, BasicFileAttributes.class);
+                            if (target.isRegularFile()) {
+                                attrs = target;
+                            }
+                        } catch (IOException e) {
+                            log.debug("Can't follow link {}: {}", path, e.toString());
+                        }
                     }
+                    if (attrs.isDirectory()) {
+                        // sub-directory of not recursive rescan
+                        if (!fsRegistrar.isDirectory(path)) {
+                            unregisterAndRemove(path);
+                            submitUpdateTaskRecursive(path, Priority.CRAWL);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (fsRegistrar.isUpToDate(path, attrs)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (fsRegistrar.isDirectory(path)) {
+                        // directory was replaced by file
+                        unregisterAndRemove(path);
+                    }
+                    fsRegistrar.register(path, attrs, true);
+                    rescanUpdates.incrementAndGet();
+                    submitUpdateTask(path, attrs, Priority.CRAWL);
                     return FileVisitResult.CONTINUE;
                 }
 
                 @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    if (!pathFilter.accept(dir)) {
-                        log.trace("ignore {}", dir);
-                        return FileVisitResult.SKIP_SUBTREE;
+                public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
+                    // path is removed while rescan or can't be read, it will be removed as not seen
+                    log.debug("Can't visit {}: {}", path, e.toString());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Set<Path> children = seen.pop();
+                    watched.pop();
+                    scopes.pop();
+                    if (e != null) {
+                        log.error("Error while rescanning {}: {}", dir, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    for (Path child : fsRegistrar.getChildren(dir)) {
+                        if (!children.contains(child)) {
+                            unregisterAndRemove(child);
+                        }
                     }
-                    log.trace("accept {}", dir);
-                    fsRegistrar.register(dir);
                     return FileVisitResult.CONTINUE;
                 }
             });
         } catch (IOException e) {
-            log.error("Error while recursive updating {}: {}", dirPath, e);
+            log.error("Error while rescanning {}: {}", root, e);
+        }
+    }
+
+    /*
+     * Re-point registered path from and its subtree with their documents to the path to, without reading them again.
+     * Documents being indexed would be committed at their old paths after the move, so the move is done only
+     * when no file under from or to is pending or in flight. New tasks can't become pending meanwhile.
+     */
+    private boolean move(Path from, Path to) {
+        pendingLock.writeLock().lock();
+        try {
+            if (hasWorkUnder(from) || hasWorkUnder(to)) {
+                return false;
+            }
+            committer.flushAll();
+            return fsRegistrar.move(from, to);
+        } finally {
+            pendingLock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Check if a file under dir is pending or in flight in the pipeline. Caller holds pendingLock.
+     * Tasks are found by the subtree of dir, async reads are bounded by the in-flight limit.
+     */
+    private boolean hasWorkUnder(Path dir) {
+        if (fileTasks.hasTasksUnder(dir)) {
+            return true;
+        }
+        for (FileWrapper file : asyncReads) {
+            if (file.getPath().startsWith(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void unregisterAndRemove(Path path) {
+        for (Path p : unregisterSubtree(path)) {
+            rescanRemoves.incrementAndGet();
+            submitRemoveTask(p, Priority.CRAWL);
+        }
+    }
+
+    /*
+     * Unregister path and its subtree. If it is a directory, its crawl in progress is aborted and queued tasks
+     * of its files are cancelled, so they are not read and tokenized just to be removed. Returns unregistered files
+     * and files of cancelled tasks, which should be removed from index.
+     */
+    private List<Path> unregisterSubtree(Path path) {
+        if (!fsRegistrar.isDirectory(path)) {
+            // queued task of file removes it from index itself, since the file is not registered anymore
+            return fsRegistrar.unregisterAll(path);
+        }
+        crawler.cancel(path);
+        Set<Path> removed = new LinkedHashSet<>(fsRegistrar.unregisterAll(path));
+        // file deleted before its directory is unregistered already, its cancelled task was the one to remove it
+        removed.addAll(cancelPendingTasks(path));
+        return new ArrayList<>(removed);
+    }
+
+    /*
+     * Cancel queued reads and tokenizations of files of subtree dir. Files are removed from pending,
+     * so they can be removed from index by tasks submitted after. Returns files of cancelled tasks.
+     * Only tasks of the subtree are visited, tasks of other files are not looked at.
+     */
+    private Set<Path> cancelPendingTasks(Path dir) {
+        Set<Path> files = new HashSet<>();
+        int reads = 0;
+        int tokenizations = 0;
+        for (FileTask task : fileTasks.getTasksUnder(dir)) {
+            Path path = task.file.getPath();
+            if (readStage.cancel(task)) {
+                removeFromPending(path);
+                ++reads;
+            } else if (tokenizeStage.cancel(task)) {
+                task.file.release();
+                ++tokenizations;
+            } else {
+                continue;
+            }
+            fileTasks.remove(path, task);
+            files.add(path);
+        }
+        if (reads > 0 || tokenizations > 0) {
+            cancelledTasks.addAndGet(reads + tokenizations);
+            log.info("Cancelled {} reads and {} tokenizations of {}", reads, tokenizations, dir);
         }
+        return files;
     }
 
-    private void submitTaskToRecursiveRemove(final Path path) {
+    private void submitRemoveTask(Path path, Priority priority) {
+        checkIsRunning();
+        FileTask task = indexTask(new FileWrapper(path, properties.getMaxAvailableFileSizeProperty()));
+        if (!moveToPending(task)) {
+            log.warn("file already scheduled: {}", path);
+            return;
+        }
+        log.debug("submit remove {}. Registered: {}", path, fsRegistrar);
+        submitPendingReadTask(task, rank(priority, 0));
+    }
+
+    private void submitUpdateTaskRecursive(final Path dirPath, final Priority priority) {
+        checkIsRunning();
+        crawler.crawl(dirPath, new FSCrawler.FileHandler() {
+            @Override
+            public void onFile(Path path, BasicFileAttributes attrs) {
+                log.trace("accept {}", path);
+                submitUpdateTask(path, attrs, priority);
+            }
+        });
+    }
+
+    private void submitTaskToRecursiveRemove(final Path path, final Priority priority) {
         traversalExecutor.submit(new Runnable() {
             @Override
             public void run() {
-                List<Path> removed = fsRegistrar.unregisterAll(path);
+                List<Path> removed = unregisterSubtree(path);
                 for (Path p : removed) {
-                    submitRemoveTask(p);
+                    submitRemoveTask(p, priority);
                 }
             }
         });
     }
 
-    private void submitTaskToRecursiveUpdate(final Path path) {
+    private void submitTaskToRescan(final Path dir) {
         traversalExecutor.submit(new Runnable() {
             @Override
             public void run() {
-                submitUpdateTaskRecursive(path);
+                rescan(dir, true);
+            }
+        });
+    }
+
+    /*
+     * Submit updates from another thread, so stage threads are never blocked by full indexing queue.
+     */
+    private void submitTaskToUpdate(final List<Path> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        try {
+            traversalExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (Path p : paths) {
+                        submitUpdateTask(p, null, Priority.LIVE);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn(e.toString());
+        }
+    }
+
+    private void submitTaskToRecursiveUpdate(final Path path, final Priority priority) {
+        traversalExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                submitUpdateTaskRecursive(path, priority);
             }
         });
     }
@@ -451,36 +1228,42 @@ public class WordToPathIndex {
         }
     }
 
-    private class Submitter implements FSEventListener {
+    private class Submitter implements ExtendedFSEventListener {
 
         @Override
         public void onFileCreated(final Path path) throws IOException {
             checkIsRunning();
-            if (!pathFilter.accept(path)) {
+            if (PathFilter.isIgnoreFile(path)) {
+                onIgnoreFileChanged(path);
+            }
+            if (!pathFilter.accept(path, false)) {
                 log.trace("ignore {}", path);
                 return;
             }
             log.trace("accept {}", path);
-            fsRegistrar.register(path);
-            submitUpdateTask(path);
+            fsRegistrar.registerFiles(Collections.singletonList(path));
+            submitLiveUpdateTask(path);
         }
 
         @Override
         public void onFileModified(final Path path) throws IOException {
             checkIsRunning();
-            if (!pathFilter.accept(path)) {
+            if (PathFilter.isIgnoreFile(path)) {
+                onIgnoreFileChanged(path);
+            }
+            if (!pathFilter.accept(path, false)) {
                 log.trace("ignore {}", path);
                 return;
             }
             log.trace("accept {}", path);
-            fsRegistrar.register(path);
-            submitUpdateTask(path);
+            fsRegistrar.registerFiles(Collections.singletonList(path));
+            submitLiveUpdateTask(path);
         }
 
         @Override
         public void onDirectoryCreated(final Path path) {
             checkIsRunning();
-            submitTaskToRecursiveUpdate(path);
+            submitTaskToRecursiveUpdate(path, Priority.LIVE);
         }
 
         @Override
@@ -493,8 +1276,112 @@ public class WordToPathIndex {
         public void onDeleted(final Path path) {
             checkIsRunning();
             log.debug("delete {}", path);
-            submitTaskToRecursiveRemove(path);
+            if (PathFilter.isIgnoreFile(path)) {
+                onIgnoreFileChanged(path);
+            }
+            if (fsRegistrar.isRegistered(path) && !fsRegistrar.isDirectory(path)) {
+                // unregister file right now, so it can't be unregistered after it is created again
+                for (Path p : fsRegistrar.unregisterAll(path)) {
+                    submitRemoveTask(p, Priority.LIVE);
+                }
+            } else if (fsRegistrar.isDirectory(path)) {
+                submitTaskToRecursiveRemove(path, Priority.LIVE);
+            } else {
+                // path may be being registered by recursive update, but it may be created again as well
+                traversalExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                            log.debug("{} is created again. Skip its remove.", path);
+                            return;
+                        }
+                        for (Path p : fsRegistrar.unregisterAll(path)) {
+                            submitRemoveTask(p, Priority.LIVE);
+                        }
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onMoved(final Path from, final Path to, final BasicFileAttributes attrs) {
+            checkIsRunning();
+            log.debug("move {} to {}", from, to);
+            boolean accepted = attrs != null ? pathFilter.accept(to, attrs)
+                    : pathFilter.accept(to, fsRegistrar.isDirectory(from));
+            if (accepted && move(from, to)) {
+                movesApplied.incrementAndGet();
+                if (fsRegistrar.isDirectory(to)) {
+                    // entries of directory may be changed while it was watched at its old path
+                    submitTaskToRescan(to);
+                }
+                return;
+            }
+            movesFallback.incrementAndGet();
+            onDeleted(from);
+            if (attrs != null ? attrs.isDirectory() : Files.isDirectory(to, LinkOption.NOFOLLOW_LINKS)) {
+                onDirectoryCreated(to);
+            } else {
+                try {
+                    onFileCreated(to);
+                } catch (IOException e) {
+                    log.error("Error while registering {}: {}", to, e);
+                }
+            }
+        }
+
+        @Override
+        public void onOverflow(final Path path) {
+            checkIsRunning();
+            markForOverflowRescan(path);
+        }
+
+        /**
+         * Consecutive creations and modifications of files are registered and submitted at once, other events are
+         * handled one by one between them.
+         */
+        @Override
+        public void onEvents(List<FSEvent> events) throws IOException {
+            checkIsRunning();
+            List<Path> files = new ArrayList<>();
+            for (FSEvent event : events) {
+                if ((event.isCreate() || event.isModify()) && event.isFile()) {
+                    Path path = event.getFullPath();
+                    if (PathFilter.isIgnoreFile(path)) {
+                        onIgnoreFileChanged(path);
+                    }
+                    if (pathFilter.accept(path, event.getAttributes())) {
+                        log.trace("accept {}", path);
+                        files.add(path);
+                    } else {
+                        log.trace("ignore {}", path);
+                    }
+                    continue;
+                }
+                submitFiles(files);
+                FSEventDispatcher.deliver(this, event);
+            }
+            submitFiles(files);
+        }
 
+        private void submitFiles(List<Path> files) {
+            if (!files.isEmpty()) {
+                fsRegistrar.registerFiles(files);
+                submitLiveUpdateTasks(files);
+                files.clear();
+            }
+        }
+
+        /*
+         * Rules of directory are changed, so its entries may be ignored or accepted now.
+         */
+        private void onIgnoreFileChanged(Path path) {
+            Path dir = path.getParent();
+            if (dir != null && fsRegistrar.isDirectory(dir)) {
+                log.debug("ignore file {} is changed", path);
+                pathFilter.reload(dir);
+                submitTaskToRescan(dir);
+            }
         }
 
         @Override
@@ -509,9 +1396,216 @@ public class WordToPathIndex {
     public static class IndexProperties {
 
         /**
-         * Threads count used by {@link java.util.concurrent.ExecutorService indexTaskExecutor} while executing updating tasks.
+         * Threads count of {@code read} stage of indexing pipeline, i.e. count of files which are read simultaneously.
          */
         public final static String INDEXING_THREADS_COUNT_PROPERTY = "indexer.threads.count";
+        /**
+         * Threads count of {@code tokenize} stage of indexing pipeline.
+         */
+        public final static String TOKENIZE_THREADS_COUNT_PROPERTY = "indexer.tokenize.threads.count";
+        /**
+         * Threads count of {@code commit} stage of indexing pipeline.
+         */
+        public final static String COMMIT_THREADS_COUNT_PROPERTY = "indexer.commit.threads.count";
+        /**
+         * Threads reading files: {@code platform} threads of {@link #INDEXING_THREADS_COUNT_PROPERTY} count, or
+         * {@code async} reads, started by platform threads, at most {@link #ASYNC_READS_IN_FLIGHT_PROPERTY} at once.
+         * @see simpleindexer.WordToPathIndex.IndexProperties.ReadMode
+         */
+        public final static String READ_MODE_PROPERTY = "indexer.read.mode";
+        /**
+         * Max count of reads in flight (if {@link #READ_MODE_PROPERTY} is {@code async}). Thread of {@code read}
+         * stage blocks starting a new read while there are that many.
+         * @see simpleindexer.fs.AsyncFileReader
+         */
+        public final static String ASYNC_READS_IN_FLIGHT_PROPERTY = "indexer.async.reads.in.flight";
+        /**
+         * Threads count of I/O pool of async reads (if {@link #READ_MODE_PROPERTY} is {@code async}), which runs
+         * completion handlers and, on platforms without native async file I/O, the reads themselves.
+         * @see simpleindexer.fs.AsyncFileReader
+         */
+        public final static String ASYNC_IO_THREADS_COUNT_PROPERTY = "indexer.async.io.threads.count";
+        /**
+         * Max size in bytes of pooled buffers which files are read into. Buffers are pooled in size classes of
+         * powers of two up to this size, bigger files are read into buffers allocated for them.
+         * @see simpleindexer.fs.BufferPool
+         */
+        public final static String READ_BUFFER_SIZE_PROPERTY = "indexer.read.buffer.size";
+        /**
+         * Max total size in bytes of buffers kept in pool for reuse.
+         * @see simpleindexer.fs.BufferPool
+         */
+        public final static String READ_BUFFER_POOL_BYTES_PROPERTY = "indexer.read.buffer.pool.bytes";
+        /**
+         * Whether pooled buffers are direct (off-heap), by default only in {@code async} read mode. Content of heap
+         * buffers is decoded without copying.
+         * @see simpleindexer.fs.BufferPool
+         */
+        public final static String READ_BUFFER_DIRECT_PROPERTY = "indexer.read.buffer.direct";
+        /**
+         * Capacity of queues between stages of indexing pipeline.
+         */
+        public final static String STAGE_QUEUE_CAPACITY_PROPERTY = "indexer.stage.queue.capacity";
+        /**
+         * Capacity of indexing queue, i.e. max count of files waiting for {@code read} stage.
+         * When queue is full, threads submitting files to index are blocked.
+         */
+        public final static String QUEUE_CAPACITY_PROPERTY = "indexer.queue.capacity";
+        /**
+         * What to do with FS events when indexing queue is overloaded: {@code block} watcher until there is free space
+         * in queue, or collapse events into {@code rescan} of their directories.
+         * @see simpleindexer.WordToPathIndex.IndexProperties.OverflowPolicy
+         */
+        public final static String QUEUE_OVERFLOW_POLICY_PROPERTY = "indexer.queue.overflow.policy";
+        /**
+         * Indexing queue size starting from which FS events are collapsed into directory rescans
+         * (if {@link #QUEUE_OVERFLOW_POLICY_PROPERTY} is {@code rescan}).
+         */
+        public final static String QUEUE_RESCAN_THRESHOLD_PROPERTY = "indexer.queue.rescan.threshold";
+        /**
+         * Time in milliseconds a task waits in indexing queue to get ahead of a newer task one priority class
+         * higher. Changes reported by FS events go first, then roots added or removed by user, then crawl and
+         * rescans; small files go before big ones of the same class. Zero makes the queue FIFO.
+         */
+        public final static String QUEUE_AGING_PERIOD_PROPERTY = "indexer.queue.aging.period";
+        /**
+         * FS events of the same path are merged until there are no its new events during this time in milliseconds.
+         * Zero disables merging.
+         * @see simpleindexer.fs.FSEventDebouncer
+         */
+        public final static String DEBOUNCE_QUIET_PERIOD_PROPERTY = "indexer.debounce.quiet.period";
+        /**
+         * Max time in milliseconds FS event can be delayed for merging with next events of the same path.
+         * @see simpleindexer.fs.FSEventDebouncer
+         */
+        public final static String DEBOUNCE_MAX_DELAY_PROPERTY = "indexer.debounce.max.delay";
+        /**
+         * Max count of paths which events are delayed for merging.
+         * @see simpleindexer.fs.FSEventDebouncer
+         */
+        public final static String DEBOUNCE_MAX_PENDING_PROPERTY = "indexer.debounce.max.pending";
+        /**
+         * Max time in milliseconds between delete and create events of the same file to treat them as its move.
+         * Zero disables detection of moves.
+         * @see simpleindexer.fs.FSMoveDetector
+         */
+        public final static String MOVE_DETECTION_WINDOW_PROPERTY = "indexer.move.window";
+        /**
+         * Count of directories which are crawled simultaneously when directory tree is added to index.
+         * @see simpleindexer.fs.FSCrawler
+         */
+        public final static String CRAWL_THREADS_COUNT_PROPERTY = "indexer.crawl.threads.count";
+        /**
+         * Max count of files found by crawler which are registered at once.
+         * @see simpleindexer.fs.FSCrawler
+         */
+        public final static String CRAWL_BATCH_SIZE_PROPERTY = "indexer.crawl.batch.size";
+        /**
+         * Max bytes per second of files read by crawl and rescans, zero for no limit. Indexing of changes reported
+         * by FS events is not limited. Can be changed by {@link simpleindexer.WordToPathIndex#setCrawlRateLimits(long, long)}.
+         * @see simpleindexer.pipeline.IORateLimiter
+         */
+        public final static String CRAWL_RATE_BYTES_PROPERTY = "indexer.crawl.rate.bytes";
+        /**
+         * Max files per second read by crawl and rescans, zero for no limit.
+         * @see #CRAWL_RATE_BYTES_PROPERTY
+         */
+        public final static String CRAWL_RATE_FILES_PROPERTY = "indexer.crawl.rate.files";
+        /**
+         * Target read latency in milliseconds: when reads become slower, crawl rate limits are lowered until latency
+         * recovers. Zero disables adaptation.
+         * @see simpleindexer.pipeline.IORateLimiter
+         */
+        public final static String CRAWL_RATE_LATENCY_PROPERTY = "indexer.crawl.rate.latency";
+        /**
+         * Whether symbolic links to directories should be followed while crawling. Files reachable by several paths
+         * are read once anyway.
+         * @see simpleindexer.fs.FSCrawler
+         * @see simpleindexer.fs.FileAliases
+         */
+        public final static String FOLLOW_LINKS_PROPERTY = "indexer.follow.links";
+        /**
+         * How changes of watched directories are found: by {@code native} watch service or by {@code polling}.
+         * @see simpleindexer.WordToPathIndex.IndexProperties.WatchBackend
+         */
+        public final static String WATCH_BACKEND_PROPERTY = "indexer.watch.backend";
+        /**
+         * Poll interval in milliseconds of recently changed directories (if {@link #WATCH_BACKEND_PROPERTY}
+         * is {@code polling} or directory is out of {@link #WATCH_BUDGET_PROPERTY watch budget}).
+         * @see simpleindexer.fs.PollingChangeSource
+         */
+        public final static String POLL_MIN_INTERVAL_PROPERTY = "indexer.poll.min.interval";
+        /**
+         * Poll interval in milliseconds of directories which have not changed for a long time (if
+         * {@link #WATCH_BACKEND_PROPERTY} is {@code polling} or directory is out of watch budget).
+         * @see simpleindexer.fs.PollingChangeSource
+         */
+        public final static String POLL_MAX_INTERVAL_PROPERTY = "indexer.poll.max.interval";
+        /**
+         * Count of watcher shards: top-level subtrees of watched directories are partitioned among shards, each with its own watch service
+         * (or poller) and thread.
+         * @see simpleindexer.fs.FSWatcher
+         */
+        public final static String WATCHER_SHARDS_PROPERTY = "indexer.watcher.shards";
+        /**
+         * Max count of FS events passed to listeners at once.
+         * @see simpleindexer.fs.FSWatcher
+         */
+        public final static String WATCHER_BATCH_SIZE_PROPERTY = "indexer.watcher.batch.size";
+        /**
+         * Max count of native watches (one per watched directory), by default 3/4 of
+         * {@code fs.inotify.max_user_watches} if it is known. Directories out of budget are polled.
+         * @see simpleindexer.fs.WatchBudget
+         */
+        public final static String WATCH_BUDGET_PROPERTY = "indexer.watch.budget";
+        /**
+         * Time in milliseconds without events after which watched directory may give its native watch to
+         * an active polled directory, if watch budget is exhausted.
+         * @see simpleindexer.fs.BudgetedChangeSource
+         */
+        public final static String WATCH_COLD_PERIOD_PROPERTY = "indexer.watch.cold.period";
+
+        /**
+         * Behaviour of index when indexing queue is overloaded.
+         */
+        public static enum OverflowPolicy {
+            /**
+             * Block watcher thread until there is free space in the queue.
+             */
+            BLOCK,
+            /**
+             * Replace file events by one rescan of their directory.
+             */
+            RESCAN
+        }
+
+        /**
+         * Source of changes of watched directories.
+         */
+        public static enum WatchBackend {
+            /**
+             * Native watch service of file system, e.g. inotify.
+             */
+            NATIVE,
+            /**
+             * Polling of directories with adaptive intervals.
+             */
+            POLLING
+        }
+        /**
+         * Threads reading files.
+         */
+        public static enum ReadMode {
+            /**
+             * Fixed count of platform threads.
+             */
+            PLATFORM,
+            /**
+             * Reads by {@link java.nio.channels.AsynchronousFileChannel} into pooled direct buffers, so a few
+             * threads keep many reads queued to the disk.
+             */
+            ASYNC
+        }
         /**
          * Whether request {@link simpleindexer.WordToPathIndex#getPathsByWord(String)} will be blocked if indexer is
          * in progress at the time of request.
@@ -532,18 +1626,146 @@ public class WordToPathIndex {
          * Whether indexer should skip files without extension.
          */
         public final static String SKIP_FILES_WITHOUT_EXT_PROPERTY = "indexer.skip.noext";
+        /**
+         * Files not smaller than this size in bytes are indexed by content-defined chunks, so on modification
+         * only changed chunks are tokenized again.
+         * @see simpleindexer.chunker.ContentChunker
+         */
+        public final static String CHUNK_MIN_FILE_SIZE_PROPERTY = "indexer.chunk.min.file.size";
+        /**
+         * Average size of content-defined chunk in chars.
+         * @see simpleindexer.chunker.ContentChunker
+         */
+        public final static String CHUNK_AVERAGE_SIZE_PROPERTY = "indexer.chunk.average.size";
+        /**
+         * Files not smaller than this size in bytes are split into chunks which are tokenized in parallel
+         * by {@link java.util.concurrent.ForkJoinPool}.
+         */
+        public final static String PARALLEL_TOKENIZE_FILE_SIZE_PROPERTY = "indexer.parallel.tokenize.file.size";
+        /**
+         * Max count of files committed into index at once.
+         * @see simpleindexer.BatchCommitter
+         */
+        public final static String COMMIT_BATCH_DOCS_PROPERTY = "indexer.commit.batch.docs";
+        /**
+         * Max total size in bytes of files committed into index at once.
+         * @see simpleindexer.BatchCommitter
+         */
+        public final static String COMMIT_BATCH_BYTES_PROPERTY = "indexer.commit.batch.bytes";
+        /**
+         * Max time in milliseconds indexed file can wait for commit into index.
+         * @see simpleindexer.BatchCommitter
+         */
+        public final static String COMMIT_BATCH_DELAY_PROPERTY = "indexer.commit.batch.delay";
 
         private int indexingThreadsCountProperty;
+        private int tokenizeThreadsCountProperty;
+        private int commitThreadsCountProperty;
+        private ReadMode readModeProperty;
+        private int asyncReadsInFlightProperty;
+        private int asyncIOThreadsCountProperty;
+        private int readBufferSizeProperty;
+        private long readBufferPoolBytesProperty;
+        private boolean readBufferDirectProperty;
+        private int stageQueueCapacityProperty;
+        private int queueCapacityProperty;
+        private OverflowPolicy queueOverflowPolicyProperty;
+        private int queueRescanThresholdProperty;
+        private long queueAgingPeriodProperty;
+        private long debounceQuietPeriodProperty;
+        private long debounceMaxDelayProperty;
+        private int debounceMaxPendingProperty;
+        private long moveDetectionWindowProperty;
+        private int crawlThreadsCountProperty;
+        private int crawlBatchSizeProperty;
+        private long crawlRateBytesProperty;
+        private long crawlRateFilesProperty;
+        private long crawlRateLatencyProperty;
+        private boolean followLinksProperty;
+        private WatchBackend watchBackendProperty;
+        private long pollMinIntervalProperty;
+        private long pollMaxIntervalProperty;
+        private int watcherShardsProperty;
+        private int watcherBatchSizeProperty;
+        private int watchBudgetProperty;
+        private long watchColdPeriodProperty;
         private boolean blockRequestProperty;
         private boolean skipFilesWithoutExt;
         private long maxAvailableFileSizeProperty;
         private String ignoreListFilePath;
+        private long chunkMinFileSizeProperty;
+        private int chunkAverageSizeProperty;
+        private long parallelTokenizeFileSizeProperty;
+        private int commitBatchDocsProperty;
+        private long commitBatchBytesProperty;
+        private long commitBatchDelayProperty;
 
         public IndexProperties(@NotNull Properties properties) {
             checkNotNull(properties, "properties");
             this.indexingThreadsCountProperty = Integer.parseInt(properties.getProperty(
                     INDEXING_THREADS_COUNT_PROPERTY,
                     String.valueOf((3 * Runtime.getRuntime().availableProcessors() + 1) / 2)));
+            this.tokenizeThreadsCountProperty = Integer.parseInt(properties.getProperty(
+                    TOKENIZE_THREADS_COUNT_PROPERTY, String.valueOf(Runtime.getRuntime().availableProcessors())));
+            this.commitThreadsCountProperty = Integer.parseInt(properties.getProperty(
+                    COMMIT_THREADS_COUNT_PROPERTY, "1"));
+            this.readModeProperty = ReadMode.valueOf(properties.getProperty(
+                    READ_MODE_PROPERTY, "platform").toUpperCase());
+            this.asyncReadsInFlightProperty = Integer.parseInt(properties.getProperty(
+                    ASYNC_READS_IN_FLIGHT_PROPERTY, "64"));
+            this.asyncIOThreadsCountProperty = Integer.parseInt(properties.getProperty(
+                    ASYNC_IO_THREADS_COUNT_PROPERTY, "4"));
+            this.readBufferSizeProperty = Integer.parseInt(properties.getProperty(
+                    READ_BUFFER_SIZE_PROPERTY, String.valueOf(1024 * 1024)));
+            this.readBufferPoolBytesProperty = Long.parseLong(properties.getProperty(
+                    READ_BUFFER_POOL_BYTES_PROPERTY, String.valueOf(64 * 1024 * 1024)));
+            this.readBufferDirectProperty = Boolean.parseBoolean(properties.getProperty(
+                    READ_BUFFER_DIRECT_PROPERTY, String.valueOf(readModeProperty == ReadMode.ASYNC)));
+            this.stageQueueCapacityProperty = Integer.parseInt(properties.getProperty(
+                    STAGE_QUEUE_CAPACITY_PROPERTY, "64"));
+            this.queueCapacityProperty = Integer.parseInt(properties.getProperty(
+                    QUEUE_CAPACITY_PROPERTY, "100000"));
+            this.queueOverflowPolicyProperty = OverflowPolicy.valueOf(properties.getProperty(
+                    QUEUE_OVERFLOW_POLICY_PROPERTY, "rescan").toUpperCase());
+            this.queueRescanThresholdProperty = Integer.parseInt(properties.getProperty(
+                    QUEUE_RESCAN_THRESHOLD_PROPERTY, String.valueOf(queueCapacityProperty * 3 / 4)));
+            this.queueAgingPeriodProperty = Long.parseLong(properties.getProperty(
+                    QUEUE_AGING_PERIOD_PROPERTY, "5000"));
+            this.debounceQuietPeriodProperty = Long.parseLong(properties.getProperty(
+                    DEBOUNCE_QUIET_PERIOD_PROPERTY, "100"));
+            this.debounceMaxDelayProperty = Long.parseLong(properties.getProperty(
+                    DEBOUNCE_MAX_DELAY_PROPERTY, "1000"));
+            this.debounceMaxPendingProperty = Integer.parseInt(properties.getProperty(
+                    DEBOUNCE_MAX_PENDING_PROPERTY, "100000"));
+            this.moveDetectionWindowProperty = Long.parseLong(properties.getProperty(
+                    MOVE_DETECTION_WINDOW_PROPERTY, "200"));
+            // crawling is mostly waiting for I/O, so there are more threads than cores
+            this.crawlThreadsCountProperty = Integer.parseInt(properties.getProperty(
+                    CRAWL_THREADS_COUNT_PROPERTY, String.valueOf(2 * Runtime.getRuntime().availableProcessors())));
+            this.crawlBatchSizeProperty = Integer.parseInt(properties.getProperty(
+                    CRAWL_BATCH_SIZE_PROPERTY, "256"));
+            this.crawlRateBytesProperty = Long.parseLong(properties.getProperty(
+                    CRAWL_RATE_BYTES_PROPERTY, "0"));
+            this.crawlRateFilesProperty = Long.parseLong(properties.getProperty(
+                    CRAWL_RATE_FILES_PROPERTY, "0"));
+            this.crawlRateLatencyProperty = Long.parseLong(properties.getProperty(
+                    CRAWL_RATE_LATENCY_PROPERTY, "50"));
+            this.followLinksProperty = Boolean.parseBoolean(properties.getProperty(
+                    FOLLOW_LINKS_PROPERTY, "false"));
+            this.watchBackendProperty = WatchBackend.valueOf(properties.getProperty(
+                    WATCH_BACKEND_PROPERTY, "native").toUpperCase());
+            this.pollMinIntervalProperty = Long.parseLong(properties.getProperty(
+                    POLL_MIN_INTERVAL_PROPERTY, "100"));
+            this.pollMaxIntervalProperty = Long.parseLong(properties.getProperty(
+                    POLL_MAX_INTERVAL_PROPERTY, "2000"));
+            this.watcherShardsProperty = Integer.parseInt(properties.getProperty(
+                    WATCHER_SHARDS_PROPERTY, "2"));
+            this.watcherBatchSizeProperty = Integer.parseInt(properties.getProperty(
+                    WATCHER_BATCH_SIZE_PROPERTY, "1024"));
+            this.watchBudgetProperty = Integer.parseInt(properties.getProperty(
+                    WATCH_BUDGET_PROPERTY, String.valueOf(WatchBudget.systemLimit())));
+            this.watchColdPeriodProperty = Long.parseLong(properties.getProperty(
+                    WATCH_COLD_PERIOD_PROPERTY, "60000"));
             this.blockRequestProperty = Boolean.parseBoolean(properties.getProperty(
                     BLOCK_REQUEST_PROPERTY, "false"));
             this.skipFilesWithoutExt = Boolean.parseBoolean(properties.getProperty(
@@ -552,6 +1774,18 @@ public class WordToPathIndex {
                     MAX_AVAILABLE_FILE_SIZE_PROPERTY, String.valueOf(30 * 1024 * 1024L)));
             this.ignoreListFilePath = properties.getProperty(
                     IGNORE_LIST_PROPERTY, "");
+            this.chunkMinFileSizeProperty = Long.parseLong(properties.getProperty(
+                    CHUNK_MIN_FILE_SIZE_PROPERTY, String.valueOf(1024 * 1024L)));
+            this.chunkAverageSizeProperty = Integer.parseInt(properties.getProperty(
+                    CHUNK_AVERAGE_SIZE_PROPERTY, String.valueOf(64 * 1024)));
+            this.parallelTokenizeFileSizeProperty = Long.parseLong(properties.getProperty(
+                    PARALLEL_TOKENIZE_FILE_SIZE_PROPERTY, String.valueOf(4 * 1024 * 1024L)));
+            this.commitBatchDocsProperty = Integer.parseInt(properties.getProperty(
+                    COMMIT_BATCH_DOCS_PROPERTY, "256"));
+            this.commitBatchBytesProperty = Long.parseLong(properties.getProperty(
+                    COMMIT_BATCH_BYTES_PROPERTY, String.valueOf(16 * 1024 * 1024L)));
+            this.commitBatchDelayProperty = Long.parseLong(properties.getProperty(
+                    COMMIT_BATCH_DELAY_PROPERTY, "50"));
         }
 
         public IndexProperties() {
@@ -562,6 +1796,126 @@ public class WordToPathIndex {
             return indexingThreadsCountProperty;
         }
 
+        public int getTokenizeThreadsCountProperty() {
+            return tokenizeThreadsCountProperty;
+        }
+
+        public ReadMode getReadModeProperty() {
+            return readModeProperty;
+        }
+
+        public int getAsyncReadsInFlightProperty() {
+            return asyncReadsInFlightProperty;
+        }
+
+        public int getAsyncIOThreadsCountProperty() {
+            return asyncIOThreadsCountProperty;
+        }
+
+        public int getReadBufferSizeProperty() {
+            return readBufferSizeProperty;
+        }
+
+        public long getReadBufferPoolBytesProperty() {
+            return readBufferPoolBytesProperty;
+        }
+
+        public boolean isReadBufferDirectProperty() {
+            return readBufferDirectProperty;
+        }
+
+        public int getCommitThreadsCountProperty() {
+            return commitThreadsCountProperty;
+        }
+
+        public int getStageQueueCapacityProperty() {
+            return stageQueueCapacityProperty;
+        }
+
+        public int getQueueCapacityProperty() {
+            return queueCapacityProperty;
+        }
+
+        public OverflowPolicy getQueueOverflowPolicyProperty() {
+            return queueOverflowPolicyProperty;
+        }
+
+        public int getQueueRescanThresholdProperty() {
+            return queueRescanThresholdProperty;
+        }
+
+        public long getQueueAgingPeriodProperty() {
+            return queueAgingPeriodProperty;
+        }
+
+        public long getDebounceQuietPeriodProperty() {
+            return debounceQuietPeriodProperty;
+        }
+
+        public long getDebounceMaxDelayProperty() {
+            return debounceMaxDelayProperty;
+        }
+
+        public int getDebounceMaxPendingProperty() {
+            return debounceMaxPendingProperty;
+        }
+
+        public long getMoveDetectionWindowProperty() {
+            return moveDetectionWindowProperty;
+        }
+
+        public int getCrawlThreadsCountProperty() {
+            return crawlThreadsCountProperty;
+        }
+
+        public int getCrawlBatchSizeProperty() {
+            return crawlBatchSizeProperty;
+        }
+
+        public long getCrawlRateBytesProperty() {
+            return crawlRateBytesProperty;
+        }
+
+        public long getCrawlRateFilesProperty() {
+            return crawlRateFilesProperty;
+        }
+
+        public long getCrawlRateLatencyProperty() {
+            return crawlRateLatencyProperty;
+        }
+
+        public boolean isFollowLinksProperty() {
+            return followLinksProperty;
+        }
+
+        public WatchBackend getWatchBackendProperty() {
+            return watchBackendProperty;
+        }
+
+        public long getPollMinIntervalProperty() {
+            return pollMinIntervalProperty;
+        }
+
+        public long getPollMaxIntervalProperty() {
+            return pollMaxIntervalProperty;
+        }
+
+        public int getWatcherShardsProperty() {
+            return watcherShardsProperty;
+        }
+
+        public int getWatcherBatchSizeProperty() {
+            return watcherBatchSizeProperty;
+        }
+
+        public int getWatchBudgetProperty() {
+            return watchBudgetProperty;
+        }
+
+        public long getWatchColdPeriodProperty() {
+            return watchColdPeriodProperty;
+        }
+
         public boolean isBlockRequestProperty() {
             return blockRequestProperty;
         }
@@ -577,13 +1931,73 @@ public class WordToPathIndex {
             return ignoreListFilePath;
         }
 
+        public long getChunkMinFileSizeProperty() {
+            return chunkMinFileSizeProperty;
+        }
+
+        public int getChunkAverageSizeProperty() {
+            return chunkAverageSizeProperty;
+        }
+
+        public long getParallelTokenizeFileSizeProperty() {
+            return parallelTokenizeFileSizeProperty;
+        }
+
+        public int getCommitBatchDocsProperty() {
+            return commitBatchDocsProperty;
+        }
+
+        public long getCommitBatchBytesProperty() {
+            return commitBatchBytesProperty;
+        }
+
+        public long getCommitBatchDelayProperty() {
+            return commitBatchDelayProperty;
+        }
+
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
             sb.append(INDEXING_THREADS_COUNT_PROPERTY).append("=").append(indexingThreadsCountProperty).append("; ");
+            sb.append(TOKENIZE_THREADS_COUNT_PROPERTY).append("=").append(tokenizeThreadsCountProperty).append("; ");
+            sb.append(COMMIT_THREADS_COUNT_PROPERTY).append("=").append(commitThreadsCountProperty).append("; ");
+            sb.append(READ_MODE_PROPERTY).append("=").append(readModeProperty).append("; ");
+            sb.append(ASYNC_READS_IN_FLIGHT_PROPERTY).append("=").append(asyncReadsInFlightProperty).append("; ");
+            sb.append(ASYNC_IO_THREADS_COUNT_PROPERTY).append("=").append(asyncIOThreadsCountProperty).append("; ");
+            sb.append(READ_BUFFER_SIZE_PROPERTY).append("=").append(readBufferSizeProperty).append("; ");
+            sb.append(READ_BUFFER_POOL_BYTES_PROPERTY).append("=").append(readBufferPoolBytesProperty).append("; ");
+            sb.append(READ_BUFFER_DIRECT_PROPERTY).append("=").append(readBufferDirectProperty).append("; ");
+            sb.append(STAGE_QUEUE_CAPACITY_PROPERTY).append("=").append(stageQueueCapacityProperty).append("; ");
+            sb.append(QUEUE_CAPACITY_PROPERTY).append("=").append(queueCapacityProperty).append("; ");
+            sb.append(QUEUE_OVERFLOW_POLICY_PROPERTY).append("=").append(queueOverflowPolicyProperty).append("; ");
+            sb.append(QUEUE_RESCAN_THRESHOLD_PROPERTY).append("=").append(queueRescanThresholdProperty).append("; ");
+            sb.append(QUEUE_AGING_PERIOD_PROPERTY).append("=").append(queueAgingPeriodProperty).append("; ");
+            sb.append(DEBOUNCE_QUIET_PERIOD_PROPERTY).append("=").append(debounceQuietPeriodProperty).append("; ");
+            sb.append(DEBOUNCE_MAX_DELAY_PROPERTY).append("=").append(debounceMaxDelayProperty).append("; ");
+            sb.append(DEBOUNCE_MAX_PENDING_PROPERTY).append("=").append(debounceMaxPendingProperty).append("; ");
+            sb.append(MOVE_DETECTION_WINDOW_PROPERTY).append("=").append(moveDetectionWindowProperty).append("; ");
+            sb.append(CRAWL_THREADS_COUNT_PROPERTY).append("=").append(crawlThreadsCountProperty).append("; ");
+            sb.append(CRAWL_BATCH_SIZE_PROPERTY).append("=").append(crawlBatchSizeProperty).append("; ");
+            sb.append(CRAWL_RATE_BYTES_PROPERTY).append("=").append(crawlRateBytesProperty).append("; ");
+            sb.append(CRAWL_RATE_FILES_PROPERTY).append("=").append(crawlRateFilesProperty).append("; ");
+            sb.append(CRAWL_RATE_LATENCY_PROPERTY).append("=").append(crawlRateLatencyProperty).append("; ");
+            sb.append(FOLLOW_LINKS_PROPERTY).append("=").append(followLinksProperty).append("; ");
+            sb.append(WATCH_BACKEND_PROPERTY).append("=").append(watchBackendProperty).append("; ");
+            sb.append(POLL_MIN_INTERVAL_PROPERTY).append("=").append(pollMinIntervalProperty).append("; ");
+            sb.append(POLL_MAX_INTERVAL_PROPERTY).append("=").append(pollMaxIntervalProperty).append("; ");
+            sb.append(WATCHER_SHARDS_PROPERTY).append("=").append(watcherShardsProperty).append("; ");
+            sb.append(WATCHER_BATCH_SIZE_PROPERTY).append("=").append(watcherBatchSizeProperty).append("; ");
+            sb.append(WATCH_BUDGET_PROPERTY).append("=").append(watchBudgetProperty).append("; ");
+            sb.append(WATCH_COLD_PERIOD_PROPERTY).append("=").append(watchColdPeriodProperty).append("; ");
             sb.append(BLOCK_REQUEST_PROPERTY).append("=").append(blockRequestProperty).append("; ");
             sb.append(SKIP_FILES_WITHOUT_EXT_PROPERTY).append("=").append(skipFilesWithoutExt).append("; ");
             sb.append(IGNORE_LIST_PROPERTY).append("=").append(ignoreListFilePath).append("; ");
+            sb.append(CHUNK_MIN_FILE_SIZE_PROPERTY).append("=").append(chunkMinFileSizeProperty).append("; ");
+            sb.append(CHUNK_AVERAGE_SIZE_PROPERTY).append("=").append(chunkAverageSizeProperty).append("; ");
+            sb.append(PARALLEL_TOKENIZE_FILE_SIZE_PROPERTY).append("=").append(parallelTokenizeFileSizeProperty).append("; ");
+            sb.append(COMMIT_BATCH_DOCS_PROPERTY).append("=").append(commitBatchDocsProperty).append("; ");
+            sb.append(COMMIT_BATCH_BYTES_PROPERTY).append("=").append(commitBatchBytesProperty).append("; ");
+            sb.append(COMMIT_BATCH_DELAY_PROPERTY).append("=").append(commitBatchDelayProperty).append("; ");
             sb.append(MAX_AVAILABLE_FILE_SIZE_PROPERTY).append("=").append(maxAvailableFileSizeProperty).append(";");
             return sb.toString();
         }
@@ -0,0 +1,50 @@
+package simpleindexer.chunker;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * Keys extracted from one chunk of data produced by {@link simpleindexer.chunker.ContentChunker}.
+ * Chunk is identified by hash and length of its content.
+ *
+ * @param <K> the type of extracted keys
+ */
+public class Chunk<K> {
+    private final long hash;
+    private final int length;
+    private final Set<K> keys;
+
+    public Chunk(long hash, int length, @NotNull Set<K> keys) {
+        this.hash = hash;
+        this.length = length;
+        this.keys = checkNotNull(keys, "keys");
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @NotNull
+    public Set<K> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Check whether this chunk has the same content as chunk with given {@code hash} and {@code length}.
+     */
+    public boolean matches(long hash, int length) {
+        return this.hash == hash && this.length == length;
+    }
+
+    @Override
+    public String toString() {
+        return "Chunk[" + Long.toHexString(hash) + ", " + length + " chars, " + keys.size() + " keys]";
+    }
+}
@@ -0,0 +1,115 @@
+package simpleindexer.chunker;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * Content-defined chunker of text.
+ * <p>
+ * Chunk boundaries are chosen by <a href="https://en.wikipedia.org/wiki/Rolling_hash">rolling (gear) hash</a>
+ * of the content, so they depend only on the nearby text, not on absolute offsets. If a large file is edited
+ * in the middle, only chunks around the edit change, all others keep their boundaries and hashes.
+ * <p>
+ * Boundaries are delimiter-safe: chunk always ends right after one of {@code delimiters}, so no token
+ * is split between two chunks. The only exception is content without delimiters: chunk is cut anyway when it
+ * reaches the hard limit of {@code 16 * averageSize} chars, so such content doesn't become one unbounded chunk.
+ */
+public class ContentChunker {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // fixed seed: boundaries must be the same between runs
+        Random random = new Random(0x5EED5EEDL);
+        for (int i = 0; i < GEAR.length; ++i) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String delimiters;
+    private final int minSize;
+    private final int maxSize;
+    private final int hardMaxSize;
+    private final long mask;
+
+    /**
+     * Creates chunker producing chunks of {@code averageSize} chars in average.
+     *
+     * @param delimiters chars chunk may end with
+     * @param averageSize expected chunk size in chars, rounded down to the power of two
+     */
+    public ContentChunker(@NotNull String delimiters, int averageSize) {
+        if (averageSize < 16) {
+            throw new IllegalArgumentException("Average chunk size is too small: " + averageSize);
+        }
+        this.delimiters = checkNotNull(delimiters, "delimiters");
+        int average = Integer.highestOneBit(averageSize);
+        this.minSize = average / 4;
+        this.maxSize = average * 4;
+        this.hardMaxSize = average * 16;
+        this.mask = average - 1;
+    }
+
+    /**
+     * Split {@code content} into chunks.
+     *
+     * @param content to split
+     * @return end offsets (exclusive) of chunks in ascending order. The last one is always {@code content.length()}.
+     */
+    @NotNull
+    public int[] split(@NotNull CharSequence content) {
+        TIntArrayList ends = new TIntArrayList();
+        int length = content.length();
+        int start = 0;
+        long hash = 0;
+        boolean wantCut = false;
+        for (int i = 0; i < length; ++i) {
+            char c = content.charAt(i);
+            hash = (hash << 1) + GEAR[(c ^ (c >>> 8)) & 0xFF];
+            int size = i - start + 1;
+            if (size >= maxSize || (size >= minSize && (hash & mask) == 0)) {
+                wantCut = true;
+            }
+            if (wantCut && delimiters.indexOf(c) >= 0 || size >= hardMaxSize) {
+                ends.add(i + 1);
+                start = i + 1;
+                hash = 0;
+                wantCut = false;
+            }
+        }
+        if (start < length || ends.isEmpty()) {
+            ends.add(length);
+        }
+        return ends.toArray();
+    }
+
+    /**
+     * Content hash of {@code content[start, end)} (64-bit FNV-1a).
+     *
+     * @param content chunk is taken from
+     * @param start inclusive
+     * @param end exclusive
+     * @return hash of chunk
+     */
+    public static long hash(@NotNull CharSequence content, int start, int end) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = start; i < end; ++i) {
+            char c = content.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "ContentChunker[min=" + minSize + ", avg=" + (mask + 1) + ", max=" + maxSize + ", hard max=" + hardMaxSize + "]";
+    }
+}
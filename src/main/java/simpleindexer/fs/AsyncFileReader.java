@@ -0,0 +1,242 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import simpleindexer.exceptions.FileHasZeroLengthException;
+import simpleindexer.exceptions.FileTooBigIndexException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * Reader of files by {@link java.nio.channels.AsynchronousFileChannel} with completion handlers.
+ * <p>
+ * Caller of {@link #read(FileWrapper, Callback)} only starts the read and goes on, so a few threads keep up to
+ * {@code maxInFlight} reads queued to the disk; the caller blocks only when that many reads are in flight already.
+ * File is read into buffer of {@link simpleindexer.fs.BufferPool}, which is handed to the file as its content, and
+ * the file gives it back to the pool on {@link FileWrapper#release()}. Completion handlers run on the I/O threads.
+ */
+public class AsyncFileReader implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncFileReader.class);
+
+    private static final Set<OpenOption> READ_OPTIONS = Collections.<OpenOption>singleton(StandardOpenOption.READ);
+
+    /**
+     * Receiver of results of reads, it is called by an I/O thread.
+     */
+    public static interface Callback {
+        /**
+         * File is read, its content is in memory.
+         *
+         * @param file read file
+         * @param nanos spent reading it, including waiting in queue of the disk
+         */
+        public void completed(@NotNull FileWrapper file, long nanos);
+
+        /**
+         * File can't be read.
+         *
+         * @param file which can't be read
+         * @param e cause
+         */
+        public void failed(@NotNull FileWrapper file, @NotNull Throwable e);
+    }
+
+    private final ExecutorService ioExecutor;
+    private final BufferPool pool;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param ioThreads count of threads performing reads and running completion handlers
+     * @param maxInFlight max count of reads started and not completed yet
+     * @param pool of buffers files are read into
+     */
+    public AsyncFileReader(int ioThreads, int maxInFlight, @NotNull BufferPool pool) {
+        this.pool = checkNotNull(pool, "pool");
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NotNull Runnable r) {
+                Thread t = new Thread(r, "async-io-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Start reading of {@code file}. Result is passed to {@code callback}, unless this method throws.
+     *
+     * @param file to read
+     * @param callback receiver of result
+     * @throws InterruptedException if interrupted while waiting for a free slot of reads in flight
+     * @throws IOException if file can't be opened
+     * @throws FileTooBigIndexException
+     * @throws FileHasZeroLengthException
+     */
+    public void read(@NotNull FileWrapper file, @NotNull Callback callback)
+            throws InterruptedException, IOException, FileTooBigIndexException, FileHasZeroLengthException {
+        checkNotNull(file, "file");
+        checkNotNull(callback, "callback");
+        int length = (int) file.checkLength();
+        inFlight.acquire();
+        AsynchronousFileChannel channel = null;
+        ByteBuffer buffer = null;
+        boolean started = false;
+        try {
+            channel = AsynchronousFileChannel.open(file.getPath(), READ_OPTIONS, ioExecutor);
+            buffer = pool.acquire(length);
+            new Read(file, channel, buffer, callback).next();
+            started = true;
+        } finally {
+            if (!started) {
+                if (buffer != null) {
+                    pool.release(buffer);
+                }
+                closeQuietly(channel);
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * @return count of reads started and not completed yet
+     */
+    public int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Put counters of reads to {@code metrics}.
+     *
+     * @param metrics to put counters to
+     */
+    public void exportMetrics(@NotNull Map<String, Long> metrics) {
+        metrics.put("async.reads", reads.get());
+        metrics.put("async.bytes", bytes.get());
+        metrics.put("async.failures", failures.get());
+        metrics.put("async.in.flight", (long) getInFlightCount());
+    }
+
+    /**
+     * Stop I/O threads, reads in flight are abandoned.
+     */
+    @Override
+    public void close() {
+        ioExecutor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncFileReader[inFlight=" + maxInFlight + ", " + pool + "]";
+    }
+
+    private static void closeQuietly(AsynchronousFileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Can't close channel: {}", e.toString());
+        }
+    }
+
+    /*
+     * Read of one file, continued until the buffer is full or the file ends.
+     */
+    private class Read implements CompletionHandler<Integer, Void> {
+        private final FileWrapper file;
+        private final AsynchronousFileChannel channel;
+        private final ByteBuffer buffer;
+        private final Callback callback;
+        private final long start = System.nanoTime();
+
+        Read(FileWrapper file, AsynchronousFileChannel channel, ByteBuffer buffer, Callback callback) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.callback = callback;
+        }
+
+        void next() {
+            channel.read(buffer, buffer.position(), null, this);
+        }
+
+        @Override
+        public void completed(Integer n, Void attachment) {
+            // file may be changed since its attributes were read, then it is read up to known length,
+            // and the change is noticed by its event or by rescan
+            if (n > 0 && buffer.hasRemaining()) {
+                try {
+                    next();
+                } catch (RuntimeException e) {
+                    failed(e, null);
+                }
+                return;
+            }
+            closeQuietly(channel);
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                pool.release(buffer);
+                done(false, new FileHasZeroLengthException(file.toString()));
+                return;
+            }
+            reads.incrementAndGet();
+            bytes.addAndGet(buffer.remaining());
+            file.setContent(buffer, pool);
+            done(true, null);
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            closeQuietly(channel);
+            pool.release(buffer);
+            done(false, e);
+        }
+
+        /*
+         * Slot of in flight reads is freed after callback, so reader isn't idle while its result is being passed on.
+         */
+        private void done(boolean success, Throwable e) {
+            try {
+                if (success) {
+                    callback.completed(file, System.nanoTime() - start);
+                } else {
+                    failures.incrementAndGet();
+                    callback.failed(file, e);
+                }
+            } catch (RuntimeException ex) {
+                log.error("Callback failed for " + file, ex);
+            } finally {
+                inFlight.release();
+            }
+        }
+    }
+}
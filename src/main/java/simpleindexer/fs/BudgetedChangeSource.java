@@ -0,0 +1,291 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.Watchable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * {@link simpleindexer.fs.FSChangeSource} which holds native watches within {@link simpleindexer.fs.WatchBudget}.
+ * <p>
+ * Directory gets native watch while budget allows, otherwise it is covered by {@link simpleindexer.fs.PollingChangeSource}.
+ * Polled directory which has changes is promoted to native watch, taking the watch of the coldest watched directory
+ * (without events for {@code coldMillis}) if budget is exhausted; that directory is polled from now. So native watches
+ * follow activity, and crawl of a tree larger than the system limit of watches doesn't fail.
+ * <p>
+ * Keys returned by {@link #register(java.nio.file.Path)} stay the same when their directory is promoted or demoted,
+ * so they can be held and cancelled as usual.
+ */
+public class BudgetedChangeSource implements FSChangeSource {
+
+    private static final Logger log = LoggerFactory.getLogger(BudgetedChangeSource.class);
+
+    // max wait for native events before polled ones are checked
+    private static final long POLL_STEP_MILLIS = 20;
+
+    private final FSChangeSource watches;
+    private final PollingChangeSource poller;
+    private final WatchBudget budget;
+    private final long coldMillis;
+
+    private final ConcurrentMap<Path, ManagedKey> keys = new ConcurrentHashMap<>();
+
+    private final AtomicLong watched = new AtomicLong();
+    private final AtomicLong polled = new AtomicLong();
+    private final AtomicLong promotions = new AtomicLong();
+    private final AtomicLong demotions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param watches source of native watches
+     * @param poller source covering directories out of budget
+     * @param budget of native watches, may be shared by several sources
+     * @param coldMillis time without events after which watched directory may be demoted
+     */
+    public BudgetedChangeSource(@NotNull FSChangeSource watches, @NotNull PollingChangeSource poller,
+                                @NotNull WatchBudget budget, long coldMillis) {
+        this.watches = checkNotNull(watches, "watches");
+        this.poller = checkNotNull(poller, "poller");
+        this.budget = checkNotNull(budget, "budget");
+        this.coldMillis = coldMillis;
+    }
+
+    @Override
+    public WatchKey register(@NotNull Path dir) throws IOException {
+        ManagedKey existing = keys.get(dir);
+        if (existing != null && existing.isValid()) {
+            // the same as native service, which returns the same key for the same directory
+            return existing;
+        }
+        ManagedKey key = new ManagedKey(dir);
+        synchronized (key) {
+            WatchKey nativeKey = registerNative(dir);
+            if (nativeKey != null) {
+                key.setNative(nativeKey);
+            } else {
+                key.setPolled(poller.register(dir));
+            }
+        }
+        keys.put(dir, key);
+        return key;
+    }
+
+    @Nullable
+    @Override
+    public WatchKey poll(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            WatchKey key = poller.poll(0, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                onPolledKey(key);
+                return key;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            key = watches.poll(Math.max(0, Math.min(remaining, POLL_STEP_MILLIS)), TimeUnit.MILLISECONDS);
+            if (key != null) {
+                ManagedKey managed = keys.get((Path) key.watchable());
+                if (managed != null && managed.current == key) {
+                    budget.touch(managed);
+                }
+                return key;
+            }
+            if (remaining <= 0) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void exportMetrics(@NotNull Map<String, Long> metrics) {
+        metrics.put("watch.native", watched.get());
+        metrics.put("watch.polled", polled.get());
+        metrics.put("watch.promotions", promotions.get());
+        metrics.put("watch.demotions", demotions.get());
+        metrics.put("watch.failures", failures.get());
+        watches.exportMetrics(metrics);
+        poller.exportMetrics(metrics);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            watches.close();
+        } finally {
+            poller.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + watches + ", " + poller + ", " + budget + "]";
+    }
+
+    @Nullable
+    private WatchKey registerNative(Path dir) {
+        if (!budget.tryAcquire()) {
+            return null;
+        }
+        try {
+            return watches.register(dir);
+        } catch (IOException e) {
+            budget.release();
+            failures.incrementAndGet();
+            // there is no distinct exception for exceeded limit, so it is assumed if directory still exists
+            if (Files.isDirectory(dir)) {
+                budget.exhausted(e);
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Polled directory has changes: promote it to native watch.
+     */
+    private void onPolledKey(WatchKey key) {
+        ManagedKey managed = keys.get((Path) key.watchable());
+        if (managed == null) {
+            return;
+        }
+        synchronized (managed) {
+            if (!managed.valid || managed.current != key) {
+                return;
+            }
+            if (budget.getUsed() >= budget.getLimit()) {
+                ManagedKey coldest = budget.pollColdest(coldMillis);
+                if (coldest == null || !coldest.owner().demote(coldest)) {
+                    return;
+                }
+            }
+            WatchKey nativeKey = registerNative(managed.dir);
+            if (nativeKey == null) {
+                return;
+            }
+            // catch changes made since the last poll, they are returned with events of the polled key
+            poller.scanNow(key);
+            key.cancel();
+            polled.decrementAndGet();
+            managed.setNative(nativeKey);
+            promotions.incrementAndGet();
+            log.debug("{} is promoted to native watch.", managed.dir);
+        }
+    }
+
+    /*
+     * Cold watched directory gives its watch back to the budget and is polled from now.
+     */
+    private boolean demote(ManagedKey managed) {
+        synchronized (managed) {
+            if (!managed.valid || !managed.isNative) {
+                return false;
+            }
+            WatchKey polledKey;
+            try {
+                polledKey = poller.register(managed.dir);
+            } catch (IOException e) {
+                log.debug("Can't poll {}: {}", managed.dir, e.toString());
+                return false;
+            }
+            // polling snapshot is taken before the watch is cancelled, so no change is lost
+            managed.current.cancel();
+            watched.decrementAndGet();
+            budget.release();
+            managed.setPolled(polledKey);
+            demotions.incrementAndGet();
+            log.debug("{} is demoted to polling.", managed.dir);
+            return true;
+        }
+    }
+
+    /**
+     * Key of directory which is either watched natively or polled.
+     */
+    class ManagedKey implements WatchKey {
+        final Path dir;
+        // changed under this
+        private volatile WatchKey current;
+        private boolean isNative;
+        private boolean valid = true;
+        // guarded by budget
+        long lastActive;
+
+        ManagedKey(Path dir) {
+            this.dir = dir;
+        }
+
+        BudgetedChangeSource owner() {
+            return BudgetedChangeSource.this;
+        }
+
+        private void setNative(WatchKey key) {
+            current = key;
+            isNative = true;
+            watched.incrementAndGet();
+            budget.touch(this);
+        }
+
+        private void setPolled(WatchKey key) {
+            current = key;
+            isNative = false;
+            polled.incrementAndGet();
+        }
+
+        @Override
+        public synchronized boolean isValid() {
+            return valid && current.isValid();
+        }
+
+        @Override
+        public synchronized List<WatchEvent<?>> pollEvents() {
+            return current.pollEvents();
+        }
+
+        @Override
+        public synchronized boolean reset() {
+            return valid && current.reset();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (!valid) {
+                    return;
+                }
+                valid = false;
+                current.cancel();
+                if (isNative) {
+                    budget.remove(this);
+                    budget.release();
+                    watched.decrementAndGet();
+                } else {
+                    polled.decrementAndGet();
+                }
+            }
+            keys.remove(dir, this);
+        }
+
+        @Override
+        public Watchable watchable() {
+            return dir;
+        }
+
+        @Override
+        public String toString() {
+            return "ManagedKey[" + dir + (isNative ? ", native" : ", polled") + "]";
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of buffers which files are read into, so reading of many files doesn't allocate a new array per file.
+ * <p>
+ * Buffers are pooled in size classes of powers of two from {@link #MIN_BUFFER_SIZE} up to {@code maxSize}: request
+ * of {@code size} bytes takes buffer of the least class which fits it. Returned buffers are kept while their total
+ * capacity is at most {@code maxPooledBytes}, the rest is left to GC. Buffers for files bigger than {@code maxSize}
+ * are allocated on heap for each request and are not pooled. Pooled buffers are either heap or direct ones; direct
+ * buffers are not scanned by GC at all, but content has to be copied out of them to be decoded. Implementation is
+ * thread-safe.
+ */
+public class BufferPool {
+
+    /**
+     * Capacity of buffers of the least size class.
+     */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    private final int classesCount;
+    private final long maxPooledBytes;
+    private final boolean direct;
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> classes = new ArrayList<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * @param maxSize max capacity of pooled buffers, it is rounded up to a power of two
+     * @param maxPooledBytes max total capacity of buffers kept for reuse
+     * @param direct whether pooled buffers are direct
+     */
+    public BufferPool(int maxSize, long maxPooledBytes, boolean direct) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.classesCount = classOf(maxSize) + 1;
+        this.maxPooledBytes = maxPooledBytes;
+        this.direct = direct;
+        for (int i = 0; i < classesCount; ++i) {
+            classes.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+    }
+
+    /**
+     * Take buffer for {@code size} bytes. Its position is 0 and limit is {@code size}.
+     *
+     * @param size of content to be put into the buffer
+     * @return buffer, which should be given back by {@link #release(java.nio.ByteBuffer)}
+     */
+    @NotNull
+    public ByteBuffer acquire(int size) {
+        int sizeClass = classOf(size);
+        if (sizeClass >= classesCount) {
+            misses.incrementAndGet();
+            oversized.incrementAndGet();
+            allocatedBytes.addAndGet(size);
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buffer = classes.get(sizeClass).poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            hits.incrementAndGet();
+        } else {
+            int capacity = MIN_BUFFER_SIZE << sizeClass;
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            misses.incrementAndGet();
+            allocatedBytes.addAndGet(capacity);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Give buffer back. It must not be used by caller after that. Buffers not taken from this pool are ignored.
+     *
+     * @param buffer taken by {@link #acquire(int)}
+     */
+    public void release(@NotNull ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int sizeClass = classOf(capacity);
+        if (buffer.isDirect() != direct || sizeClass >= classesCount || MIN_BUFFER_SIZE << sizeClass != capacity) {
+            return;
+        }
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        classes.get(sizeClass).offer(buffer);
+    }
+
+    /**
+     * @return share of requests served by pooled buffers, in percents
+     */
+    public long getHitPercent() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : h * 100 / total;
+    }
+
+    /**
+     * Put counters of requests and allocations to {@code metrics}.
+     *
+     * @param metrics to put counters to
+     */
+    public void exportMetrics(@NotNull Map<String, Long> metrics) {
+        metrics.put("buffers.hits", hits.get());
+        metrics.put("buffers.misses", misses.get());
+        metrics.put("buffers.hit.percent", getHitPercent());
+        metrics.put("buffers.oversized", oversized.get());
+        metrics.put("buffers.allocated.bytes", allocatedBytes.get());
+        metrics.put("buffers.pooled.bytes", pooledBytes.get());
+    }
+
+    /*
+     * Index of the least size class which fits size.
+     */
+    private static int classOf(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return Integer.numberOfLeadingZeros(MIN_BUFFER_SIZE - 1) - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[max=" + (MIN_BUFFER_SIZE << (classesCount - 1)) + ", pooled=" + maxPooledBytes
+                + (direct ? ", direct" : ", heap") + "]";
+    }
+}
@@ -0,0 +1,57 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/**
+ * {@link simpleindexer.fs.FSEventListener} which also handles moves, overflows and batches of events.
+ * <p>
+ * {@link simpleindexer.fs.FSEventDispatcher} calls these methods only for listeners implementing this interface,
+ * other listeners get the same events by methods of {@link simpleindexer.fs.FSEventListener}: a move as deletion
+ * of the old path and creation of the new one, a batch event by event, and overflow is skipped for them.
+ * <p>
+ * Ordering: events of one watched directory are delivered in order they were received, by one thread of
+ * {@link simpleindexer.fs.FSWatcher}. Directories of one top-level subtree of a watched root are watched by the same
+ * shard, so their batches are delivered by one thread as well. Events of different subtrees, and of a root and its
+ * subdirectories, may be watched by different shards and so are delivered concurrently in any relative order,
+ * e.g. DELETE of a top-level directory may come before DELETE of its file.
+ */
+public interface ExtendedFSEventListener extends FSEventListener {
+
+    /**
+     * Invoked when file or directory {@code from} is moved to {@code to}, i.e. an
+     * {@link simpleindexer.fs.FSEvent.Kind#ENTRY_DELETE} of {@code from} and an
+     * {@link simpleindexer.fs.FSEvent.Kind#ENTRY_CREATE} of {@code to} are found to be events of the same file.
+     *
+     * @param from old path of moved entry
+     * @param to new path of moved entry
+     * @param attrs attributes of {@code to} read by {@link simpleindexer.fs.FSEventDispatcher}, or {@code null}
+     *              if they are unknown
+     * @see simpleindexer.fs.FSMoveDetector
+     */
+    public void onMoved(Path from, Path to, @Nullable BasicFileAttributes attrs);
+
+    /**
+     * Invoked when an {@link simpleindexer.fs.FSEvent.Kind#OVERFLOW} is dispatched on directory with path {@code path},
+     * i.e. some events of the directory were lost.
+     *
+     * @param path of directory which events were lost
+     */
+    public void onOverflow(Path path);
+
+    /**
+     * Invoked with a batch of events, in order they were received, instead of calling methods above for each of them.
+     * Events are classified already, i.e. their {@link simpleindexer.fs.FSEvent#getAttributes() attributes} are read.
+     * Listener may handle the whole batch at once (e.g. under one lock acquisition), but the result should be the same
+     * as of {@link simpleindexer.fs.FSEventDispatcher#deliver(FSEventListener, FSEvent) delivering} them one by one.
+     *
+     * @param events to handle
+     * @throws IOException
+     */
+    public void onEvents(List<FSEvent> events) throws IOException;
+
+}
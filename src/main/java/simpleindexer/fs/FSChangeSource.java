@@ -0,0 +1,51 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of changes of registered directories, polled by {@link simpleindexer.fs.FSWatcher}.
+ * <p>
+ * Changes are reported the same way as by {@link java.nio.file.WatchService}: each registered directory has
+ * {@link java.nio.file.WatchKey}, which is returned by {@link #poll(long, java.util.concurrent.TimeUnit)} when there
+ * are events of its entries, and which is queued again only after {@link java.nio.file.WatchKey#reset()}.
+ *
+ * @see simpleindexer.fs.WatchServiceChangeSource
+ * @see simpleindexer.fs.PollingChangeSource
+ */
+public interface FSChangeSource extends Closeable {
+
+    /**
+     * Start watching changes of entries of directory {@code dir}.
+     *
+     * @param dir to watch
+     * @return key of {@code dir}, which is valid until it is cancelled or the source is closed
+     * @throws IOException
+     */
+    public WatchKey register(@NotNull Path dir) throws IOException;
+
+    /**
+     * Retrieve and remove the next key with events, waiting if necessary up to the specified time.
+     *
+     * @param timeout how long to wait
+     * @param unit of {@code timeout}
+     * @return the next signalled key or {@code null} if there is no such key in time
+     * @throws InterruptedException
+     */
+    @Nullable
+    public WatchKey poll(long timeout, @NotNull TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Put counters of the source to {@code metrics}.
+     *
+     * @param metrics to put counters to
+     */
+    public void exportMetrics(@NotNull Map<String, Long> metrics);
+}
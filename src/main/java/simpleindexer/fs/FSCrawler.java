@@ -0,0 +1,332 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import simpleindexer.PathFilter;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * Parallel crawler of directory trees.
+ * <p>
+ * Each directory is crawled by separate {@link java.util.concurrent.RecursiveAction} in work-stealing
+ * {@link java.util.concurrent.ForkJoinPool}: directory is registered in {@link simpleindexer.fs.FSRegistrar} (so its
+ * events are watched before its entries are listed), its entries are streamed by {@link java.nio.file.DirectoryStream},
+ * accepted files are registered in batches of {@code batchSize} and passed to {@link FileHandler}, and sub-directories
+ * are crawled by forked tasks.
+ * <p>
+ * Symbolic links to directories are not followed (except {@code root}) unless {@code followLinks} is set. Directories
+ * reached by links are registered but not watched, since their targets may be watched already, and a link to an
+ * ancestor directory (i.e. a cycle) is detected by file keys of ancestors and skipped.
+ * <p>
+ * Attributes of each entry are read once and passed to {@link simpleindexer.fs.FSRegistrar} and {@link FileHandler},
+ * so they don't query file system again.
+ * <p>
+ * Ignore file of each directory is read once when crawler enters it, and its rules are passed down to sub-directories
+ * as {@link simpleindexer.PathFilter.Scope}, so entries are filtered without file system calls.
+ * <p>
+ * Crawls in progress can be aborted for a subtree by {@link #cancel(java.nio.file.Path)}: its directories are not
+ * listed anymore and its files found meanwhile are unregistered instead of being passed to {@link FileHandler}.
+ * Implementation is thread-safe.
+ */
+public class FSCrawler {
+
+    /**
+     * Handler of files found by crawler.
+     */
+    public static interface FileHandler {
+        /**
+         * Invoked when file {@code path} is found and registered. May be invoked by several threads simultaneously.
+         *
+         * @param path of registered file
+         * @param attrs attributes of the file read by crawler (of link itself, if the file is a symbolic link)
+         */
+        public void onFile(Path path, BasicFileAttributes attrs);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(FSCrawler.class);
+
+    private final FSRegistrar registrar;
+    private final PathFilter pathFilter;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final boolean followLinks;
+    private final AtomicLong directories = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong cancelledDirectories = new AtomicLong();
+    private final Set<Crawl> crawls = Collections.newSetFromMap(new ConcurrentHashMap<Crawl, Boolean>());
+
+    /**
+     * @param registrar to register found paths in
+     * @param pathFilter to skip not accepted paths
+     * @param parallelism count of directories which are crawled simultaneously
+     * @param followLinks whether symbolic links to directories should be followed
+     * @param batchSize max count of files registered at once
+     */
+    public FSCrawler(@NotNull FSRegistrar registrar, @NotNull PathFilter pathFilter, int parallelism, int batchSize,
+                     boolean followLinks) {
+        this.registrar = checkNotNull(registrar, "registrar");
+        this.pathFilter = checkNotNull(pathFilter, "pathFilter");
+        this.pool = new ForkJoinPool(parallelism);
+        this.batchSize = batchSize;
+        this.followLinks = followLinks;
+    }
+
+    /**
+     * Crawl directory tree {@code root}. Blocks until whole tree is crawled.
+     *
+     * @param root directory to crawl
+     * @param handler of found files
+     */
+    public void crawl(@NotNull Path root, @NotNull FileHandler handler) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(root, BasicFileAttributes.class);
+        } catch (IOException e) {
+            log.debug("Can't read attributes of {}: {}", root, e.toString());
+            return;
+        }
+        if (!attrs.isDirectory()) {
+            log.debug("path {} is not a dir. Skip its crawling.", root);
+            return;
+        }
+        if (!pathFilter.accept(root, true)) {
+            log.trace("ignore {}", root);
+            return;
+        }
+        Path parent = root.getParent();
+        PathFilter.Scope scope = parent == null ? null : pathFilter.getScope(parent);
+        Crawl crawl = new Crawl(root);
+        crawls.add(crawl);
+        try {
+            pool.invoke(new CrawlTask(crawl, root, attrs, checkNotNull(handler, "handler"), true,
+                    new Ancestor(attrs.fileKey(), null), scope));
+        } finally {
+            crawls.remove(crawl);
+        }
+    }
+
+    /**
+     * Abort crawling of subtree {@code dir} by crawls in progress. Crawls started later are not affected.
+     * Paths registered by the aborted crawls before are left registered, the caller is responsible for them.
+     *
+     * @param dir root of subtree to abort
+     */
+    public void cancel(@NotNull Path dir) {
+        checkNotNull(dir, "dir");
+        for (Crawl crawl : crawls) {
+            if (crawl.root.startsWith(dir) || dir.startsWith(crawl.root)) {
+                log.debug("cancel crawling of {} by crawl of {}", dir, crawl.root);
+                crawl.cancelled.add(dir);
+            }
+        }
+    }
+
+    /**
+     * @return count of crawled directories
+     */
+    public long getDirectoriesCount() {
+        return directories.get();
+    }
+
+    /**
+     * @return count of found files
+     */
+    public long getFilesCount() {
+        return files.get();
+    }
+
+    /**
+     * @return count of directories which were not crawled because of cancellation
+     */
+    public long getCancelledDirectoriesCount() {
+        return cancelledDirectories.get();
+    }
+
+    public void shutdownNow() {
+        pool.shutdownNow();
+    }
+
+    /*
+     * File keys of directories from the crawled one up to root.
+     */
+    private static class Ancestor {
+        private final Object fileKey;
+        private final Ancestor parent;
+
+        Ancestor(Object fileKey, Ancestor parent) {
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+
+        boolean contains(Object key) {
+            if (key == null) {
+                return false;
+            }
+            for (Ancestor a = this; a != null; a = a.parent) {
+                if (key.equals(a.fileKey)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /*
+     * One invocation of crawl and subtrees cancelled while it is in progress.
+     */
+    private static class Crawl {
+        private final Path root;
+        private final List<Path> cancelled = new CopyOnWriteArrayList<>();
+
+        Crawl(Path root) {
+            this.root = root;
+        }
+
+        boolean isCancelled(Path path) {
+            for (Path dir : cancelled) {
+                if (path.startsWith(dir)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private class CrawlTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Crawl crawl;
+        private final Path dir;
+        private final BasicFileAttributes dirAttrs;
+        private final FileHandler handler;
+        private final boolean watch;
+        private final Ancestor ancestors;
+        // rules of parent directory
+        private final PathFilter.Scope scope;
+
+        CrawlTask(Crawl crawl, Path dir, BasicFileAttributes dirAttrs, FileHandler handler, boolean watch,
+                  Ancestor ancestors, PathFilter.Scope scope) {
+            this.crawl = crawl;
+            this.dir = dir;
+            this.dirAttrs = dirAttrs;
+            this.handler = handler;
+            this.watch = watch;
+            this.ancestors = ancestors;
+            this.scope = scope;
+        }
+
+        @Override
+        protected void compute() {
+            if (crawl.isCancelled(dir)) {
+                cancelledDirectories.incrementAndGet();
+                return;
+            }
+            try {
+                registrar.register(dir, dirAttrs, watch);
+            } catch (IOException e) {
+                log.error("Error while registering {}: {}", dir, e);
+                return;
+            }
+            if (crawl.isCancelled(dir)) {
+                // subtree was unregistered before the directory was registered
+                registrar.unregisterAll(dir);
+                cancelledDirectories.incrementAndGet();
+                return;
+            }
+            directories.incrementAndGet();
+            PathFilter.Scope dirScope = pathFilter.enter(scope, dir);
+            List<CrawlTask> subtasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>(batchSize);
+            List<BasicFileAttributes> batchAttrs = new ArrayList<>(batchSize);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path path : entries) {
+                    if (!crawl.cancelled.isEmpty() && crawl.isCancelled(dir)) {
+                        cancelledDirectories.incrementAndGet();
+                        break;
+                    }
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        log.debug("Can't read attributes of {}: {}", path, e.toString());
+                        continue;
+                    }
+                    boolean link = false;
+                    if (attrs.isSymbolicLink() && followLinks) {
+                        try {
+                            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                            link = true;
+                        } catch (IOException e) {
+                            log.debug("Can't follow link {}: {}", path, e.toString());
+                        }
+                    }
+                    if (!pathFilter.accept(path, attrs.isDirectory(), dirScope)) {
+                        log.trace("ignore {}", path);
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (ancestors.contains(attrs.fileKey())) {
+                            log.warn("{} is a link to its ancestor. Skip it.", path);
+                            continue;
+                        }
+                        CrawlTask task = new CrawlTask(crawl, path, attrs, handler, watch && !link,
+                                new Ancestor(attrs.fileKey(), ancestors), dirScope);
+                        task.fork();
+                        subtasks.add(task);
+                    } else {
+                        batch.add(path);
+                        batchAttrs.add(attrs);
+                        if (batch.size() >= batchSize) {
+                            flush(batch, batchAttrs);
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                log.error("Error while crawling {}: {}", dir, e);
+            }
+            flush(batch, batchAttrs);
+            for (CrawlTask task : subtasks) {
+                task.join();
+            }
+        }
+
+        private void flush(List<Path> batch, List<BasicFileAttributes> batchAttrs) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (crawl.isCancelled(dir)) {
+                batch.clear();
+                batchAttrs.clear();
+                return;
+            }
+            registrar.registerFiles(batch);
+            if (crawl.isCancelled(dir)) {
+                // subtree was unregistered before files were registered
+                for (Path path : batch) {
+                    registrar.unregisterAll(path);
+                }
+                batch.clear();
+                batchAttrs.clear();
+                return;
+            }
+            files.addAndGet(batch.size());
+            for (int i = 0; i < batch.size(); ++i) {
+                handler.onFile(batch.get(i), batchAttrs.get(i));
+            }
+            batch.clear();
+            batchAttrs.clear();
+        }
+    }
+}
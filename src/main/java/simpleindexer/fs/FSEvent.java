@@ -1,9 +1,12 @@
 package simpleindexer.fs;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
 
 
 
@@ -35,11 +38,52 @@ public class FSEvent {
     private final Kind kind;
     private final Path root;
     private final Path path;
+    private final BasicFileAttributes attributes;
 
     public FSEvent(final Path root, final WatchEvent e) {
         this.root = root;
-        this.path = Paths.get(e.context().toString());
+        // OVERFLOW event has no context
+        this.path = e.context() == null ? null : Paths.get(e.context().toString());
         this.kind = Kind.toKind(e.kind());
+        this.attributes = null;
+    }
+
+    private FSEvent(final FSEvent e, final BasicFileAttributes attributes) {
+        this.root = e.root;
+        this.path = e.path;
+        this.kind = e.kind;
+        this.attributes = attributes;
+    }
+
+    /**
+     * @param attributes of {@link #getFullPath()} read after the event
+     * @return the same event with attributes
+     */
+    public FSEvent withAttributes(@Nullable BasicFileAttributes attributes) {
+        return new FSEvent(this, attributes);
+    }
+
+    /**
+     * @return attributes of {@link #getFullPath()} read by {@link simpleindexer.fs.FSEventDispatcher}
+     * or {@code null} if they were not read or path doesn't exist anymore
+     */
+    @Nullable
+    public BasicFileAttributes getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return {@code true} if path is regular file, according to {@link #getAttributes()}
+     */
+    public boolean isFile() {
+        return attributes != null && attributes.isRegularFile();
+    }
+
+    /**
+     * @return {@code true} if path is directory, according to {@link #getAttributes()}
+     */
+    public boolean isDirectory() {
+        return attributes != null && attributes.isDirectory();
     }
 
     public boolean isDelete() {
@@ -59,6 +103,9 @@ public class FSEvent {
     }
 
     public Path getFullPath() {
+        if (path == null) {
+            return root;
+        }
         return Paths.get(root.toString(), path.toString());
     }
 
@@ -66,6 +113,9 @@ public class FSEvent {
         return kind;
     }
 
+    /**
+     * @return path relative to {@link #getRoot()} or {@code null} for {@link Kind#OVERFLOW} event.
+     */
     public Path getPath() {
         return path;
     }
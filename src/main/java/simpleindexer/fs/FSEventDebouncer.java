@@ -0,0 +1,346 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import simpleindexer.exceptions.IndexIllegalStateException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * {@link simpleindexer.fs.FSEventListener} which merges all events of the same path received during
+ * quiet period into one net action and passes it to the {@code delegate}.
+ * <p>
+ * Events of the path are passed when there were no new events of this path for {@code quietPeriodMillis},
+ * or when the first of them was received more than {@code maxDelayMillis} ago (so files which are modified
+ * all the time are passed too). For example, CREATE followed by many MODIFY events is passed as one CREATE,
+ * CREATE followed by DELETE is not passed at all.
+ * <p>
+ * If there are more than {@code maxPending} paths waiting, the oldest of them are passed by the thread
+ * which received an event, so a slow delegate slows down the event source.
+ * Implementation is thread-safe.
+ */
+public class FSEventDebouncer implements ExtendedFSEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(FSEventDebouncer.class);
+
+    private static enum Action {
+        FILE_CREATED, FILE_MODIFIED, DIRECTORY_CREATED, DIRECTORY_MODIFIED, DELETED;
+
+        boolean isCreate() {
+            return this == FILE_CREATED || this == DIRECTORY_CREATED;
+        }
+    }
+
+    private final FSEventListener delegate;
+    private final long quietPeriodMillis;
+    private final long maxDelayMillis;
+    private final int maxPending;
+
+    // insertion order is order of the first event of path
+    private final LinkedHashMap<Path, PendingEvents> pending = new LinkedHashMap<>();
+    private final ReentrantLock fireLock = new ReentrantLock();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param delegate to pass merged events to
+     * @param quietPeriodMillis how long there should be no events of path before its events are passed
+     * @param maxDelayMillis max time between the first event of path and passing it
+     * @param maxPending max count of paths waiting for passing
+     */
+    public FSEventDebouncer(@NotNull FSEventListener delegate, long quietPeriodMillis, long maxDelayMillis, int maxPending) {
+        this.delegate = checkNotNull(delegate, "delegate");
+        this.quietPeriodMillis = quietPeriodMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Starts thread passing expired events to delegate.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            log.warn("debouncer is already started.");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        long period = Math.max(1, quietPeriodMillis / 2);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                fire(false);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops debouncer. All pending events are dropped.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        synchronized (pending) {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Pass all pending events to delegate right now.
+     */
+    public void flush() {
+        fire(true);
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    public long getFiredCount() {
+        return fired.get();
+    }
+
+    @Override
+    public void onFileCreated(Path path) {
+        add(path, Action.FILE_CREATED);
+    }
+
+    @Override
+    public void onFileModified(Path path) {
+        add(path, Action.FILE_MODIFIED);
+    }
+
+    @Override
+    public void onDirectoryCreated(Path path) {
+        add(path, Action.DIRECTORY_CREATED);
+    }
+
+    @Override
+    public void onDirectoryModified(Path path) {
+        add(path, Action.DIRECTORY_MODIFIED);
+    }
+
+    @Override
+    public void onDeleted(Path path) {
+        add(path, Action.DELETED);
+    }
+
+    /**
+     * Move is passed to delegate immediately.
+     */
+    @Override
+    public void onMoved(Path from, Path to, BasicFileAttributes attrs) {
+        received.incrementAndGet();
+        FSEventDispatcher.deliverMove(delegate, from, to, attrs);
+    }
+
+    /**
+     * Overflow is passed to delegate immediately.
+     */
+    @Override
+    public void onOverflow(Path path) {
+        received.incrementAndGet();
+        FSEventDispatcher.deliverOverflow(delegate, path);
+    }
+
+    /**
+     * Batch of events is merged under one lock acquisition. Overflows are passed to delegate immediately.
+     */
+    @Override
+    public void onEvents(List<FSEvent> events) {
+        List<Path> overflows = null;
+        boolean overflow;
+        synchronized (pending) {
+            for (FSEvent event : events) {
+                Action action = toAction(event);
+                if (action != null) {
+                    received.incrementAndGet();
+                    addLocked(event.getFullPath(), action);
+                } else if (event.isOverflow()) {
+                    if (overflows == null) {
+                        overflows = new ArrayList<>();
+                    }
+                    overflows.add(event.getFullPath());
+                } else {
+                    log.warn("Path {} is neither file or directory. Skip it.", event.getFullPath());
+                }
+            }
+            overflow = pending.size() > maxPending;
+        }
+        if (overflows != null) {
+            for (Path path : overflows) {
+                onOverflow(path);
+            }
+        }
+        if (overflow) {
+            fire(false);
+        }
+    }
+
+    private void add(Path path, Action action) {
+        received.incrementAndGet();
+        boolean overflow;
+        synchronized (pending) {
+            addLocked(path, action);
+            overflow = pending.size() > maxPending;
+        }
+        if (overflow) {
+            fire(false);
+        }
+    }
+
+    private void addLocked(Path path, Action action) {
+        PendingEvents events = pending.get(path);
+        if (events == null) {
+            pending.put(path, new PendingEvents(path, action));
+        } else {
+            events.add(action);
+        }
+    }
+
+    private static Action toAction(FSEvent event) {
+        if (event.isDelete()) {
+            return Action.DELETED;
+        }
+        if (event.isCreate() || event.isModify()) {
+            if (event.isFile()) {
+                return event.isCreate() ? Action.FILE_CREATED : Action.FILE_MODIFIED;
+            }
+            if (event.isDirectory()) {
+                return event.isCreate() ? Action.DIRECTORY_CREATED : Action.DIRECTORY_MODIFIED;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Pass expired (or all, if force) events to delegate.
+     * Firing is serialized, so events of the same path are never passed concurrently.
+     */
+    private void fire(boolean force) {
+        fireLock.lock();
+        try {
+            List<PendingEvents> ready = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            synchronized (pending) {
+                int excess = pending.size() - maxPending;
+                Iterator<PendingEvents> it = pending.values().iterator();
+                while (it.hasNext()) {
+                    PendingEvents events = it.next();
+                    if (force || excess > 0 || events.isExpired(now)) {
+                        it.remove();
+                        ready.add(events);
+                        --excess;
+                    }
+                }
+            }
+            for (PendingEvents events : ready) {
+                // events are removed from pending already, and an exception escaping the periodic task would
+                // cancel it for good, so failure of one path must not stop passing of the others
+                try {
+                    events.fire();
+                } catch (IndexIllegalStateException e) {
+                    log.warn(e.toString());
+                } catch (RuntimeException e) {
+                    log.error("Error while passing events of {}: {}", events.path, e);
+                }
+            }
+        } finally {
+            fireLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[quiet=" + quietPeriodMillis + "ms, maxDelay=" + maxDelayMillis + "ms] -> " + delegate;
+    }
+
+    /*
+     * Merged events of one path.
+     */
+    private class PendingEvents {
+        private final Path path;
+        private final Action first;
+        private final long firstTime;
+        private Action last;
+        private long lastTime;
+        private boolean deleted;
+
+        PendingEvents(Path path, Action action) {
+            this.path = path;
+            this.first = action;
+            this.last = action;
+            this.deleted = action == Action.DELETED;
+            this.firstTime = this.lastTime = System.currentTimeMillis();
+        }
+
+        void add(Action action) {
+            last = action;
+            deleted |= action == Action.DELETED;
+            lastTime = System.currentTimeMillis();
+        }
+
+        boolean isExpired(long now) {
+            return now - lastTime >= quietPeriodMillis || now - firstTime >= maxDelayMillis;
+        }
+
+        void fire() {
+            boolean existedBefore = !first.isCreate();
+            boolean existsAfter = last != Action.DELETED;
+            try {
+                if (!existedBefore && !existsAfter) {
+                    log.debug("{} was created and deleted. Skip it.", path);
+                    return;
+                }
+                fired.incrementAndGet();
+                if (!existsAfter) {
+                    delegate.onDeleted(path);
+                    return;
+                }
+                if (existedBefore && deleted) {
+                    // replaced
+                    delegate.onDeleted(path);
+                }
+                boolean created = !existedBefore || deleted;
+                switch (last) {
+                    case FILE_CREATED:
+                    case FILE_MODIFIED:
+                        if (created) {
+                            delegate.onFileCreated(path);
+                        } else {
+                            delegate.onFileModified(path);
+                        }
+                        break;
+                    case DIRECTORY_CREATED:
+                    case DIRECTORY_MODIFIED:
+                        if (created) {
+                            delegate.onDirectoryCreated(path);
+                        } else {
+                            delegate.onDirectoryModified(path);
+                        }
+                        break;
+                }
+            } catch (IOException e) {
+                log.error("Error while passing events of {}: {}", path, e);
+            }
+        }
+    }
+}
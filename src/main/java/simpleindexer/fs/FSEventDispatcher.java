@@ -1,18 +1,25 @@
 package simpleindexer.fs;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import simpleindexer.PathFilter;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 
 /**
  * Dispatcher of {@link simpleindexer.fs.FSEvent} events, generated by {@link simpleindexer.fs.FSWatcher}.
+ * <p>
+ * Moves, overflows and batches are passed only to {@link simpleindexer.fs.ExtendedFSEventListener}'s, other
+ * listeners get them as basic events. Order of delivered events is described there.
  *
  * @author Ivan Arbuzov
  * 10/7/14.
@@ -31,32 +38,124 @@ public class FSEventDispatcher<E extends FSEventListener> {
      * @throws IOException
      */
     public void dispatch(FSEvent event) throws IOException {
-        Path eventRoot = event.getFullPath();
-        log.debug(event.toString());
+        dispatch(Collections.singletonList(event));
+    }
+
+    /**
+     * Pass batch of {@code events} to all {@link FSEventListener}'s registered in this dispatcher.
+     * Type of path of each event is read once for all listeners.
+     *
+     * @param events sent from {@link simpleindexer.fs.FSWatcher}
+     * @throws IOException
+     */
+    public void dispatch(List<FSEvent> events) throws IOException {
+        List<FSEvent> classified = new ArrayList<>(events.size());
+        for (FSEvent event : events) {
+            log.debug(event.toString());
+            BasicFileAttributes attrs = null;
+            if (event.isCreate() || event.isModify()) {
+                try {
+                    attrs = Files.readAttributes(event.getFullPath(), BasicFileAttributes.class);
+                } catch (IOException e) {
+                    log.debug("Can't read attributes of {}: {}", event.getFullPath(), e.toString());
+                }
+            }
+            classified.add(event.withAttributes(attrs));
+        }
         for (E l : listeners) {
-            if (event.isDelete()) {
-                l.onDeleted(eventRoot);
+            deliver(l, classified);
+        }
+    }
+
+    /**
+     * Pass batch of classified {@code events} to {@code listener}: at once if it is
+     * {@link simpleindexer.fs.ExtendedFSEventListener}, event by event otherwise.
+     *
+     * @param listener to call
+     * @param events with {@link simpleindexer.fs.FSEvent#getAttributes() attributes}
+     * @throws IOException
+     */
+    public static void deliver(FSEventListener listener, List<FSEvent> events) throws IOException {
+        if (listener instanceof ExtendedFSEventListener) {
+            ((ExtendedFSEventListener) listener).onEvents(events);
+            return;
+        }
+        for (FSEvent event : events) {
+            deliver(listener, event);
+        }
+    }
+
+    /**
+     * Call corresponding to classified {@code event} method of {@code listener}.
+     *
+     * @param listener to call
+     * @param event with {@link simpleindexer.fs.FSEvent#getAttributes() attributes}
+     * @throws IOException
+     */
+    public static void deliver(FSEventListener listener, FSEvent event) throws IOException {
+        Path eventRoot = event.getFullPath();
+        if (event.isDelete()) {
+            listener.onDeleted(eventRoot);
+        } else if (event.isCreate()) {
+            if (event.isFile()) {
+                listener.onFileCreated(eventRoot);
+            } else if (event.isDirectory()) {
+                listener.onDirectoryCreated(eventRoot);
             } else {
-                if (event.isCreate()) {
-                    if (Files.isRegularFile(eventRoot)) {
-                        l.onFileCreated(eventRoot);
-                    } else if (Files.isDirectory(eventRoot)) {
-                        l.onDirectoryCreated(eventRoot);
-                    } else {
-                        log.warn("Path {} is neither file or directory. Skip it.", eventRoot);
-                    }
-                } else if (event.isModify()) {
-                    if (Files.isRegularFile(eventRoot)) {
-                        l.onFileModified(eventRoot);
-                    } else if (Files.isDirectory(eventRoot)) {
-                        l.onDirectoryModified(eventRoot);
-                    } else {
-                        log.warn("Path {} is neither file or directory. Skip it.", eventRoot);
-                    }
-                } else { // OVERFLOW
-                    log.warn("OVERFLOW event. Skip it.");
-                }
+                log.warn("Path {} is neither file or directory. Skip it.", eventRoot);
             }
+        } else if (event.isModify()) {
+            if (event.isFile()) {
+                listener.onFileModified(eventRoot);
+            } else if (event.isDirectory()) {
+                listener.onDirectoryModified(eventRoot);
+            } else {
+                log.warn("Path {} is neither file or directory. Skip it.", eventRoot);
+            }
+        } else { // OVERFLOW
+            log.warn("OVERFLOW event in {}.", eventRoot);
+            deliverOverflow(listener, eventRoot);
+        }
+    }
+
+    /**
+     * Pass move of {@code from} to {@code to} to {@code listener}. Listener which doesn't handle moves gets
+     * deletion of {@code from} and creation of {@code to}.
+     *
+     * @param listener to call
+     * @param from old path of moved entry
+     * @param to new path of moved entry
+     * @param attrs attributes of {@code to}, if they are read already, so type of {@code to} is known without
+     *              file system calls
+     */
+    public static void deliverMove(FSEventListener listener, Path from, Path to, @Nullable BasicFileAttributes attrs) {
+        if (listener instanceof ExtendedFSEventListener) {
+            ((ExtendedFSEventListener) listener).onMoved(from, to, attrs);
+            return;
+        }
+        listener.onDeleted(from);
+        if (attrs != null ? attrs.isDirectory() : Files.isDirectory(to, LinkOption.NOFOLLOW_LINKS)) {
+            listener.onDirectoryCreated(to);
+        } else {
+            try {
+                listener.onFileCreated(to);
+            } catch (IOException e) {
+                log.error("Error while delivering creation of {}: {}", to, e);
+            }
+        }
+    }
+
+    /**
+     * Pass overflow of directory {@code path} to {@code listener}, if it handles overflows.
+     *
+     * @param listener to call
+     * @param path of directory which events were lost
+     */
+    public static void deliverOverflow(FSEventListener listener, Path path) {
+        if (listener instanceof ExtendedFSEventListener) {
+            ((ExtendedFSEventListener) listener).onOverflow(path);
+        } else {
+            log.warn("OVERFLOW event in {} is skipped by {}.", path, listener);
         }
     }
 
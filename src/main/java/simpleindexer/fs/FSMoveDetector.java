@@ -0,0 +1,255 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import simpleindexer.exceptions.IndexIllegalStateException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * {@link simpleindexer.fs.FSEventListener} which finds moves of files and directories among events and passes them to
+ * the {@code delegate} as {@link simpleindexer.fs.ExtendedFSEventListener#onMoved(java.nio.file.Path, java.nio.file.Path)}.
+ * <p>
+ * Move is reported by watch service as DELETE of old path followed by CREATE of new one. So DELETE of registered path
+ * with known file key (e.g. inode) is delayed for {@code windowMillis}: if CREATE of path with the same file key
+ * (and the same size and last modified time for files) is received meanwhile, they are passed as one move.
+ * Otherwise DELETE is passed as is when the window expires.
+ * Implementation is thread-safe.
+ */
+public class FSMoveDetector implements ExtendedFSEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(FSMoveDetector.class);
+
+    private final FSEventListener delegate;
+    private final FSRegistrar registrar;
+    private final long windowMillis;
+
+    // delayed deletes by file key and by path, in order of receiving
+    private final Map<Object, PendingDelete> pendingByKey = new HashMap<>();
+    private final LinkedHashMap<Path, PendingDelete> pendingByPath = new LinkedHashMap<>();
+    private final AtomicLong moves = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param delegate to pass events to
+     * @param registrar to get file keys and attributes of deleted paths from
+     * @param windowMillis how long DELETE waits for CREATE of the same file
+     */
+    public FSMoveDetector(@NotNull FSEventListener delegate, @NotNull FSRegistrar registrar, long windowMillis) {
+        this.delegate = checkNotNull(delegate, "delegate");
+        this.registrar = checkNotNull(registrar, "registrar");
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Starts thread passing expired deletes to delegate.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            log.warn("move detector is already started.");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        long period = Math.max(1, windowMillis / 2);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                fireExpired();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops detector. All delayed deletes are dropped.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        pendingByKey.clear();
+        pendingByPath.clear();
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingByPath.size();
+    }
+
+    public long getMovesCount() {
+        return moves.get();
+    }
+
+    /**
+     * Called directly, not by {@link #onEvents(java.util.List)}, the created path is read here if there are
+     * delayed deletes.
+     */
+    @Override
+    public synchronized void onFileCreated(Path path) throws IOException {
+        if (!fireMove(path, readAttributes(path))) {
+            delegate.onFileCreated(path);
+        }
+    }
+
+    @Override
+    public synchronized void onFileModified(Path path) throws IOException {
+        fireDelete(path);
+        delegate.onFileModified(path);
+    }
+
+    @Override
+    public synchronized void onDirectoryCreated(Path path) {
+        if (!fireMove(path, readAttributes(path))) {
+            delegate.onDirectoryCreated(path);
+        }
+    }
+
+    @Override
+    public synchronized void onDirectoryModified(Path path) {
+        fireDelete(path);
+        delegate.onDirectoryModified(path);
+    }
+
+    @Override
+    public synchronized void onDeleted(Path path) {
+        fireDelete(path);
+        Object fileKey = registrar.getFileKey(path);
+        if (fileKey == null) {
+            delegate.onDeleted(path);
+            return;
+        }
+        PendingDelete previous = pendingByKey.get(fileKey);
+        if (previous != null) {
+            // file key is reused already
+            fireDelete(previous.path);
+        }
+        PendingDelete delete = new PendingDelete(path, fileKey);
+        pendingByKey.put(fileKey, delete);
+        pendingByPath.put(path, delete);
+    }
+
+    @Override
+    public synchronized void onMoved(Path from, Path to, BasicFileAttributes attrs) {
+        fireDelete(from);
+        fireDelete(to);
+        FSEventDispatcher.deliverMove(delegate, from, to, attrs);
+    }
+
+    /**
+     * Batch of events is handled under one lock acquisition. Created paths are matched against delayed deletes
+     * by attributes read by dispatcher.
+     */
+    @Override
+    public synchronized void onEvents(List<FSEvent> events) throws IOException {
+        for (FSEvent event : events) {
+            if (!event.isCreate() || event.getAttributes() == null) {
+                FSEventDispatcher.deliver(this, event);
+            } else if (!fireMove(event.getFullPath(), event.getAttributes())) {
+                FSEventDispatcher.deliver(delegate, event);
+            }
+        }
+    }
+
+    /**
+     * Delayed deletes are passed to delegate before overflow.
+     */
+    @Override
+    public synchronized void onOverflow(Path path) {
+        for (PendingDelete delete : new ArrayList<>(pendingByPath.values())) {
+            fireDelete(delete.path);
+        }
+        FSEventDispatcher.deliverOverflow(delegate, path);
+    }
+
+    /*
+     * Pass move to delegate if created path is the same file as one of delayed deletes.
+     */
+    private boolean fireMove(Path path, BasicFileAttributes attrs) {
+        // path is created again, so its delete must be passed first
+        fireDelete(path);
+        if (pendingByKey.isEmpty() || attrs == null) {
+            return false;
+        }
+        PendingDelete delete = attrs.fileKey() == null ? null : pendingByKey.get(attrs.fileKey());
+        if (delete == null) {
+            return false;
+        }
+        if (!registrar.isSameFile(delete.path, attrs)) {
+            fireDelete(delete.path);
+            return false;
+        }
+        pendingByKey.remove(delete.fileKey);
+        pendingByPath.remove(delete.path);
+        log.debug("{} is moved to {}", delete.path, path);
+        moves.incrementAndGet();
+        FSEventDispatcher.deliverMove(delegate, delete.path, path, attrs);
+        return true;
+    }
+
+    private BasicFileAttributes readAttributes(Path path) {
+        if (pendingByKey.isEmpty()) {
+            return null;
+        }
+        try {
+            // the same attributes as registered ones, see simpleindexer.fs.FSRegistrar
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void fireDelete(Path path) {
+        PendingDelete delete = pendingByPath.remove(path);
+        if (delete != null) {
+            pendingByKey.remove(delete.fileKey);
+            delegate.onDeleted(path);
+        }
+    }
+
+    private synchronized void fireExpired() {
+        try {
+            long now = System.currentTimeMillis();
+            Iterator<PendingDelete> it = pendingByPath.values().iterator();
+            while (it.hasNext()) {
+                PendingDelete delete = it.next();
+                if (now - delete.time < windowMillis) {
+                    break;
+                }
+                it.remove();
+                pendingByKey.remove(delete.fileKey);
+                delegate.onDeleted(delete.path);
+            }
+        } catch (IndexIllegalStateException e) {
+            log.warn(e.toString());
+        } catch (RuntimeException e) {
+            // scheduled task is not run again after an exception, so the rest of deletes would never be passed
+            log.error("Error while passing expired deletes: {}", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[window=" + windowMillis + "ms] -> " + delegate;
+    }
+
+    private static class PendingDelete {
+        private final Path path;
+        private final Object fileKey;
+        private final long time;
+
+        PendingDelete(Path path, Object fileKey) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.time = System.currentTimeMillis();
+        }
+    }
+}
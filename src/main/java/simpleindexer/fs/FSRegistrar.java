@@ -1,12 +1,14 @@
 package simpleindexer.fs;
 
-import gnu.trove.map.hash.THashMap;
+import gnu.trove.list.array.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -15,6 +17,11 @@ import static simpleindexer.utils.IndexerUtils.checkNotNull;
 
 /**
  * Registrar for all paths that are registered for watching in index.
+ * <p>
+ * Registered paths are referenced by their ids in shared {@link simpleindexer.fs.PathTable}, data of registered path
+ * is kept in arrays indexed by its id. So registered path costs a few tens of bytes and a subtree is unregistered
+ * in time proportional to its size, while a moved subtree keeps ids of its paths, so it is re-pointed to the new path
+ * in time proportional to count of its directories.
  * Implementation is thread-safe.
  *
  * @author Ivan Arbuzov
@@ -38,9 +45,25 @@ public class FSRegistrar {
 
     private static final Logger log = LoggerFactory.getLogger(FSRegistrar.class);
 
-    private final Map<Path, FSEntry> fs = new THashMap<>();
+    private static final int NO_NODE = PathTable.NO_ID;
+    private static final byte REGISTERED = 1;
+    private static final byte DIRECTORY = 2;
+    // flags, key and file key references, size and last modified time
+    private static final int NODE_BYTES = 1 + 2 * 4 + 2 * 8;
+
     private final ReentrantReadWriteLock fsLock = new ReentrantReadWriteLock();
     private final Registrar registrar;
+    private final PathTable paths;
+
+    // data of registered paths by their ids in paths table
+    private byte[] flags = new byte[16];
+    private WatchKey[] keys = new WatchKey[16];
+    // attributes of files, -1 if unknown
+    private long[] sizes = new long[16];
+    private long[] lastModified = new long[16];
+    // file keys (e.g. inodes) of paths, null if unknown
+    private Object[] fileKeys = new Object[16];
+    private int registeredCount;
 
     /**
      * Create FSRegistrar which will register paths with {@code registrar}.
@@ -48,7 +71,18 @@ public class FSRegistrar {
      * @param registrar for register paths
      */
     public FSRegistrar(@NotNull Registrar registrar) {
+        this(registrar, new PathTable());
+    }
+
+    /**
+     * Create FSRegistrar which will register paths with {@code registrar} and store them in {@code paths}.
+     *
+     * @param registrar for register paths
+     * @param paths table to store registered paths in
+     */
+    public FSRegistrar(@NotNull Registrar registrar, @NotNull PathTable paths) {
         this.registrar = checkNotNull(registrar, "registrar");
+        this.paths = checkNotNull(paths, "paths");
     }
 
     public Lock readLock() {
@@ -66,22 +100,75 @@ public class FSRegistrar {
      * @throws IOException
      */
     public void register(final Path root) throws IOException {
+        register(root, true);
+    }
+
+    /**
+     * Register {@code path}. Directory is watched only if {@code watch} is {@code true}: directories reached by
+     * symbolic links are the same directories as their targets, so they are not watched twice.
+     *
+     * @param root to register
+     * @param watch whether directory should be watched
+     * @throws IOException
+     */
+    public void register(final Path root, boolean watch) throws IOException {
+        register(root, null, watch);
+    }
+
+    /**
+     * Register {@code path} with its already known attributes, so file system is not queried again.
+     *
+     * @param root to register
+     * @param attrs attributes of {@code root} following symbolic links or {@code null} to read them
+     * @param watch whether directory should be watched
+     * @throws IOException
+     * @see #register(java.nio.file.Path, boolean)
+     */
+    public void register(final Path root, @Nullable BasicFileAttributes attrs, boolean watch) throws IOException {
         if (isRegistered(root)) {
             return;
         }
+        if (attrs == null || attrs.isSymbolicLink()) {
+            attrs = readAttributes(root);
+        }
+        boolean directory = attrs != null && attrs.isDirectory();
         log.debug("register {}", root);
+        writeLock().lock();
         try {
-            writeLock().lock();
-            if (Files.isDirectory(root)) {
-                fs.put(root, new FSEntry(root, registrar.register(root)));
-                if (fs.containsKey(root.getParent()))
-                    fs.get(root.getParent()).getChildren().add(root.getFileName());
+            if (isRegistered(paths.find(root))) {
+                return;
+            }
+            WatchKey key = directory && watch ? registrar.register(root) : null;
+            int node = acquire(root);
+            if (directory) {
+                keys[node] = key;
+                flags[node] = REGISTERED | DIRECTORY;
+                fileKeys[node] = attrs.fileKey();
             } else {
-                fs.put(root, new FSEntry(root));
-                if (fs.containsKey(root.getParent()))
-                    fs.get(root.getParent()).getChildren().add(root.getFileName());
+                flags[node] = REGISTERED;
             }
+        } finally {
+            writeLock().unlock();
+        }
+    }
 
+    /**
+     * Register files {@code paths} as watched with one lock acquisition.
+     * Caller is responsible that all {@code paths} are not directories.
+     *
+     * @param paths of files to register
+     */
+    public void registerFiles(final Collection<Path> paths) {
+        writeLock().lock();
+        try {
+            for (Path path : paths) {
+                if (isRegistered(this.paths.find(path))) {
+                    continue;
+                }
+                log.debug("register {}", path);
+                int node = acquire(path);
+                flags[node] = REGISTERED;
+            }
         } finally {
             writeLock().unlock();
         }
@@ -91,20 +178,73 @@ public class FSRegistrar {
      * Unregister all paths starts with {@code prefix}.
      *
      * @param prefix of all paths should be unregistered
-     * @return {@link java.util.List} of {@link java.nio.file.Path paths} that was unregistered.
+     * @return {@link java.util.List} of {@link java.nio.file.Path paths} of files that was unregistered.
      */
     public List<Path> unregisterAll(final Path prefix) {
         List<Path> removed = new ArrayList<>();
         writeLock().lock();
         try {
-            if (fs.containsKey(prefix))
-                removed.addAll(unregisterAllHelper(prefix));
+            int node = paths.find(prefix);
+            if (isRegistered(node)) {
+                log.debug("unregister {}", prefix);
+                unregisterSubtree(node, prefix, removed);
+            }
         } finally {
             writeLock().unlock();
         }
         return removed;
     }
 
+    /**
+     * Re-point registered {@code from} with all its registered descendants to {@code to}, keeping their data.
+     * Watched directories of the subtree are registered again at their new paths.
+     * Does nothing if {@code from} is not registered or {@code to} is already known.
+     *
+     * @param from registered path
+     * @param to new path of {@code from}
+     * @return {@code true} if {@code from} is moved to {@code to}, {@code false} otherwise.
+     */
+    public boolean move(final Path from, final Path to) {
+        writeLock().lock();
+        try {
+            int node = paths.find(from);
+            if (!isRegistered(node) || paths.find(to) != NO_NODE) {
+                return false;
+            }
+            TIntArrayList dirs = new TIntArrayList();
+            collectDirectories(node, dirs);
+            if (!paths.move(node, to)) {
+                return false;
+            }
+            log.debug("move {} to {}", from, to);
+            // key of the same directory is reused by watch service, so old keys are canceled before registration
+            for (int i = 0; i < dirs.size(); ++i) {
+                WatchKey key = keys[dirs.get(i)];
+                if (key != null) {
+                    key.cancel();
+                }
+            }
+            for (int i = 0; i < dirs.size(); ++i) {
+                int dir = dirs.get(i);
+                if (keys[dir] == null) {
+                    // directory is not watched
+                    continue;
+                }
+                Path path = paths.getPath(dir);
+                try {
+                    keys[dir] = registrar.register(path);
+                } catch (IOException e) {
+                    // directory is moved or deleted again, events of its parent will unregister it
+                    log.warn("Can't register moved directory {}: {}", path, e.getMessage());
+                    keys[dir] = null;
+                }
+            }
+            return true;
+        } finally {
+            writeLock().unlock();
+        }
+    }
+
     /**
      * Check is {@code path} already registered as watched path.
      *
@@ -112,96 +252,247 @@ public class FSRegistrar {
      * @return {@code true} if {@code path} is registered, {@code false} otherwise.
      */
     public boolean isRegistered(Path path) {
+        readLock().lock();
         try {
-            readLock().lock();
-            return fs.containsKey(path);
+            return isRegistered(paths.find(path));
         } finally {
             readLock().unlock();
         }
     }
 
     public boolean isDirectory(Path path) {
+        readLock().lock();
         try {
-            readLock().lock();
-            return fs.containsKey(path) && fs.get(path).isDirectory();
+            return isDirectory(paths.find(path));
         } finally {
             readLock().unlock();
         }
     }
 
-    public int registeredCount() {
+    /**
+     * Return registered children of directory {@code dir}.
+     *
+     * @param dir registered directory
+     * @return {@link java.util.List} of full paths of children, empty if {@code dir} is not registered directory.
+     */
+    public List<Path> getChildren(Path dir) {
         readLock().lock();
         try {
-            return fs.size();
+            int node = paths.find(dir);
+            if (!isDirectory(node)) {
+                return Collections.emptyList();
+            }
+            List<Path> children = new ArrayList<>();
+            for (int c : paths.getChildren(node)) {
+                if (isRegistered(c)) {
+                    children.add(dir.resolve(paths.getName(c)));
+                }
+            }
+            return children;
         } finally {
             readLock().unlock();
         }
     }
 
-    /*
-     * Unregister prefix/* from fs.
-     * Remove prefix from its parent.
-     * Reset prefix if it is directory.
+    /**
+     * Return registered files in subtree of {@code prefix}.
+     *
+     * @param prefix registered path
+     * @return {@link java.util.List} of full paths of registered files starting with {@code prefix}.
      */
-    private List<Path> unregisterAllHelper(final Path prefix) {
-        log.debug("unregister {}", prefix);
-        List<Path> removed = new ArrayList<>();
-        FSEntry node = fs.get(prefix);
-        if (!node.isDirectory() || node.getChildren().isEmpty()) {
-            fs.remove(prefix);
-            if (fs.containsKey(prefix.getParent()))
-                fs.get(prefix.getParent()).getChildren().remove(prefix.getFileName());
-            removed.add(prefix);
-            return removed;
-        }
-        // to avoid ConcurrentModificationException
-        List<Path> children = new ArrayList<>(node.getChildren());
-        for (Path c : children) {
-            removed.addAll(unregisterAllHelper(Paths.get(prefix.toString(), c.toString())));
-        }
-        node.getKey().cancel();
-        fs.remove(prefix);
-        if (fs.containsKey(prefix.getParent()))
-            fs.get(prefix.getParent()).getChildren().remove(prefix.getFileName());
-        return removed;
+    public List<Path> getFiles(Path prefix) {
+        readLock().lock();
+        try {
+            List<Path> files = new ArrayList<>();
+            collectFiles(paths.find(prefix), prefix, files);
+            return files;
+        } finally {
+            readLock().unlock();
+        }
     }
 
+    /**
+     * Remember size, last modified time and file key of registered file {@code path}.
+     * Does nothing if {@code path} is not registered file.
+     *
+     * @param path registered file
+     * @param attrs attributes of the file, usually the ones of its indexed version
+     */
+    public void setAttributes(Path path, BasicFileAttributes attrs) {
+        writeLock().lock();
+        try {
+            int node = paths.find(path);
+            if (isRegistered(node) && !isDirectory(node)) {
+                sizes[node] = attrs.size();
+                lastModified[node] = attrs.lastModifiedTime().toMillis();
+                fileKeys[node] = attrs.fileKey();
+            }
+        } finally {
+            writeLock().unlock();
+        }
+    }
+
+    /**
+     * Check if registered file {@code path} has the same size and last modified time as ones
+     * set by {@link #setAttributes(java.nio.file.Path, java.nio.file.attribute.BasicFileAttributes)}.
+     *
+     * @param path to check
+     * @param attrs current attributes of the file
+     * @return {@code true} if {@code path} is registered file and its attributes are not changed, {@code false} otherwise.
+     */
+    public boolean isUpToDate(Path path, BasicFileAttributes attrs) {
+        readLock().lock();
+        try {
+            int node = paths.find(path);
+            return isRegistered(node) && !isDirectory(node) && sizes[node] == attrs.size()
+                    && lastModified[node] == attrs.lastModifiedTime().toMillis();
+        } finally {
+            readLock().unlock();
+        }
+    }
 
-    private class FSEntry {
-        private final Path root;
-        private Set<Path> children;
-        private WatchKey key;
-        private boolean isDir = false;
+    /**
+     * @param path to get file key of
+     * @return file key of registered {@code path} or {@code null} if it is unknown.
+     * @see java.nio.file.attribute.BasicFileAttributes#fileKey()
+     */
+    @Nullable
+    public Object getFileKey(Path path) {
+        readLock().lock();
+        try {
+            int node = paths.find(path);
+            return isRegistered(node) ? fileKeys[node] : null;
+        } finally {
+            readLock().unlock();
+        }
+    }
+
+    /**
+     * Check if registered {@code path} and file with attributes {@code attrs} are the same file: they have the same
+     * file key and, for files, the same size and last modified time.
+     *
+     * @param path registered path
+     * @param attrs attributes of the other file
+     * @return {@code true} if {@code path} is known to be the same file, {@code false} otherwise.
+     */
+    public boolean isSameFile(Path path, BasicFileAttributes attrs) {
+        readLock().lock();
+        try {
+            int node = paths.find(path);
+            if (!isRegistered(node) || fileKeys[node] == null || !fileKeys[node].equals(attrs.fileKey())) {
+                return false;
+            }
+            if (isDirectory(node)) {
+                return attrs.isDirectory();
+            }
+            return attrs.isRegularFile() && sizes[node] == attrs.size()
+                    && lastModified[node] == attrs.lastModifiedTime().toMillis();
+        } finally {
+            readLock().unlock();
+        }
+    }
 
-        public FSEntry(@NotNull Path root, @NotNull WatchKey key) {
-            this.key = checkNotNull(key);
-            this.children = new HashSet<>();
-            this.isDir = true;
-            this.root = checkNotNull(root);
+    public int registeredCount() {
+        readLock().lock();
+        try {
+            return registeredCount;
+        } finally {
+            readLock().unlock();
         }
+    }
 
-        public FSEntry(@NotNull Path root) {
-            this.root = checkNotNull(root);
-            this.isDir = false;
+    /**
+     * @return estimated count of bytes used by registrar, not including paths table
+     */
+    public long estimatedBytes() {
+        readLock().lock();
+        try {
+            return (long) flags.length * NODE_BYTES;
+        } finally {
+            readLock().unlock();
         }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[registered=" + registeredCount() + "]";
+    }
+
+    private boolean isRegistered(int node) {
+        return node != NO_NODE && node < flags.length && (flags[node] & REGISTERED) != 0;
+    }
 
-        public boolean isDirectory() {
-            return isDir;
+    private boolean isDirectory(int node) {
+        return node != NO_NODE && node < flags.length && (flags[node] & DIRECTORY) != 0;
+    }
+
+    /*
+     * Acquire path in paths table and make room for its data.
+     */
+    private int acquire(Path path) {
+        int node = paths.acquire(path);
+        if (node >= flags.length) {
+            int capacity = Math.max(flags.length * 2, node + 1);
+            flags = Arrays.copyOf(flags, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            lastModified = Arrays.copyOf(lastModified, capacity);
+            fileKeys = Arrays.copyOf(fileKeys, capacity);
         }
+        sizes[node] = -1;
+        lastModified[node] = -1;
+        fileKeys[node] = null;
+        ++registeredCount;
+        return node;
+    }
 
-        public WatchKey getKey() {
-            return this.key;
+    /*
+     * Unregister node with all its registered descendants. Paths of unregistered files are added to removed.
+     */
+    private void unregisterSubtree(int node, Path path, List<Path> removed) {
+        for (int c : paths.getChildren(node)) {
+            unregisterSubtree(c, path.resolve(paths.getName(c)), removed);
         }
+        if (isRegistered(node)) {
+            if (isDirectory(node)) {
+                if (keys[node] != null) {
+                    keys[node].cancel();
+                }
+            } else {
+                removed.add(path);
+            }
+            flags[node] = 0;
+            keys[node] = null;
+            fileKeys[node] = null;
+            --registeredCount;
+            paths.release(node);
+        }
+    }
 
-        public Set<Path> getChildren() {
-            return this.children;
+    private void collectDirectories(int node, TIntArrayList dirs) {
+        if (isDirectory(node)) {
+            dirs.add(node);
+            for (int c : paths.getChildren(node)) {
+                collectDirectories(c, dirs);
+            }
         }
+    }
 
-        public String toString() {
-            if (isDir) {
-                return root + ": " + children;
+    private void collectFiles(int node, Path path, List<Path> files) {
+        if (isDirectory(node)) {
+            for (int c : paths.getChildren(node)) {
+                collectFiles(c, path.resolve(paths.getName(c)), files);
             }
-            return root.toString();
+        } else if (isRegistered(node)) {
+            files.add(path);
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
         }
     }
 }
@@ -7,15 +7,25 @@ import simpleindexer.exceptions.IndexIllegalStateException;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static simpleindexer.utils.IndexerUtils.checkNotNull;
 
 /**
  * Watcher if file system events represented as {@link java.nio.file.WatchEvent}.
  * <p>
- * Creates separate thread for polling events from {@link java.nio.file.WatchService}
- * Sends event wrapped to {@link simpleindexer.fs.FSEvent} to {@link simpleindexer.fs.FSEventDispatcher} instance.
+ * Watched directories are partitioned among shards by top-level subtrees of watched roots: a directory registered
+ * outside of known roots becomes a root, and each child of a root is watched together with its whole subtree by one
+ * shard. So events of a directory and of its subdirectories are sent by the same shard, except entries of a root
+ * itself, which are watched by the shard of the root. Each shard has its own
+ * {@link simpleindexer.fs.FSChangeSource} (e.g. native {@link java.nio.file.WatchService} or
+ * {@link simpleindexer.fs.PollingChangeSource}) and its own thread, which takes all keys signalled at the moment
+ * (up to {@code maxBatchSize} events) and sends their events wrapped to {@link simpleindexer.fs.FSEvent} to
+ * {@link simpleindexer.fs.FSEventDispatcher} instance as one batch. So a burst of events in one part of the tree
+ * doesn't delay events of others, and listeners handle bursts in batches instead of event by event.
+ * Events of one directory are always sent by the same shard in order they were received.
  *
  * @author Ivan Arbuzov
  * 10/7/14.
@@ -24,93 +34,232 @@ public class FSWatcher {
 
     private static final Logger log = LoggerFactory.getLogger(FSWatcher.class);
 
-    @NotNull
-    private final WatchService watchService;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1024;
 
     @NotNull
     private final FSEventDispatcher<? extends FSEventListener> eventDispatcher;
 
     @NotNull
-    private final Thread watcherThread = new Thread(new Runnable() {
+    private final List<Shard> shards = new ArrayList<>();
+
+    private final int maxBatchSize;
+
+    // roots of watched trees, guarded by itself
+    private final List<Path> roots = new ArrayList<>();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong maxBatch = new AtomicLong();
+
+    /**
+     * Create watcher with specified {@link simpleindexer.fs.FSChangeSource changeSource} and
+     * {@link simpleindexer.fs.FSEventDispatcher eventDispatcher}.
+     *
+     * @param changeSource for polling events from
+     * @param eventDispatcher for sending events to
+     */
+    public FSWatcher(@NotNull FSChangeSource changeSource, @NotNull FSEventDispatcher<? extends FSEventListener> eventDispatcher) {
+        this(Collections.singletonList(checkNotNull(changeSource, "changeSource")), eventDispatcher, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Create watcher with shard for each of {@code changeSources}.
+     *
+     * @param changeSources for polling events from, one per shard
+     * @param eventDispatcher for sending events to
+     * @param maxBatchSize max count of events sent at once
+     */
+    public FSWatcher(@NotNull List<? extends FSChangeSource> changeSources,
+                     @NotNull FSEventDispatcher<? extends FSEventListener> eventDispatcher, int maxBatchSize) {
+        this.eventDispatcher = checkNotNull(eventDispatcher, "eventDispatcher");
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        checkNotNull(changeSources, "changeSources");
+        if (changeSources.isEmpty()) {
+            throw new IllegalArgumentException("No change sources.");
+        }
+        for (int i = 0; i < changeSources.size(); ++i) {
+            shards.add(new Shard(checkNotNull(changeSources.get(i), "changeSource"),
+                    changeSources.size() == 1 ? "watcher" : "watcher-" + i));
+        }
+    }
+
+    /**
+     * Start watching changes of directory {@code dir} by shard of its top-level subtree.
+     *
+     * @param dir to watch
+     * @return key of {@code dir}
+     * @throws IOException
+     */
+    public WatchKey register(@NotNull Path dir) throws IOException {
+        return getShard(dir).changeSource.register(dir);
+    }
+
+    /**
+     * Starts watcher.
+     */
+    public void start() {
+        log.info("starting FSWatcher...");
+        for (Shard shard : shards) {
+            if (shard.thread.getState() != Thread.State.NEW) {
+                log.warn("{} is already started.", shard.thread.getName());
+                continue;
+            }
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * Stops watcher.
+     * It will join watching threads after their interruption.
+     */
+    public void stop() {
+        log.info("stopping FSWatcher...");
+        for (Shard shard : shards) {
+            Thread thread = shard.thread;
+            if (thread.getState() == Thread.State.TERMINATED || thread.isInterrupted()) {
+                log.warn("{} is already stopped.", thread.getName());
+                continue;
+            }
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                log.error("stopping was interrupted: {}", e);
+            }
+        }
+    }
 
-        private void processKey(WatchKey key) throws IOException {
+    /**
+     * Close change sources of all shards.
+     */
+    public void close() {
+        for (Shard shard : shards) {
+            try {
+                shard.changeSource.close();
+            } catch (IOException e) {
+                log.warn("Error while closing {}: {}", shard.changeSource, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Put counters of watcher and of its change sources (summed over shards) to {@code metrics}.
+     *
+     * @param metrics to put counters to
+     */
+    public void exportMetrics(@NotNull Map<String, Long> metrics) {
+        metrics.put("watcher.shards", (long) shards.size());
+        metrics.put("watcher.batches", batches.get());
+        metrics.put("watcher.events", events.get());
+        metrics.put("watcher.batch.max", maxBatch.get());
+        Map<String, Long> sum = new LinkedHashMap<>();
+        Map<String, Long> shardMetrics = new HashMap<>();
+        for (Shard shard : shards) {
+            shardMetrics.clear();
+            shard.changeSource.exportMetrics(shardMetrics);
+            for (Map.Entry<String, Long> e : shardMetrics.entrySet()) {
+                Long value = sum.get(e.getKey());
+                sum.put(e.getKey(), value == null ? e.getValue() : value + e.getValue());
+            }
+        }
+        metrics.putAll(sum);
+    }
+
+    /*
+     * Shard of top-level subtree of dir under the nearest known root. Directories registered before a root above them
+     * keep shards of their old subtrees.
+     */
+    private Shard getShard(Path dir) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        Path root = null;
+        synchronized (roots) {
+            for (Path r : roots) {
+                if (dir.startsWith(r) && (root == null || r.getNameCount() > root.getNameCount())) {
+                    root = r;
+                }
+            }
+            if (root == null) {
+                root = dir;
+                roots.add(root);
+            }
+        }
+        Path subtree = dir.getNameCount() > root.getNameCount() ? root.resolve(dir.getName(root.getNameCount())) : root;
+        return shards.get((subtree.hashCode() & Integer.MAX_VALUE) % shards.size());
+    }
+
+    private class Shard implements Runnable {
+        private final FSChangeSource changeSource;
+        private final Thread thread;
+
+        Shard(FSChangeSource changeSource, String name) {
+            this.changeSource = changeSource;
+            this.thread = new Thread(this, name);
+        }
+
+        private void processKey(WatchKey key, List<FSEvent> batch) {
             for (WatchEvent event : key.pollEvents()) {
-                eventDispatcher.dispatch(new FSEvent((Path) key.watchable(), event));
+                batch.add(new FSEvent((Path) key.watchable(), event));
             }
         }
 
         @Override
         public void run() {
+            List<FSEvent> batch = new ArrayList<>();
             while (true) {
-                if (watcherThread.getState() == Thread.State.TERMINATED) {
+                if (thread.getState() == Thread.State.TERMINATED) {
                     return;
                 }
                 WatchKey key;
                 try {
-                    key = watchService.poll(100, TimeUnit.MILLISECONDS);
+                    key = changeSource.poll(100, TimeUnit.MILLISECONDS);
                     if (key == null)
                         continue;
                 } catch (InterruptedException e) {
-                    log.warn("watcherThread was interrupted. Exit.");
+                    log.warn("{} was interrupted. Exit.", thread.getName());
+                    return;
+                } catch (ClosedWatchServiceException e) {
+                    log.warn("change source is closed. Exit.");
                     return;
                 }
                 try {
-                    processKey(key);
-                    boolean valid = key.reset();
-                    if (!valid) {
-                        log.warn("key {} is not valid. Trying last poll.", key.watchable());
-                        processKey(key);
+                    // take all keys signalled meanwhile
+                    while (key != null) {
+                        processKey(key, batch);
+                        boolean valid = key.reset();
+                        if (!valid) {
+                            log.warn("key {} is not valid. Trying last poll.", key.watchable());
+                            processKey(key, batch);
+                        }
+                        key = batch.size() < maxBatchSize ? changeSource.poll(0, TimeUnit.MILLISECONDS) : null;
+                    }
+                    if (!batch.isEmpty()) {
+                        batches.incrementAndGet();
+                        events.addAndGet(batch.size());
+                        updateMaxBatch(batch.size());
+                        eventDispatcher.dispatch(batch);
                     }
                 } catch (IOException e) {
-                    log.error("Error while dispatching {}: {}", key.watchable(), e);
-                } catch (IndexIllegalStateException e) {
+                    log.error("Error while dispatching events of {}: {}", thread.getName(), e);
+                } catch (InterruptedException e) {
+                    log.warn("{} was interrupted. Exit.", thread.getName());
+                    return;
+                } catch (IndexIllegalStateException | ClosedWatchServiceException e) {
                     log.warn(e.toString());
-                    log.warn("Stop watcher due to IndexIllegalStateException");
+                    log.warn("Stop watcher due to {}", e.getClass().getSimpleName());
                     return;
+                } finally {
+                    batch.clear();
                 }
             }
         }
-    }, "watcher");
 
-    /**
-     * Create watcher with specified {@link java.nio.file.WatchService watchService} and
-     * {@link simpleindexer.fs.FSEventDispatcher eventDispatcher}.
-     *
-     * @param watchService for polling events from
-     * @param eventDispatcher for sending events to
-     */
-    public FSWatcher(@NotNull WatchService watchService, @NotNull FSEventDispatcher<? extends FSEventListener> eventDispatcher) {
-        this.watchService = checkNotNull(watchService, "watchService");
-        this.eventDispatcher = checkNotNull(eventDispatcher, "eventDispatcher");
-    }
-
-    /**
-     * Starts watcher.
-     */
-    public void start() {
-        log.info("starting FSWatcher...");
-        if (watcherThread.getState() != Thread.State.NEW) {
-            log.warn("watcherThread is already started.");
-            return;
-        }
-        watcherThread.start();
-    }
-
-    /**
-     * Stops watcher.
-     * It will join watching thread after it interruption.
-     */
-    public void stop() {
-        log.info("stopping FSWatcher...");
-        if (watcherThread.getState() == Thread.State.TERMINATED || watcherThread.isInterrupted()) {
-            log.warn("watcherThread is already stopped.");
-            return;
-        }
-        watcherThread.interrupt();
-        try {
-            watcherThread.join();
-        } catch (InterruptedException e) {
-            log.error("stopping was interrupted: {}", e);
+        private void updateMaxBatch(long size) {
+            long max = maxBatch.get();
+            while (size > max && !maxBatch.compareAndSet(max, size)) {
+                max = maxBatch.get();
+            }
         }
     }
 }
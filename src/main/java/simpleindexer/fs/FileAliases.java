@@ -0,0 +1,246 @@
+package simpleindexer.fs;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * Groups of paths of the same physical file (hardlinks, symlinks to files, etc.), found by
+ * {@link java.nio.file.attribute.BasicFileAttributes#fileKey() file key}.
+ * <p>
+ * Content of the file is read and indexed once, at path of group <i>owner</i>; other paths of the group are its
+ * <i>aliases</i> and are added to results of queries by {@link #getAliases(java.nio.file.Path)}.
+ * Paths are referenced by their ids in shared {@link simpleindexer.fs.PathTable}, so moved paths stay in their groups.
+ * Most files have one path, so group is created only when a second path of the file is found; until then the file
+ * is kept as one primitive entry.
+ * Implementation is thread-safe.
+ */
+public class FileAliases {
+
+    private static final long NO_FILE = -1;
+
+    private final PathTable paths;
+
+    // path id -> file key of its file; each attached path is referenced
+    private final TIntObjectHashMap<Object> keyOf = new TIntObjectHashMap<>();
+    // file key -> id of the only path of the file and stamp of its indexed content, see pack(int, int)
+    private final TObjectLongHashMap<Object> singles = new TObjectLongHashMap<>(16, 0.5f, NO_FILE);
+    // file key -> group, only for files which have got a second path
+    private final Map<Object, Group> groups = new HashMap<>();
+    private int aliasesCount;
+    private long sharedCount;
+
+    public FileAliases(@NotNull PathTable paths) {
+        this.paths = checkNotNull(paths, "paths");
+    }
+
+    /**
+     * Add {@code path} to group of file with attributes {@code attrs} before reading it.
+     * If indexed content of the group is up to date with {@code attrs}, {@code path} shares it and should not be read.
+     * Otherwise {@code path} becomes owner of the group, and document of the previous owner is stale.
+     *
+     * @param path of file to be read
+     * @param attrs attributes of file, following symbolic links
+     * @param stale to add paths which own documents should be removed from index to
+     * @param orphans to add paths which lost shared content (if {@code path} was replaced by another file)
+     *                and should be read to
+     * @return path of owner which content is shared with {@code path}, or {@code null} if {@code path} should be read.
+     */
+    @Nullable
+    public synchronized Path attach(@NotNull Path path, @NotNull BasicFileAttributes attrs,
+                                    @NotNull Collection<Path> stale, @NotNull Collection<Path> orphans) {
+        Object fileKey = attrs.fileKey();
+        int id = paths.acquire(path);
+        Object oldKey = keyOf.get(id);
+        if (oldKey != null) {
+            // path holds reference already
+            paths.release(id);
+            if (oldKey.equals(fileKey)) {
+                Group group = groups.get(fileKey);
+                if (group == null) {
+                    singles.put(fileKey, pack(id, stamp(attrs)));
+                    return null;
+                }
+                return share(group, id, attrs, stale);
+            }
+            // path is replaced by another file
+            Path promoted = leave(id, oldKey);
+            if (promoted != null) {
+                orphans.add(promoted);
+            }
+            if (fileKey == null) {
+                return null;
+            }
+            id = paths.acquire(path);
+        } else if (fileKey == null) {
+            paths.release(id);
+            return null;
+        }
+        keyOf.put(id, fileKey);
+        Group group = groups.get(fileKey);
+        if (group == null) {
+            long single = singles.get(fileKey);
+            if (single == NO_FILE) {
+                singles.put(fileKey, pack(id, stamp(attrs)));
+                return null;
+            }
+            // the second path of the file, the first one owns its content
+            singles.remove(fileKey);
+            group = new Group((int) (single >>> 32), (int) single);
+            groups.put(fileKey, group);
+        }
+        ++aliasesCount;
+        group.members.add(id);
+        return share(group, id, attrs, stale);
+    }
+
+    /**
+     * Remove {@code path} from its group. If {@code path} is owner of the group, the group loses its content,
+     * so one of the aliases is returned to be read again.
+     *
+     * @param path to remove
+     * @return path of alias which should be read or {@code null}
+     */
+    @Nullable
+    public synchronized Path detach(@NotNull Path path) {
+        int id = paths.find(path);
+        if (id == PathTable.NO_ID) {
+            return null;
+        }
+        Object fileKey = keyOf.get(id);
+        return fileKey == null ? null : leave(id, fileKey);
+    }
+
+    /**
+     * @param path indexed path
+     * @return other paths of the same file, if {@code path} is owner of its group, empty list otherwise.
+     */
+    @NotNull
+    public synchronized List<Path> getAliases(@NotNull Path path) {
+        if (aliasesCount == 0) {
+            return Collections.emptyList();
+        }
+        int id = paths.find(path);
+        Object fileKey = id == PathTable.NO_ID ? null : keyOf.get(id);
+        Group group = fileKey == null ? null : groups.get(fileKey);
+        if (group == null || group.owner != id || group.members.size() < 2) {
+            return Collections.emptyList();
+        }
+        List<Path> aliases = new ArrayList<>(group.members.size() - 1);
+        for (int i = 0; i < group.members.size(); ++i) {
+            if (group.members.get(i) != id) {
+                aliases.add(paths.getPath(group.members.get(i)));
+            }
+        }
+        return aliases;
+    }
+
+    /**
+     * @return {@code true} if there is at least one file with several paths
+     */
+    public synchronized boolean hasAliases() {
+        return aliasesCount > 0;
+    }
+
+    /**
+     * @return count of paths which are not owners of their groups
+     */
+    public synchronized int getAliasesCount() {
+        return aliasesCount;
+    }
+
+    /**
+     * @return count of files which were not read because their content was indexed at another path
+     */
+    public synchronized long getSharedCount() {
+        return sharedCount;
+    }
+
+    public synchronized void clear() {
+        for (int id : keyOf.keys()) {
+            paths.release(id);
+        }
+        keyOf.clear();
+        singles.clear();
+        groups.clear();
+        aliasesCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[files=" + (singles.size() + groups.size()) + ", aliases=" + aliasesCount + "]";
+    }
+
+    private Path share(Group group, int id, BasicFileAttributes attrs, Collection<Path> stale) {
+        int stamp = stamp(attrs);
+        if (group.owner != PathTable.NO_ID && group.owner != id && group.stamp == stamp) {
+            ++sharedCount;
+            return paths.getPath(group.owner);
+        }
+        if (group.owner != PathTable.NO_ID && group.owner != id) {
+            stale.add(paths.getPath(group.owner));
+        }
+        group.owner = id;
+        group.stamp = stamp;
+        return null;
+    }
+
+    private Path leave(int id, Object fileKey) {
+        keyOf.remove(id);
+        Group group = groups.get(fileKey);
+        Path promoted = null;
+        if (group == null) {
+            singles.remove(fileKey);
+        } else {
+            group.members.remove(id);
+            if (group.members.isEmpty()) {
+                groups.remove(fileKey);
+            } else {
+                --aliasesCount;
+                if (group.owner == id) {
+                    group.owner = PathTable.NO_ID;
+                    promoted = paths.getPath(group.members.get(0));
+                }
+            }
+        }
+        paths.release(id);
+        return promoted;
+    }
+
+    /*
+     * Single path of file is kept as one long: its id and stamp of content.
+     */
+    private static long pack(int id, int stamp) {
+        return (long) id << 32 | (stamp & 0xFFFFFFFFL);
+    }
+
+    /*
+     * Content indexed at owner is up to date if size and modification time of file are the same as when it was read.
+     * They are folded into 32 bits to fit next to id of single path; a change of file is missed only on a collision
+     * of its stamps, which is far less likely than a change within resolution of modification time.
+     */
+    private static int stamp(BasicFileAttributes attrs) {
+        long h = attrs.size() * 0x9E3779B97F4A7C15L ^ attrs.lastModifiedTime().toMillis();
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static class Group {
+        private final TIntArrayList members = new TIntArrayList(2);
+        private int owner;
+        private int stamp;
+
+        Group(int owner, int stamp) {
+            this.owner = owner;
+            this.stamp = stamp;
+            members.add(owner);
+        }
+    }
+}
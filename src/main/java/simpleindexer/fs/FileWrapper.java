@@ -1,15 +1,30 @@
 package simpleindexer.fs;
 
+import org.jetbrains.annotations.Nullable;
 import simpleindexer.exceptions.FileHasZeroLengthException;
 import simpleindexer.exceptions.FileTooBigIndexException;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Wrapper for {@link File} file with lazy reading and file size bounders.
+ * <p>
+ * Attributes of the file are read at most once: they are either passed by whoever has them already (e.g. crawler)
+ * or read on the first request, and then used by all stages of indexing.
+ * <p>
+ * Content may be read into a buffer of {@link simpleindexer.fs.BufferPool}, by {@link #read(BufferPool)} or by
+ * {@link simpleindexer.fs.AsyncFileReader}, then it is decoded and hashed right from the buffer, and the buffer is
+ * given back to its pool by {@link #release()}.
  *
  * @author Ivan Arbuzov
  * 10/8/14.
@@ -21,19 +36,47 @@ public class FileWrapper {
             {".tar", ".zip", ".rar", ".jar", ".war", ".class", ".7z", ".exe", ".png", ".jpg", ".jpeg", ".gif",
              ".mp3", ".mp4", ".wav", ".avi", ".mov", ".lib", ".dll", ".so", ".iso", ".dylib", ".pdf", ".ps",
              ".rtf", ".doc", ".docx", ".xls", ".xlsx"};
+    private final Path path;
+
     private final File file;
 
+    private BasicFileAttributes attrs;
+
+    private boolean attrsRead;
+
+    private boolean attrsPassed;
+
     private byte[] asBytes;
 
     private String asString;
 
+    private ByteBuffer asBuffer;
+
+    private BufferPool pool;
+
     private final long maxFileSizeInBytes;
 
     private final static long MAX_FILE_SIZE_IN_BYTES_DEFAULT = 30 * 1024 * 1024L;
 
-    public FileWrapper(Path path, long maxFileSizeInBytes) {
+    /**
+     * @param path of the file
+     * @param maxFileSizeInBytes max size of file which can be read
+     * @param attrs attributes of the file following symbolic links, if they are known already, or {@code null}
+     */
+    public FileWrapper(Path path, long maxFileSizeInBytes, @Nullable BasicFileAttributes attrs) {
+        this.path = path;
         this.file = path.toFile();
         this.maxFileSizeInBytes = maxFileSizeInBytes;
+        // attributes of link itself are not attributes of the file
+        if (attrs != null && !attrs.isSymbolicLink()) {
+            this.attrs = attrs;
+            this.attrsRead = true;
+            this.attrsPassed = true;
+        }
+    }
+
+    public FileWrapper(Path path, long maxFileSizeInBytes) {
+        this(path, maxFileSizeInBytes, null);
     }
 
     public FileWrapper(Path path) {
@@ -41,7 +84,41 @@ public class FileWrapper {
     }
 
     public Path getPath() {
-        return Paths.get(file.getPath());
+        return path;
+    }
+
+    /**
+     * Attributes of the file. They are read once, on the first call, unless they were passed to constructor.
+     *
+     * @return attributes or {@code null} if the file doesn't exist or its attributes can't be read
+     */
+    @Nullable
+    public BasicFileAttributes getAttributes() {
+        if (!attrsRead) {
+            attrsRead = true;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                attrs = null;
+            }
+        }
+        return attrs;
+    }
+
+    /**
+     * @return {@code true} if the file is regular file, according to its {@link #getAttributes() attributes}.
+     */
+    public boolean isRegularFile() {
+        BasicFileAttributes a = getAttributes();
+        return a != null && a.isRegularFile();
+    }
+
+    /**
+     * Length of the file in bytes, according to its {@link #getAttributes() attributes}, or 0 if it doesn't exist.
+     */
+    public long length() {
+        BasicFileAttributes a = getAttributes();
+        return a == null ? 0 : a.size();
     }
 
     public String getContent() throws IOException, FileTooBigIndexException, FileHasZeroLengthException {
@@ -49,33 +126,146 @@ public class FileWrapper {
     }
 
     public String getContent(Charset charset) throws IOException, FileTooBigIndexException, FileHasZeroLengthException {
-        if (asString == null)
-            asString = new String(getBytes(), charset);
+        if (asString == null) {
+            if (asBuffer != null && asBuffer.hasArray()) {
+                asString = new String(asBuffer.array(), asBuffer.arrayOffset() + asBuffer.position(),
+                        asBuffer.remaining(), charset);
+            } else if (asBuffer != null) {
+                asString = charset.decode(asBuffer.duplicate()).toString();
+            } else {
+                asString = new String(getBytes(), charset);
+            }
+        }
         return asString;
     }
 
     public byte[] getBytes() throws IOException, FileTooBigIndexException, FileHasZeroLengthException {
-        if (asBytes == null)
-            read();
+        if (asBytes == null) {
+            if (asBuffer != null) {
+                byte[] bytes = new byte[asBuffer.remaining()];
+                asBuffer.duplicate().get(bytes);
+                asBytes = bytes;
+            } else {
+                read();
+            }
+        }
         return asBytes;
     }
 
-    private void read() throws IOException, FileTooBigIndexException, FileHasZeroLengthException {
-        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
-            final long length = file.length();
-            if (length == 0) {
+    /**
+     * Content as read-only buffer, without copying it if it was read into a buffer.
+     */
+    public ByteBuffer getBuffer() throws IOException, FileTooBigIndexException, FileHasZeroLengthException {
+        if (asBuffer != null) {
+            return asBuffer.asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(getBytes()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Read content into a buffer taken from {@code pool}, unless it is read already. The buffer is given back
+     * by {@link #release()}.
+     *
+     * @param pool of buffers
+     */
+    public void read(BufferPool pool) throws IOException, FileTooBigIndexException, FileHasZeroLengthException {
+        if (asBuffer != null || asBytes != null) {
+            return;
+        }
+        final long length = checkLength();
+        ByteBuffer buffer = pool.acquire((int) length);
+        boolean isRead = false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // file may be changed since its attributes were read, then it is read up to known length
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
                 throw new FileHasZeroLengthException(file.toString());
             }
-            if (length > maxFileSizeInBytes) {
-                throw new FileTooBigIndexException(file.toString(), length, maxFileSizeInBytes);
+            setContent(buffer, pool);
+            isRead = true;
+        } finally {
+            if (!isRead) {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Give buffer of content back to its pool. Content decoded already stays available, otherwise file is read again
+     * on request.
+     */
+    public void release() {
+        if (asBuffer != null) {
+            if (pool != null) {
+                pool.release(asBuffer);
+            }
+            asBuffer = null;
+            pool = null;
+        }
+    }
+
+    /*
+     * Content read by someone else into buffer between its position and limit, which belongs to pool.
+     */
+    void setContent(ByteBuffer buffer, BufferPool pool) {
+        this.asBuffer = buffer;
+        this.pool = pool;
+    }
+
+    /*
+     * Length of the file if it can be read, according to its attributes.
+     */
+    long checkLength() throws FileTooBigIndexException, FileHasZeroLengthException {
+        long length = length();
+        if (length == 0 && attrsPassed) {
+            // passed attributes may be read before the file was written, e.g. just after its creation
+            attrsPassed = false;
+            attrsRead = false;
+            length = length();
+        }
+        if (length == 0) {
+            throw new FileHasZeroLengthException(file.toString());
+        }
+        if (length > maxFileSizeInBytes) {
+            throw new FileTooBigIndexException(file.toString(), length, maxFileSizeInBytes);
+        }
+        return length;
+    }
+
+    private void read() throws IOException, FileTooBigIndexException, FileHasZeroLengthException {
+        final long length = checkLength();
+        try (InputStream stream = new FileInputStream(file)) {
+            // file may be changed since its attributes were read, then it is read up to known length,
+            // and the change is noticed by its event or by rescan
+            byte[] bytes = new byte[(int) length];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = stream.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            if (read == 0) {
+                throw new FileHasZeroLengthException(file.toString());
             }
-            asBytes = org.apache.commons.io.IOUtils.toByteArray(stream, length);
+            asBytes = read < bytes.length ? Arrays.copyOf(bytes, read) : bytes;
         }
     }
 
+    /**
+     * @return extensions (with leading dot) of files which are considered binary
+     */
+    public static List<String> getBinaryMarkers() {
+        return Collections.unmodifiableList(Arrays.asList(IS_BINARY_MARKERS));
+    }
+
     public boolean isBinary() {
+        String name = path.toString().toLowerCase();
         for (String ext : IS_BINARY_MARKERS)
-            if (getPath().toString().toLowerCase().endsWith(ext))
+            if (name.endsWith(ext))
                 return true;
         return false;
     }
@@ -0,0 +1,430 @@
+package simpleindexer.fs;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Table of paths shared by all parts of index, so each path is stored once and referenced by int id.
+ * <p>
+ * Paths are stored as a trie of path components: data of node is kept in arrays indexed by its id, names of
+ * components are interned (so e.g. {@code "src"} is stored once for all directories with such name, and is freed
+ * with the last node of such name), and child of node with given name is found in one hash map of all edges. So path costs a few tens of bytes
+ * instead of {@link java.nio.file.Path} or {@link java.lang.String} objects.
+ * <p>
+ * Id of path is stable while path is referenced: {@link #acquire(java.nio.file.Path)} increments reference count
+ * of path and {@link #release(int)} decrements it. Path can be {@link #move(int, java.nio.file.Path) moved} keeping
+ * its id, so all parts of index referencing the path or its descendants see their new paths at once.
+ * Path which is not referenced and has no children is removed and its id may be reused.
+ * Implementation is thread-safe.
+ */
+public class PathTable {
+
+    /**
+     * Id of absent path.
+     */
+    public static final int NO_ID = -1;
+
+    // parent of roots of all paths, is never referenced
+    private static final int SUPER_ROOT = 0;
+    // parent, name, first child, next and previous sibling, reference count
+    private static final int NODE_BYTES = 6 * 4;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // interned names of path components
+    private final TObjectIntHashMap<String> nameIds = new TObjectIntHashMap<>(16, 0.5f, NO_ID);
+    private final List<String> names = new ArrayList<>();
+    // count of nodes with the name
+    private final TIntArrayList nameRefs = new TIntArrayList();
+    private final TIntArrayList freeNames = new TIntArrayList();
+    private long namesBytes;
+    // (parent id, name id) -> child id
+    private final TLongIntHashMap edges = new TLongIntHashMap(16, 0.5f, Long.MIN_VALUE, NO_ID);
+
+    private int[] parents = new int[16];
+    private int[] nameOf = new int[16];
+    private int[] firstChild = new int[16];
+    private int[] nextSibling = new int[16];
+    private int[] prevSibling = new int[16];
+    private int[] refCount = new int[16];
+    private int nodesCount;
+    private final TIntArrayList freeNodes = new TIntArrayList();
+
+    public PathTable() {
+        allocate();
+        parents[SUPER_ROOT] = NO_ID;
+        nameOf[SUPER_ROOT] = NO_ID;
+    }
+
+    /**
+     * Add reference to {@code path}, adding it to the table if it is absent.
+     *
+     * @param path to reference
+     * @return id of {@code path}, which stays the same until the reference is released
+     */
+    public int acquire(@NotNull Path path) {
+        lock.writeLock().lock();
+        try {
+            int node = SUPER_ROOT;
+            Path root = path.getRoot();
+            if (root != null) {
+                node = child(node, root.toString());
+            }
+            for (Path name : path) {
+                node = child(node, name.toString());
+            }
+            ++refCount[node];
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove reference to path with id {@code id}, acquired by {@link #acquire(java.nio.file.Path)}.
+     *
+     * @param id of path
+     */
+    public void release(int id) {
+        lock.writeLock().lock();
+        try {
+            if (refCount[id] <= 0) {
+                throw new IllegalStateException("Path " + id + " is not referenced.");
+            }
+            --refCount[id];
+            prune(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Move path with id {@code id} with all its descendants to {@code to}. Ids of moved paths are not changed.
+     * Does nothing if {@code to} is already in the table.
+     *
+     * @param id of path to move
+     * @param to new path
+     * @return {@code true} if path is moved, {@code false} otherwise.
+     */
+    public boolean move(int id, @NotNull Path to) {
+        Path name = to.getFileName();
+        if (name == null) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            int parent = SUPER_ROOT;
+            Path root = to.getRoot();
+            if (root != null) {
+                parent = child(parent, root.toString());
+            }
+            Path toParent = to.getParent();
+            if (toParent != null) {
+                for (Path c : toParent) {
+                    parent = child(parent, c.toString());
+                }
+            }
+            int nameId = intern(name.toString());
+            // name is held while moved node is relinked, since it may be the only node of the name
+            refName(nameId);
+            try {
+                if (edges.get(edge(parent, nameId)) != NO_ID) {
+                    prune(parent);
+                    return false;
+                }
+                for (int p = parent; p != SUPER_ROOT; p = parents[p]) {
+                    if (p == id) {
+                        // can't move path into itself
+                        prune(parent);
+                        return false;
+                    }
+                }
+                int oldParent = parents[id];
+                unlink(id);
+                link(id, parent, nameId);
+                prune(oldParent);
+                return true;
+            } finally {
+                unrefName(nameId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param path to find
+     * @return id of {@code path} or {@link #NO_ID} if there is no such path in the table.
+     */
+    public int find(@NotNull Path path) {
+        lock.readLock().lock();
+        try {
+            int node = SUPER_ROOT;
+            Path root = path.getRoot();
+            if (root != null) {
+                node = findChild(node, root.toString());
+            }
+            for (Iterator<Path> it = path.iterator(); it.hasNext() && node != NO_ID; ) {
+                node = findChild(node, it.next().toString());
+            }
+            return node == SUPER_ROOT ? NO_ID : node;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id of path in the table
+     * @return path with id {@code id}
+     */
+    @NotNull
+    public Path getPath(int id) {
+        lock.readLock().lock();
+        try {
+            int depth = 0;
+            for (int node = id; node != SUPER_ROOT; node = parents[node]) {
+                ++depth;
+            }
+            String[] components = new String[depth];
+            for (int node = id; node != SUPER_ROOT; node = parents[node]) {
+                components[--depth] = names.get(nameOf[node]);
+            }
+            return Paths.get(components[0], Arrays.copyOfRange(components, 1, components.length));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id of path in the table
+     * @return last component of path with id {@code id}
+     */
+    @NotNull
+    public String getName(int id) {
+        lock.readLock().lock();
+        try {
+            return names.get(nameOf[id]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id of path in the table
+     * @return id of parent of path with id {@code id} or {@link #NO_ID} if the path is a root
+     */
+    public int getParent(int id) {
+        lock.readLock().lock();
+        try {
+            int parent = parents[id];
+            return parent == SUPER_ROOT ? NO_ID : parent;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id of path in the table
+     * @return ids of paths in the table which parent is path with id {@code id}
+     */
+    @NotNull
+    public int[] getChildren(int id) {
+        lock.readLock().lock();
+        try {
+            TIntArrayList children = new TIntArrayList();
+            for (int c = firstChild[id]; c != NO_ID; c = nextSibling[c]) {
+                children.add(c);
+            }
+            return children.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return count of paths in the table, including not referenced parents of referenced paths
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodesCount - freeNodes.size() - 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return count of interned names of path components
+     */
+    public int namesCount() {
+        lock.readLock().lock();
+        try {
+            return names.size() - freeNames.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return upper bound of ids of paths in the table
+     */
+    public int capacity() {
+        lock.readLock().lock();
+        try {
+            return nodesCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return estimated count of bytes used by the table
+     */
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) parents.length * NODE_BYTES
+                    + edges.capacity() * (8L + 4 + 1)
+                    + nameIds.capacity() * (4L + 4 + 1)
+                    + namesBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size=" + size() + "]";
+    }
+
+    private int findChild(int parent, String name) {
+        int nameId = nameIds.get(name);
+        if (nameId == NO_ID) {
+            return NO_ID;
+        }
+        return edges.get(edge(parent, nameId));
+    }
+
+    /*
+     * Id of name, which is freed when the last node of the name is unlinked. So new name must be linked to a node
+     * or held by refName right away.
+     */
+    private int intern(String name) {
+        int nameId = nameIds.get(name);
+        if (nameId == NO_ID) {
+            if (!freeNames.isEmpty()) {
+                nameId = freeNames.removeAt(freeNames.size() - 1);
+                names.set(nameId, name);
+                nameRefs.set(nameId, 0);
+            } else {
+                nameId = names.size();
+                names.add(name);
+                nameRefs.add(0);
+            }
+            nameIds.put(name, nameId);
+            namesBytes += 40 + 2 * name.length();
+        }
+        return nameId;
+    }
+
+    private void refName(int nameId) {
+        nameRefs.set(nameId, nameRefs.get(nameId) + 1);
+    }
+
+    private void unrefName(int nameId) {
+        int refs = nameRefs.get(nameId) - 1;
+        nameRefs.set(nameId, refs);
+        if (refs == 0) {
+            String name = names.get(nameId);
+            names.set(nameId, null);
+            nameIds.remove(name);
+            namesBytes -= 40 + 2 * name.length();
+            freeNames.add(nameId);
+        }
+    }
+
+    private int child(int parent, String name) {
+        int nameId = intern(name);
+        int node = edges.get(edge(parent, nameId));
+        if (node != NO_ID) {
+            return node;
+        }
+        node = allocate();
+        link(node, parent, nameId);
+        return node;
+    }
+
+    private void link(int node, int parent, int nameId) {
+        parents[node] = parent;
+        nameOf[node] = nameId;
+        prevSibling[node] = NO_ID;
+        nextSibling[node] = firstChild[parent];
+        if (firstChild[parent] != NO_ID) {
+            prevSibling[firstChild[parent]] = node;
+        }
+        firstChild[parent] = node;
+        edges.put(edge(parent, nameId), node);
+        refName(nameId);
+    }
+
+    private void unlink(int node) {
+        int parent = parents[node];
+        edges.remove(edge(parent, nameOf[node]));
+        if (prevSibling[node] != NO_ID) {
+            nextSibling[prevSibling[node]] = nextSibling[node];
+        } else {
+            firstChild[parent] = nextSibling[node];
+        }
+        if (nextSibling[node] != NO_ID) {
+            prevSibling[nextSibling[node]] = prevSibling[node];
+        }
+        unrefName(nameOf[node]);
+    }
+
+    private static long edge(int parent, int nameId) {
+        return ((long) parent << 32) | (nameId & 0xFFFFFFFFL);
+    }
+
+    private int allocate() {
+        int node;
+        if (!freeNodes.isEmpty()) {
+            node = freeNodes.removeAt(freeNodes.size() - 1);
+        } else {
+            if (nodesCount == parents.length) {
+                int capacity = parents.length * 2;
+                parents = Arrays.copyOf(parents, capacity);
+                nameOf = Arrays.copyOf(nameOf, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                prevSibling = Arrays.copyOf(prevSibling, capacity);
+                refCount = Arrays.copyOf(refCount, capacity);
+            }
+            node = nodesCount++;
+        }
+        firstChild[node] = NO_ID;
+        refCount[node] = 0;
+        return node;
+    }
+
+    /*
+     * Remove not referenced nodes without children, starting from node up to the root.
+     */
+    private void prune(int node) {
+        while (node != SUPER_ROOT && refCount[node] == 0 && firstChild[node] == NO_ID) {
+            int parent = parents[node];
+            unlink(node);
+            freeNodes.add(node);
+            node = parent;
+        }
+    }
+}
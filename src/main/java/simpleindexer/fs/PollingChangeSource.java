@@ -0,0 +1,443 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link simpleindexer.fs.FSChangeSource} which finds changes by polling registered directories, for file systems
+ * where native {@link java.nio.file.WatchService} is unreliable (e.g. overlay, FUSE, network mounts) or where
+ * there are too many directories to watch each one.
+ * <p>
+ * Snapshot of names, types, sizes and last modified times of entries of each directory is kept, and a poll
+ * compares it with the current state, producing the same events as native service. Poll of directory which
+ * last modified time is unchanged doesn't list it, since its set of entries is the same: only attributes of its
+ * files are read.
+ * <p>
+ * Each directory has its own poll interval: it is reset to {@code minIntervalMillis} when directory changes and
+ * doubles after each quiet poll up to {@code maxIntervalMillis}. So recently changed directories are polled often,
+ * while cost of quiet ones decays; when several directories are due, recently changed ones are polled first.
+ * Directories are polled by one thread. Implementation is thread-safe.
+ */
+public class PollingChangeSource implements FSChangeSource {
+
+    private static final Logger log = LoggerFactory.getLogger(PollingChangeSource.class);
+
+    // events of one key above this count are replaced by OVERFLOW
+    private static final int MAX_EVENTS = 512;
+    // last modified time of directory is trusted only if it is older than listing by this time (coarse timestamps)
+    private static final long MTIME_GRANULARITY_MILLIS = 1000;
+
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+
+    // valid keys by directory and in order of polling, guarded by this
+    private final Map<Path, PollingKey> keys = new HashMap<>();
+    private final PriorityQueue<PollingKey> schedule = new PriorityQueue<>(11, new Comparator<PollingKey>() {
+        @Override
+        public int compare(PollingKey k1, PollingKey k2) {
+            if (k1.nextPoll != k2.nextPoll) {
+                return k1.nextPoll < k2.nextPoll ? -1 : 1;
+            }
+            // recently changed first
+            return k1.lastChange == k2.lastChange ? 0 : k1.lastChange > k2.lastChange ? -1 : 1;
+        }
+    });
+    private final LinkedBlockingQueue<PollingKey> signalled = new LinkedBlockingQueue<>();
+    private final Thread poller;
+    private volatile boolean closed;
+
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong listings = new AtomicLong();
+    private final AtomicLong skippedListings = new AtomicLong();
+    private final AtomicLong stats = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+
+    /**
+     * Create source and start polling thread.
+     *
+     * @param minIntervalMillis poll interval of recently changed directories
+     * @param maxIntervalMillis poll interval of quiet directories
+     */
+    public PollingChangeSource(long minIntervalMillis, long maxIntervalMillis) {
+        this.minIntervalMillis = Math.max(1, minIntervalMillis);
+        this.maxIntervalMillis = Math.max(this.minIntervalMillis, maxIntervalMillis);
+        poller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pollLoop();
+                } catch (InterruptedException e) {
+                    log.debug("poller was interrupted. Exit.");
+                }
+            }
+        }, "poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    @Override
+    public WatchKey register(@NotNull Path dir) throws IOException {
+        checkOpen();
+        synchronized (this) {
+            PollingKey key = keys.get(dir);
+            if (key != null) {
+                return key;
+            }
+        }
+        // snapshot is taken before directory is crawled, so later changes are reported
+        PollingKey key = new PollingKey(dir);
+        key.list(false);
+        synchronized (this) {
+            checkOpen();
+            PollingKey existing = keys.get(dir);
+            if (existing != null) {
+                return existing;
+            }
+            keys.put(dir, key);
+            key.nextPoll = System.currentTimeMillis() + key.interval;
+            schedule.add(key);
+            notifyAll();
+        }
+        return key;
+    }
+
+    /**
+     * Poll directory of {@code key} registered in this source right now, out of its schedule. It is used before
+     * the key is cancelled, so changes made since its last poll are not lost.
+     *
+     * @param key to poll
+     */
+    public void scanNow(@NotNull WatchKey key) {
+        if (key instanceof PollingKey && key.isValid()) {
+            ((PollingKey) key).scan();
+        }
+    }
+
+    @Nullable
+    @Override
+    public WatchKey poll(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        return signalled.poll(timeout, unit);
+    }
+
+    @Override
+    public void exportMetrics(@NotNull Map<String, Long> metrics) {
+        synchronized (this) {
+            metrics.put("poll.dirs", (long) keys.size());
+        }
+        metrics.put("poll.scans", scans.get());
+        metrics.put("poll.listings", listings.get());
+        metrics.put("poll.listings.skipped", skippedListings.get());
+        metrics.put("poll.stats", stats.get());
+        metrics.put("poll.events", events.get());
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        poller.interrupt();
+        synchronized (this) {
+            keys.clear();
+            schedule.clear();
+        }
+        signalled.clear();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[interval=" + minIntervalMillis + ".." + maxIntervalMillis + "ms]";
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new ClosedWatchServiceException();
+        }
+    }
+
+    private void pollLoop() throws InterruptedException {
+        while (!closed) {
+            PollingKey key;
+            synchronized (this) {
+                key = schedule.peek();
+                long now = System.currentTimeMillis();
+                if (key == null || key.nextPoll > now) {
+                    wait(key == null ? maxIntervalMillis : key.nextPoll - now);
+                    continue;
+                }
+                schedule.poll();
+            }
+            if (!key.isValid()) {
+                // cancelled keys are dropped lazily
+                continue;
+            }
+            boolean changed = key.scan();
+            synchronized (this) {
+                if (key.isValid()) {
+                    long now = System.currentTimeMillis();
+                    if (changed) {
+                        key.interval = minIntervalMillis;
+                        key.lastChange = now;
+                    } else {
+                        key.interval = Math.min(2 * key.interval, maxIntervalMillis);
+                    }
+                    key.nextPoll = now + key.interval;
+                    schedule.add(key);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private BasicFileAttributes readAttributes(Path path) {
+        stats.incrementAndGet();
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Attributes of directory entry in snapshot.
+     */
+    private static class Entry {
+        private final long lastModified;
+        private final long size;
+        private final boolean directory;
+
+        Entry(BasicFileAttributes attrs) {
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.size = attrs.size();
+            this.directory = attrs.isDirectory();
+        }
+
+        boolean isModified(BasicFileAttributes attrs) {
+            return lastModified != attrs.lastModifiedTime().toMillis() || size != attrs.size();
+        }
+    }
+
+    private static class Event implements WatchEvent<Object> {
+        private final Kind<?> kind;
+        private final Path context;
+
+        Event(Kind<?> kind, Path context) {
+            this.kind = kind;
+            this.context = context;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Kind<Object> kind() {
+            return (Kind<Object>) kind;
+        }
+
+        @Override
+        public int count() {
+            return 1;
+        }
+
+        @Override
+        public Object context() {
+            return context;
+        }
+
+        @Override
+        public String toString() {
+            return kind + ": " + context;
+        }
+    }
+
+    private class PollingKey implements WatchKey {
+        private final Path dir;
+        // guarded by scanLock after key is scheduled
+        private final Object scanLock = new Object();
+        private Map<Path, Entry> entries = Collections.emptyMap();
+        private long dirModified;
+        private long listedAt;
+        // guarded by PollingChangeSource.this
+        private long interval = minIntervalMillis;
+        private long nextPoll;
+        private long lastChange;
+        private volatile boolean valid = true;
+        // guarded by this key
+        private List<WatchEvent<?>> pending = new ArrayList<>();
+        private boolean isSignalled;
+
+        PollingKey(Path dir) {
+            this.dir = dir;
+        }
+
+        /*
+         * Compare directory with its snapshot and signal its changes.
+         */
+        boolean scan() {
+            synchronized (scanLock) {
+                return scanLocked();
+            }
+        }
+
+        private boolean scanLocked() {
+            scans.incrementAndGet();
+            BasicFileAttributes attrs = readAttributes(dir);
+            if (attrs == null || !attrs.isDirectory()) {
+                // directory is deleted, its parent reports it
+                cancel();
+                return false;
+            }
+            long modified = attrs.lastModifiedTime().toMillis();
+            if (modified == dirModified && modified + MTIME_GRANULARITY_MILLIS < listedAt) {
+                // set of entries is the same, only files may be modified
+                skippedListings.incrementAndGet();
+                boolean changed = false;
+                for (Map.Entry<Path, Entry> e : entries.entrySet()) {
+                    if (e.getValue().directory) {
+                        continue;
+                    }
+                    BasicFileAttributes a = readAttributes(dir.resolve(e.getKey()));
+                    if (a == null || a.isDirectory()) {
+                        // directory is changed after it was stat'ed
+                        return list();
+                    }
+                    if (e.getValue().isModified(a)) {
+                        e.setValue(new Entry(a));
+                        signal(StandardWatchEventKinds.ENTRY_MODIFY, e.getKey());
+                        changed = true;
+                    }
+                }
+                return changed;
+            }
+            return list();
+        }
+
+        private boolean list() {
+            try {
+                return list(true);
+            } catch (IOException | DirectoryIteratorException e) {
+                log.debug("Can't list {}: {}", dir, e.toString());
+                cancel();
+                return false;
+            }
+        }
+
+        /*
+         * List directory into new snapshot, signalling differences from the old one if report is set.
+         */
+        boolean list(boolean report) throws IOException {
+            listings.incrementAndGet();
+            long now = System.currentTimeMillis();
+            BasicFileAttributes attrs = Files.readAttributes(dir, BasicFileAttributes.class);
+            boolean changed = false;
+            Map<Path, Entry> current = new HashMap<>(Math.max(16, 2 * entries.size()));
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path path : stream) {
+                    BasicFileAttributes a = readAttributes(path);
+                    if (a == null) {
+                        continue;
+                    }
+                    Path name = path.getFileName();
+                    Entry entry = new Entry(a);
+                    current.put(name, entry);
+                    if (!report) {
+                        continue;
+                    }
+                    Entry old = entries.get(name);
+                    if (old == null) {
+                        signal(StandardWatchEventKinds.ENTRY_CREATE, name);
+                        changed = true;
+                    } else if (old.directory != entry.directory) {
+                        signal(StandardWatchEventKinds.ENTRY_DELETE, name);
+                        signal(StandardWatchEventKinds.ENTRY_CREATE, name);
+                        changed = true;
+                    } else if (!entry.directory && old.isModified(a)) {
+                        signal(StandardWatchEventKinds.ENTRY_MODIFY, name);
+                        changed = true;
+                    }
+                }
+            }
+            if (report) {
+                for (Path name : entries.keySet()) {
+                    if (!current.containsKey(name)) {
+                        signal(StandardWatchEventKinds.ENTRY_DELETE, name);
+                        changed = true;
+                    }
+                }
+            }
+            entries = current;
+            dirModified = attrs.lastModifiedTime().toMillis();
+            listedAt = now;
+            return changed;
+        }
+
+        private synchronized void signal(WatchEvent.Kind<?> kind, @Nullable Path name) {
+            events.incrementAndGet();
+            if (pending.size() >= MAX_EVENTS) {
+                if (pending.get(0).kind() == StandardWatchEventKinds.OVERFLOW) {
+                    return;
+                }
+                pending.clear();
+                kind = StandardWatchEventKinds.OVERFLOW;
+                name = null;
+            }
+            pending.add(new Event(kind, name));
+            if (!isSignalled) {
+                isSignalled = true;
+                signalled.offer(this);
+            }
+        }
+
+        @Override
+        public boolean isValid() {
+            return valid && !closed;
+        }
+
+        @Override
+        public synchronized List<WatchEvent<?>> pollEvents() {
+            List<WatchEvent<?>> result = pending;
+            pending = new ArrayList<>();
+            return result;
+        }
+
+        @Override
+        public synchronized boolean reset() {
+            if (!isValid()) {
+                return false;
+            }
+            if (pending.isEmpty()) {
+                isSignalled = false;
+            } else {
+                signalled.offer(this);
+            }
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            valid = false;
+            synchronized (PollingChangeSource.this) {
+                if (keys.get(dir) == this) {
+                    keys.remove(dir);
+                }
+            }
+        }
+
+        @Override
+        public Watchable watchable() {
+            return dir;
+        }
+
+        @Override
+        public String toString() {
+            return "PollingKey[" + dir + ", interval=" + interval + "ms]";
+        }
+    }
+}
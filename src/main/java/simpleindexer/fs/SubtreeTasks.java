@@ -0,0 +1,130 @@
+package simpleindexer.fs;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * Tasks of files indexed by ids of their paths in shared {@link simpleindexer.fs.PathTable}, so tasks of a subtree
+ * are found without looking at tasks of other files.
+ * <p>
+ * Each path keeps count of tasks of its subtree, updated on its ancestors when a task is added or removed.
+ * So {@link #hasTasksUnder(java.nio.file.Path)} takes one lookup and {@link #getTasksUnder(java.nio.file.Path)}
+ * visits only paths of the subtree which have tasks under them. Paths having tasks must not be
+ * {@link simpleindexer.fs.PathTable#move(int, java.nio.file.Path) moved}, since counts of their old ancestors
+ * would stay.
+ * Implementation is thread-safe.
+ *
+ * @param <T> type of tasks
+ */
+public class SubtreeTasks<T> {
+
+    private final PathTable paths;
+
+    // path id -> tasks of the path; each path with tasks is referenced
+    private final TIntObjectHashMap<List<T>> tasks = new TIntObjectHashMap<>();
+    // path id -> count of tasks of the path and its subtree, only non-zero counts are kept
+    private final TIntIntHashMap counts = new TIntIntHashMap();
+    private int size;
+
+    public SubtreeTasks(@NotNull PathTable paths) {
+        this.paths = checkNotNull(paths, "paths");
+    }
+
+    /**
+     * Add {@code task} of file {@code path}.
+     */
+    public synchronized void add(@NotNull Path path, @NotNull T task) {
+        checkNotNull(task, "task");
+        int id = paths.acquire(path);
+        List<T> list = tasks.get(id);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            tasks.put(id, list);
+        } else {
+            // path is referenced once for all its tasks
+            paths.release(id);
+        }
+        list.add(task);
+        ++size;
+        for (int p = id; p != PathTable.NO_ID; p = paths.getParent(p)) {
+            counts.adjustOrPutValue(p, 1, 1);
+        }
+    }
+
+    /**
+     * Remove {@code task} of file {@code path}.
+     *
+     * @return {@code true} if the task was added and not removed yet
+     */
+    public synchronized boolean remove(@NotNull Path path, @NotNull T task) {
+        int id = paths.find(path);
+        if (id == PathTable.NO_ID) {
+            return false;
+        }
+        List<T> list = tasks.get(id);
+        if (list == null || !list.remove(task)) {
+            return false;
+        }
+        --size;
+        for (int p = id; p != PathTable.NO_ID; p = paths.getParent(p)) {
+            if (counts.adjustOrPutValue(p, -1, 0) == 0) {
+                counts.remove(p);
+            }
+        }
+        if (list.isEmpty()) {
+            tasks.remove(id);
+            paths.release(id);
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if there is a task of {@code path} or of a file of its subtree
+     */
+    public synchronized boolean hasTasksUnder(@NotNull Path path) {
+        int id = paths.find(path);
+        return id != PathTable.NO_ID && counts.get(id) > 0;
+    }
+
+    /**
+     * @return tasks of {@code path} and of files of its subtree
+     */
+    @NotNull
+    public synchronized List<T> getTasksUnder(@NotNull Path path) {
+        List<T> result = new ArrayList<>();
+        int id = paths.find(path);
+        if (id == PathTable.NO_ID || counts.get(id) == 0) {
+            return result;
+        }
+        TIntArrayList stack = new TIntArrayList();
+        stack.add(id);
+        while (!stack.isEmpty()) {
+            int node = stack.removeAt(stack.size() - 1);
+            List<T> list = tasks.get(node);
+            if (list != null) {
+                result.addAll(list);
+            }
+            for (int child : paths.getChildren(node)) {
+                if (counts.get(child) > 0) {
+                    stack.add(child);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return count of tasks
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
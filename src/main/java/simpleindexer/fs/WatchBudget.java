@@ -0,0 +1,156 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Count of native watches (e.g. inotify watches) the index may hold, shared by all
+ * {@link simpleindexer.fs.BudgetedChangeSource} shards.
+ * <p>
+ * Besides the count of watches in use, budget keeps watched directories in order of their last activity,
+ * so the coldest one can give its watch to a directory which became active. When registration fails because
+ * of the system limit, budget shrinks to the count of watches held at the moment.
+ */
+public class WatchBudget {
+
+    private static final Logger log = LoggerFactory.getLogger(WatchBudget.class);
+
+    private static final String MAX_USER_WATCHES = "/proc/sys/fs/inotify/max_user_watches";
+
+    private volatile int limit;
+    private final AtomicInteger used = new AtomicInteger();
+
+    // watched directories from the coldest to the most recently active, guarded by this
+    private final LinkedHashMap<Path, BudgetedChangeSource.ManagedKey> activity = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param limit max count of native watches
+     */
+    public WatchBudget(int limit) {
+        this.limit = Math.max(0, limit);
+    }
+
+    /**
+     * Default budget: 3/4 of {@code fs.inotify.max_user_watches}, since the limit is shared by all processes of
+     * the user, or no limit if it is unknown.
+     *
+     * @return default max count of native watches
+     */
+    public static int systemLimit() {
+        Path path = Paths.get(MAX_USER_WATCHES);
+        try {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.US_ASCII);
+            if (!lines.isEmpty()) {
+                return (int) Math.min(Integer.MAX_VALUE, Long.parseLong(lines.get(0).trim()) / 4 * 3);
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Can't read {}: {}", path, e.toString());
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Take one watch from the budget.
+     *
+     * @return {@code false} if budget is exhausted
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = used.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (used.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return watch taken by {@link #tryAcquire()}.
+     */
+    public void release() {
+        used.decrementAndGet();
+    }
+
+    /**
+     * Registration of a watch failed after it was acquired, e.g. because system limit of watches is reached:
+     * shrink budget to watches held now. The failed watch must be released before.
+     *
+     * @param e cause of failure
+     */
+    public void exhausted(@NotNull IOException e) {
+        int current = used.get();
+        if (current < limit) {
+            limit = current;
+            log.warn("Can't add watch ({}), watch budget is reduced to {}.", e.toString(), current);
+        }
+    }
+
+    /**
+     * Mark watched directory of {@code key} as active now.
+     *
+     * @param key of watched directory
+     */
+    synchronized void touch(@NotNull BudgetedChangeSource.ManagedKey key) {
+        key.lastActive = System.currentTimeMillis();
+        activity.put(key.dir, key);
+    }
+
+    /**
+     * Forget watched directory of {@code key}.
+     *
+     * @param key of watched directory
+     */
+    synchronized void remove(@NotNull BudgetedChangeSource.ManagedKey key) {
+        if (activity.get(key.dir) == key) {
+            activity.remove(key.dir);
+        }
+    }
+
+    /**
+     * Take the coldest watched directory if it has no activity for {@code coldMillis}.
+     * It is removed from budget, so it can't be taken twice.
+     *
+     * @param coldMillis min time without activity
+     * @return key of the coldest directory or {@code null} if all are active
+     */
+    @Nullable
+    synchronized BudgetedChangeSource.ManagedKey pollColdest(long coldMillis) {
+        Iterator<BudgetedChangeSource.ManagedKey> it = activity.values().iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        BudgetedChangeSource.ManagedKey eldest = it.next();
+        if (eldest.lastActive + coldMillis > System.currentTimeMillis()) {
+            return null;
+        }
+        it.remove();
+        return eldest;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getUsed() {
+        return used.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WatchBudget[" + used.get() + "/" + limit + "]";
+    }
+}
@@ -0,0 +1,63 @@
+package simpleindexer.fs;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * {@link simpleindexer.fs.FSChangeSource} backed by native {@link java.nio.file.WatchService}
+ * (e.g. inotify on Linux), which needs one watch per directory.
+ */
+public class WatchServiceChangeSource implements FSChangeSource {
+
+    private final WatchService watchService;
+    private final WatchEvent.Kind<?>[] kinds;
+    private final WatchEvent.Modifier[] modifiers;
+
+    /**
+     * @param watchService to register directories in
+     * @param kinds of events to watch
+     * @param modifiers of registration
+     */
+    public WatchServiceChangeSource(@NotNull WatchService watchService, @NotNull WatchEvent.Kind<?>[] kinds,
+                                    WatchEvent.Modifier... modifiers) {
+        this.watchService = checkNotNull(watchService, "watchService");
+        this.kinds = checkNotNull(kinds, "kinds");
+        this.modifiers = modifiers;
+    }
+
+    @Override
+    public WatchKey register(@NotNull Path dir) throws IOException {
+        return dir.register(watchService, kinds, modifiers);
+    }
+
+    @Nullable
+    @Override
+    public WatchKey poll(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        return watchService.poll(timeout, unit);
+    }
+
+    @Override
+    public void exportMetrics(@NotNull Map<String, Long> metrics) {
+        // native service has no counters
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + watchService.getClass().getSimpleName() + "]";
+    }
+}
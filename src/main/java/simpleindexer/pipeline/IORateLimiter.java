@@ -0,0 +1,150 @@
+package simpleindexer.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limiter of bulk I/O (crawl, reindex) by {@link simpleindexer.pipeline.TokenBucket token buckets} of bytes and files
+ * per second.
+ * <p>
+ * Limits may be adjusted at any time by {@link #setLimits(long, long)}. If target read latency is set, limits are
+ * also adapted to latency of reads reported by {@link #onRead(long, long)}: when its moving average is above the
+ * target, the effective rates are halved (down to {@code 1/64} of the limits), and while it is below half of the
+ * target they grow back by {@code 1/8} of the limits per adjustment. Adjustments are done at most once per second.
+ * Implementation is thread-safe.
+ */
+public class IORateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(IORateLimiter.class);
+
+    private static final double MIN_SCALE = 1.0 / 64;
+    private static final double SCALE_STEP = 1.0 / 8;
+    private static final long ADJUST_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // only reads of files up to this size are sampled, bigger ones are dominated by transfer time
+    private static final long MAX_SAMPLED_READ_BYTES = 1024 * 1024;
+    // weight of a new sample in moving average of latency
+    private static final double LATENCY_ALPHA = 0.1;
+
+    private final TokenBucket bytes = new TokenBucket(0);
+    private final TokenBucket files = new TokenBucket(0);
+    private final long targetLatencyNanos;
+
+    // guarded by this
+    private long bytesLimit;
+    private long filesLimit;
+    private double scale = 1;
+    private double latencyNanos;
+    private long adjustedAt = System.nanoTime();
+
+    private final AtomicLong waitedNanos = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+
+    /**
+     * @param bytesPerSecond limit of bytes per second, non-positive for no limit
+     * @param filesPerSecond limit of files per second, non-positive for no limit
+     * @param targetLatencyMillis read latency above which limits are lowered, non-positive for no adaptation
+     */
+    public IORateLimiter(long bytesPerSecond, long filesPerSecond, long targetLatencyMillis) {
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, targetLatencyMillis));
+        setLimits(bytesPerSecond, filesPerSecond);
+    }
+
+    /**
+     * Take permits for reading one file of {@code size} bytes, waiting if rate is exceeded.
+     *
+     * @param size of file
+     * @throws InterruptedException
+     */
+    public void acquire(long size) throws InterruptedException {
+        long wait = Math.max(files.reserve(1), bytes.reserve(Math.max(0, size)));
+        if (wait > 0) {
+            throttled.incrementAndGet();
+            waitedNanos.addAndGet(wait);
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Report read of any priority, so limits follow load of the disk.
+     *
+     * @param size of read file
+     * @param nanos spent reading it
+     */
+    public void onRead(long size, long nanos) {
+        if (targetLatencyNanos <= 0 || size > MAX_SAMPLED_READ_BYTES) {
+            return;
+        }
+        synchronized (this) {
+            latencyNanos = latencyNanos == 0 ? nanos : latencyNanos + LATENCY_ALPHA * (nanos - latencyNanos);
+            long now = System.nanoTime();
+            if (now - adjustedAt < ADJUST_PERIOD_NANOS) {
+                return;
+            }
+            adjustedAt = now;
+            if (latencyNanos > targetLatencyNanos && scale > MIN_SCALE) {
+                scale = Math.max(MIN_SCALE, scale / 2);
+                decreases.incrementAndGet();
+                log.info("Read latency {}us is above target, bulk I/O rate is lowered to {}%",
+                        (long) latencyNanos / 1000, Math.round(scale * 100));
+            } else if (latencyNanos < targetLatencyNanos / 2 && scale < 1) {
+                scale = Math.min(1, scale + SCALE_STEP);
+                log.debug("Bulk I/O rate is raised to {}%", Math.round(scale * 100));
+            } else {
+                return;
+            }
+            applyLimits();
+        }
+    }
+
+    /**
+     * Change limits, adaptation keeps its current scale.
+     *
+     * @param bytesPerSecond limit of bytes per second, non-positive for no limit
+     * @param filesPerSecond limit of files per second, non-positive for no limit
+     */
+    public synchronized void setLimits(long bytesPerSecond, long filesPerSecond) {
+        bytesLimit = Math.max(0, bytesPerSecond);
+        filesLimit = Math.max(0, filesPerSecond);
+        applyLimits();
+    }
+
+    /**
+     * @return {@code true} if any limit is set
+     */
+    public synchronized boolean isLimited() {
+        return bytesLimit > 0 || filesLimit > 0;
+    }
+
+    /**
+     * Put limits and counters of throttling to {@code metrics}.
+     *
+     * @param metrics to put counters to
+     */
+    public void exportMetrics(@NotNull Map<String, Long> metrics) {
+        synchronized (this) {
+            metrics.put("rate.bytes.limit", bytesLimit);
+            metrics.put("rate.files.limit", filesLimit);
+            metrics.put("rate.scale.percent", Math.round(scale * 100));
+            metrics.put("rate.latency.us", (long) latencyNanos / 1000);
+        }
+        metrics.put("rate.throttled", throttled.get());
+        metrics.put("rate.wait.ms", TimeUnit.NANOSECONDS.toMillis(waitedNanos.get()));
+        metrics.put("rate.decreases", decreases.get());
+    }
+
+    private void applyLimits() {
+        bytes.setRate(bytesLimit * scale);
+        files.setRate(filesLimit * scale);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IORateLimiter[bytes=" + bytesLimit + "/s, files=" + filesLimit + "/s, scale=" + scale + "]";
+    }
+}
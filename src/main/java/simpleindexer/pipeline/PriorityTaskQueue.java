@@ -0,0 +1,282 @@
+package simpleindexer.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * Bounded blocking queue of tasks which are taken in order of their ranks, the least first.
+ * <p>
+ * Rank of {@link simpleindexer.pipeline.PriorityTaskQueue.Ranked} task is given by the task, rank of others is
+ * the time they were queued at, in milliseconds. So if rank is queueing time plus a penalty, tasks with lower
+ * penalty go first, but a task waiting longer than its penalty overtakes all tasks queued later: no task starves.
+ * Tasks of equal ranks are taken in order they were queued.
+ */
+public class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    /**
+     * Task which knows its rank.
+     */
+    public static interface Ranked {
+        /**
+         * @return rank of the task, tasks with lower ranks are taken first
+         */
+        public long getRank();
+    }
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // guarded by lock
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private long sequence;
+
+    /**
+     * @param capacity max count of queued tasks
+     */
+    public PriorityTaskQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(@NotNull Runnable task) {
+        checkNotNull(task, "task");
+        lock.lock();
+        try {
+            if (queue.size() >= capacity) {
+                return false;
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(@NotNull Runnable task) throws InterruptedException {
+        checkNotNull(task, "task");
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                notFull.await();
+            }
+            enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(@NotNull Runnable task, long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        checkNotNull(task, "task");
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @NotNull
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return queue.isEmpty() ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            Entry entry = queue.peek();
+            return entry == null ? null : entry.task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            for (Iterator<Entry> it = queue.iterator(); it.hasNext(); ) {
+                if (it.next().task.equals(o)) {
+                    it.remove();
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeAll(@NotNull Collection<?> c) {
+        checkNotNull(c, "c");
+        lock.lock();
+        try {
+            boolean changed = false;
+            for (Iterator<Entry> it = queue.iterator(); it.hasNext(); ) {
+                if (c.contains(it.next().task)) {
+                    it.remove();
+                    changed = true;
+                }
+            }
+            if (changed) {
+                notFull.signalAll();
+            }
+            return changed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(@NotNull Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@NotNull Collection<? super Runnable> c, int maxElements) {
+        checkNotNull(c, "c");
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxElements && !queue.isEmpty()) {
+                c.add(queue.poll().task);
+                ++count;
+            }
+            if (count > 0) {
+                notFull.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return snapshot of queued tasks in no particular order, it doesn't support removal
+     */
+    @NotNull
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> tasks = new ArrayList<>(queue.size());
+            for (Entry entry : queue) {
+                tasks.add(entry.task);
+            }
+            return Collections.unmodifiableList(tasks).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Runnable task) {
+        long rank = task instanceof Ranked ? ((Ranked) task).getRank() : System.currentTimeMillis();
+        queue.add(new Entry(task, rank, sequence++));
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        Runnable task = queue.poll().task;
+        notFull.signal();
+        return task;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final Runnable task;
+        private final long rank;
+        private final long sequence;
+
+        Entry(Runnable task, long rank, long sequence) {
+            this.task = task;
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(@NotNull Entry o) {
+            if (rank != o.rank) {
+                return rank < o.rank ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : sequence == o.sequence ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package simpleindexer.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static simpleindexer.utils.IndexerUtils.checkNotNull;
+
+/**
+ * One stage of indexing pipeline: fixed count of threads executing tasks from a queue.
+ * <p>
+ * If the queue of the stage is bounded and full, {@link #submit(Runnable)} blocks until there is free space,
+ * so faster previous stage is slowed down to the speed of this one. Tasks are executed in order of the queue:
+ * with {@link simpleindexer.pipeline.PriorityTaskQueue} it is the order of ranks given by {@link #submit(Runnable, long)}.
+ */
+public class Stage {
+
+    private static final Logger log = LoggerFactory.getLogger(Stage.class);
+
+    private final String name;
+    private final int threads;
+    private final BlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor executor;
+    private final StageMetrics metrics = new StageMetrics();
+    // queued and running tasks, from submission until they are done or cancelled
+    private final ConcurrentMap<Runnable, StageTask> tasks = new ConcurrentHashMap<>();
+    // cancelled tasks which are still in the queue, they are skipped when taken
+    private final AtomicInteger cancelledQueued = new AtomicInteger();
+
+    /**
+     * Creates stage with {@code threads} threads and bounded queue of {@code capacity} tasks.
+     */
+    public Stage(@NotNull String name, int threads, int capacity) {
+        this(name, threads, new LinkedBlockingQueue<Runnable>(capacity));
+    }
+
+    /**
+     * Creates stage with {@code threads} threads taking tasks from the {@code queue}.
+     */
+    public Stage(@NotNull final String name, int threads, @NotNull BlockingQueue<Runnable> queue) {
+        this.name = checkNotNull(name, "name");
+        this.threads = threads;
+        this.queue = checkNotNull(queue, "queue");
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NotNull Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("Stage " + name + " is shut down.");
+                }
+                try {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for stage " + name, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Submit {@code task} to the stage. Blocks while queue of the stage is full.
+     *
+     * @param task to execute
+     * @throws java.util.concurrent.RejectedExecutionException if stage is shut down or waiting was interrupted.
+     */
+    public void submit(@NotNull Runnable task) {
+        submit(task, System.currentTimeMillis());
+    }
+
+    /**
+     * Submit {@code task} with {@code rank} to the stage. Blocks while queue of the stage is full.
+     * Rank matters only if queue of the stage is {@link simpleindexer.pipeline.PriorityTaskQueue}.
+     *
+     * @param task to execute
+     * @param rank of the task, tasks with lower ranks are executed first
+     * @throws java.util.concurrent.RejectedExecutionException if stage is shut down or waiting was interrupted.
+     */
+    public void submit(@NotNull Runnable task, long rank) {
+        metrics.onSubmitted();
+        StageTask stageTask = new StageTask(task, rank);
+        tasks.put(task, stageTask);
+        try {
+            executor.execute(stageTask);
+        } catch (RejectedExecutionException e) {
+            tasks.remove(task);
+            metrics.onFailed(0);
+            throw e;
+        }
+    }
+
+    /**
+     * Cancel {@code task} if it is queued: it is never executed. Task being executed is not affected.
+     * Cancelled task is left in the queue and skipped when taken, so cancellation doesn't search the queue.
+     *
+     * @param task submitted to the stage once
+     * @return {@code true} if the task was cancelled
+     */
+    public boolean cancel(@NotNull Runnable task) {
+        checkNotNull(task, "task");
+        StageTask stageTask = tasks.get(task);
+        // task may be taken by a stage thread meanwhile, then it is not cancelled
+        if (stageTask == null || !stageTask.claim()) {
+            return false;
+        }
+        cancelledQueued.incrementAndGet();
+        tasks.remove(task);
+        metrics.onCancelled(1);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if there are no queued or running tasks in the stage.
+     */
+    public boolean isIdle() {
+        return metrics.getInFlight() == 0;
+    }
+
+    public int getQueueSize() {
+        return Math.max(0, queue.size() - cancelledQueued.get());
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Put metrics of the stage to {@code into} with names started with "pipeline.<stage name>".
+     */
+    public void exportMetrics(@NotNull Map<String, Long> into) {
+        String prefix = "pipeline." + name;
+        into.put(prefix + ".threads", (long) threads);
+        into.put(prefix + ".queued", (long) getQueueSize());
+        metrics.export(prefix, into);
+    }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    private class StageTask implements Runnable, PriorityTaskQueue.Ranked {
+        private final Runnable task;
+        private final long rank;
+        // set by the first of execution and cancellation
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        StageTask(Runnable task, long rank) {
+            this.task = task;
+            this.rank = rank;
+        }
+
+        @Override
+        public long getRank() {
+            return rank;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            if (!claim()) {
+                cancelledQueued.decrementAndGet();
+                return;
+            }
+            long start = System.nanoTime();
+            boolean completed = false;
+            try {
+                task.run();
+                completed = true;
+            } catch (RuntimeException e) {
+                log.error("Task failed in stage {}: {}", name, e);
+            } finally {
+                tasks.remove(task);
+                // errors are counted too, otherwise the stage would never look idle again
+                if (completed) {
+                    metrics.onCompleted(System.nanoTime() - start);
+                } else {
+                    metrics.onFailed(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Stage " + name + "[threads=" + threads + ", queued=" + getQueueSize() + ", " + metrics + "]";
+    }
+}
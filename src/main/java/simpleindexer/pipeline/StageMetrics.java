@@ -0,0 +1,88 @@
+package simpleindexer.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of tasks passed through one {@link simpleindexer.pipeline.Stage}.
+ * Implementation is thread-safe.
+ */
+public class StageMetrics {
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    void onSubmitted() {
+        submitted.incrementAndGet();
+    }
+
+    void onCompleted(long nanos) {
+        completed.incrementAndGet();
+        busyNanos.addAndGet(nanos);
+    }
+
+    void onFailed(long nanos) {
+        failed.incrementAndGet();
+        busyNanos.addAndGet(nanos);
+    }
+
+    void onCancelled(int count) {
+        cancelled.addAndGet(count);
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return tasks which were removed from the queue without execution
+     */
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * @return tasks which are submitted but not finished yet (queued or running)
+     */
+    public long getInFlight() {
+        return submitted.get() - completed.get() - failed.get() - cancelled.get();
+    }
+
+    /**
+     * @return total time spent by stage threads in tasks, in milliseconds
+     */
+    public long getBusyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+    }
+
+    /**
+     * Put all counters to {@code into} with names started with {@code prefix}.
+     */
+    public void export(@NotNull String prefix, @NotNull Map<String, Long> into) {
+        into.put(prefix + ".submitted", getSubmitted());
+        into.put(prefix + ".completed", getCompleted());
+        into.put(prefix + ".failed", getFailed());
+        into.put(prefix + ".cancelled", getCancelled());
+        into.put(prefix + ".inflight", getInFlight());
+        into.put(prefix + ".busy.ms", getBusyMillis());
+    }
+
+    @Override
+    public String toString() {
+        return "submitted=" + getSubmitted() + ", completed=" + getCompleted() + ", failed=" + getFailed() + ", cancelled=" + getCancelled() +
+                ", busy=" + getBusyMillis() + "ms";
+    }
+}
@@ -0,0 +1,90 @@
+package simpleindexer.pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting rate of some work (bytes, files) to {@code rate} permits per second with bursts up to
+ * one second of permits.
+ * <p>
+ * Request of more permits than there are tokens is granted at once, leaving the bucket in debt, and the next
+ * requests wait until the debt is paid. So a single request larger than the burst (e.g. a big file) doesn't block
+ * forever. Non-positive rate means no limit. Rate can be changed at any time. Implementation is thread-safe.
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // guarded by this
+    private double rate;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * @param rate permits per second, non-positive for no limit
+     */
+    public TokenBucket(double rate) {
+        this.rate = rate;
+        this.tokens = Math.max(0, rate);
+    }
+
+    /**
+     * Take {@code permits}, waiting until there are tokens for them.
+     *
+     * @param permits to take
+     * @return time waited in nanoseconds
+     * @throws InterruptedException
+     */
+    public long acquire(long permits) throws InterruptedException {
+        long wait = reserve(permits);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Take {@code permits} without waiting.
+     *
+     * @param permits to take
+     * @return time in nanoseconds the caller should wait before using the permits
+     */
+    public synchronized long reserve(long permits) {
+        if (rate <= 0) {
+            return 0;
+        }
+        refill();
+        long wait = tokens >= 0 ? 0 : (long) (-tokens / rate * NANOS_PER_SECOND);
+        tokens -= permits;
+        return wait;
+    }
+
+    /**
+     * @param rate new permits per second, non-positive for no limit
+     */
+    public synchronized void setRate(double rate) {
+        refill();
+        this.rate = rate;
+        if (rate <= 0) {
+            tokens = 0;
+        } else {
+            tokens = Math.min(tokens, rate);
+        }
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            tokens = Math.min(rate, tokens + rate * (now - refilledAt) / NANOS_PER_SECOND);
+        }
+        refilledAt = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TokenBucket[" + (rate <= 0 ? "unlimited" : rate + "/s") + "]";
+    }
+}
@@ -0,0 +1,181 @@
+package simpleindexer.terms;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Global dictionary of terms: each term is stored once and has int id, so index can keep term ids
+ * instead of its own copies of term strings.
+ * <p>
+ * Terms are reference-counted: {@link #getIds(java.util.Collection)} adds a reference to each returned id, which
+ * should be given back by {@link #release(int[])} when the ids are not stored anymore. Term without references
+ * is removed, and its id may be reused by a new term. So dictionary holds only terms of indexed files.
+ * Implementation is thread-safe.
+ */
+public class TermDictionary {
+
+    /**
+     * Id of absent term.
+     */
+    public static final int NO_ID = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TObjectIntHashMap<String> ids = new TObjectIntHashMap<>(16, 0.5f, NO_ID);
+    private final List<String> terms = new ArrayList<>();
+    private int[] refCount = new int[16];
+    private final TIntArrayList freeIds = new TIntArrayList();
+    private long termsBytes;
+
+    /**
+     * @param term to find
+     * @return id of {@code term} or {@link #NO_ID} if there is no such term in dictionary
+     */
+    public int find(@NotNull String term) {
+        lock.readLock().lock();
+        try {
+            return ids.get(term);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return ids of {@code terms}, adding absent terms to dictionary. Each returned id gets one more reference.
+     *
+     * @param terms to get ids of
+     * @return sorted array of distinct ids of {@code terms}, to be given back by {@link #release(int[])}
+     */
+    @NotNull
+    public int[] getIds(@NotNull Collection<String> terms) {
+        TIntHashSet result = new TIntHashSet(terms.size());
+        lock.writeLock().lock();
+        try {
+            for (String t : terms) {
+                int id = add(t);
+                if (result.add(id)) {
+                    ++refCount[id];
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        int[] array = result.toArray();
+        Arrays.sort(array);
+        return array;
+    }
+
+    /**
+     * Remove a reference to each of {@code ids}, taken by {@link #getIds(java.util.Collection)}. Terms without
+     * references are removed from dictionary.
+     *
+     * @param ids of terms
+     */
+    public void release(@NotNull int[] ids) {
+        lock.writeLock().lock();
+        try {
+            for (int id : ids) {
+                if (id < 0 || id >= terms.size() || refCount[id] <= 0) {
+                    throw new IllegalStateException("Term " + id + " is not referenced.");
+                }
+                if (--refCount[id] == 0) {
+                    String term = terms.get(id);
+                    terms.set(id, null);
+                    this.ids.remove(term);
+                    termsBytes -= 40 + 2 * term.length();
+                    freeIds.add(id);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param ids of terms, which are referenced by caller
+     * @return terms with {@code ids}
+     */
+    @NotNull
+    public List<String> getTerms(@NotNull int[] ids) {
+        List<String> result = new ArrayList<>(ids.length);
+        lock.readLock().lock();
+        try {
+            for (int id : ids) {
+                result.add(terms.get(id));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @param id of term
+     * @return term with id {@code id} or {@code null} if there is no such term in dictionary
+     */
+    @Nullable
+    public String getTerm(int id) {
+        lock.readLock().lock();
+        try {
+            return id >= 0 && id < terms.size() ? terms.get(id) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return count of terms in dictionary
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return terms.size() - freeIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return estimated count of bytes used by dictionary
+     */
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            return ids.capacity() * (4L + 4 + 1) + terms.size() * 4L + refCount.length * 4L + termsBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size=" + size() + "]";
+    }
+
+    private int add(String term) {
+        int id = ids.get(term);
+        if (id == NO_ID) {
+            if (!freeIds.isEmpty()) {
+                id = freeIds.removeAt(freeIds.size() - 1);
+                terms.set(id, term);
+            } else {
+                id = terms.size();
+                terms.add(term);
+                if (id == refCount.length) {
+                    refCount = Arrays.copyOf(refCount, id * 2);
+                }
+            }
+            ids.put(term, id);
+            termsBytes += 40 + 2 * term.length();
+        }
+        return id;
+    }
+}
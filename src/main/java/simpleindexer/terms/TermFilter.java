@@ -0,0 +1,76 @@
+package simpleindexer.terms;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Bloom filter of term ids of one file, kept next to ids encoded by {@link simpleindexer.terms.TermIds}.
+ * <p>
+ * Query checks filter of each file with a few bit probes and decodes ids only of files whose filter may contain
+ * the term, so query cost doesn't grow with count of terms of files. Filter takes {@link #BITS_PER_ID} bits per id,
+ * with {@link #PROBES} probes a term is reported to be possibly contained by filter not containing it in about
+ * 2% of checks.
+ */
+public final class TermFilter {
+
+    /**
+     * Bits of filter per id.
+     */
+    public static final int BITS_PER_ID = 10;
+
+    /**
+     * Count of bits set for each id.
+     */
+    public static final int PROBES = 3;
+
+    private TermFilter() {
+    }
+
+    /**
+     * @param ids array of distinct ids
+     * @return filter of {@code ids}
+     */
+    @NotNull
+    public static byte[] of(@NotNull int[] ids) {
+        byte[] filter = new byte[Math.max(1, (ids.length * BITS_PER_ID + 7) / 8)];
+        int bits = filter.length * 8;
+        for (int id : ids) {
+            int h1 = hash(id);
+            int h2 = secondHash(h1);
+            for (int i = 0; i < PROBES; ++i) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+                filter[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * @param filter built by {@link #of(int[])}
+     * @param id to check
+     * @return {@code false} if ids of {@code filter} don't contain {@code id}, {@code true} if they may contain it
+     */
+    public static boolean mayContain(@NotNull byte[] filter, int id) {
+        int bits = filter.length * 8;
+        int h1 = hash(id);
+        int h2 = secondHash(h1);
+        for (int i = 0; i < PROBES; ++i) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Ids of dictionary are consecutive, so they are mixed to spread over bits.
+     */
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int secondHash(int h1) {
+        return Integer.rotateLeft(h1 * 0x85EBCA6B, 13) | 1;
+    }
+}
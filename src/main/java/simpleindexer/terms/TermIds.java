@@ -0,0 +1,135 @@
+package simpleindexer.terms;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compact encoding of sorted arrays of distinct term ids.
+ * <p>
+ * Array is encoded as its length followed by differences between neighbour ids (the first id is encoded as is),
+ * each as variable-length integer: 7 bits per byte, the highest bit is set in all bytes except the last one.
+ * Ids of terms of a file are close to each other, so most of them take one or two bytes instead of four.
+ */
+public final class TermIds {
+
+    /**
+     * Empty encoded array.
+     */
+    public static final byte[] EMPTY = encode(new int[0]);
+
+    private TermIds() {
+    }
+
+    /**
+     * @param ids sorted array of distinct non-negative ids
+     * @return encoded {@code ids}
+     */
+    @NotNull
+    public static byte[] encode(@NotNull int[] ids) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ids.length + 5);
+        writeVarInt(out, ids.length);
+        int previous = 0;
+        for (int id : ids) {
+            writeVarInt(out, id - previous);
+            previous = id;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param encoded array encoded by {@link #encode(int[])}
+     * @return decoded sorted array of ids
+     */
+    @NotNull
+    public static int[] decode(@NotNull byte[] encoded) {
+        Reader reader = new Reader(encoded);
+        int[] ids = new int[reader.readVarInt()];
+        int previous = 0;
+        for (int i = 0; i < ids.length; ++i) {
+            previous += reader.readVarInt();
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+    /**
+     * Check if encoded array contains {@code id}. Decoding stops at the first id which is not less than {@code id}.
+     *
+     * @param encoded array encoded by {@link #encode(int[])}
+     * @param id to find
+     * @return {@code true} if {@code encoded} contains {@code id}, {@code false} otherwise
+     */
+    public static boolean contains(@NotNull byte[] encoded, int id) {
+        Reader reader = new Reader(encoded);
+        int count = reader.readVarInt();
+        int current = 0;
+        for (int i = 0; i < count; ++i) {
+            current += reader.readVarInt();
+            if (current >= id) {
+                return current == id;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find difference between sorted arrays by one merge walk.
+     *
+     * @param oldIds sorted array of ids
+     * @param newIds sorted array of ids
+     * @param removed to add ids which are in {@code oldIds} but not in {@code newIds} to
+     * @param added to add ids which are in {@code newIds} but not in {@code oldIds} to
+     */
+    public static void diff(@NotNull int[] oldIds, @NotNull int[] newIds,
+                            @NotNull TIntArrayList removed, @NotNull TIntArrayList added) {
+        int i = 0;
+        int j = 0;
+        while (i < oldIds.length && j < newIds.length) {
+            if (oldIds[i] < newIds[j]) {
+                removed.add(oldIds[i++]);
+            } else if (oldIds[i] > newIds[j]) {
+                added.add(newIds[j++]);
+            } else {
+                ++i;
+                ++j;
+            }
+        }
+        while (i < oldIds.length) {
+            removed.add(oldIds[i++]);
+        }
+        while (j < newIds.length) {
+            added.add(newIds[j++]);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
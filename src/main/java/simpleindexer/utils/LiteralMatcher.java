@@ -0,0 +1,117 @@
+package simpleindexer.utils;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Matcher of many string literals at once by <a href="http://en.wikipedia.org/wiki/Aho%E2%80%93Corasick_algorithm">
+ * Aho-Corasick</a> automaton: text is scanned once whatever count of literals is, without allocations.
+ * <p>
+ * Transitions of all states are kept in one hash map from (state, char) to the next state.
+ * Implementation is immutable and thread-safe.
+ */
+public final class LiteralMatcher {
+
+    private static final int NO_STATE = -1;
+
+    private final boolean ignoreCase;
+    private final TLongIntHashMap transitions = new TLongIntHashMap(16, 0.5f, Long.MIN_VALUE, NO_STATE);
+    private final int[] fail;
+    private final boolean[] terminal;
+
+    /**
+     * @param literals to match
+     * @param ignoreCase whether case of chars should be ignored
+     */
+    public LiteralMatcher(@NotNull Collection<String> literals, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        // trie of literals
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        children.add(new LinkedHashMap<Character, Integer>());
+        ends.add(false);
+        for (String literal : literals) {
+            int state = 0;
+            for (int i = 0; i < literal.length(); ++i) {
+                char c = normalize(literal.charAt(i));
+                Integer next = children.get(state).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.get(state).put(c, next);
+                    children.add(new LinkedHashMap<Character, Integer>());
+                    ends.add(false);
+                }
+                state = next;
+            }
+            ends.set(state, true);
+        }
+        fail = new int[children.size()];
+        terminal = new boolean[children.size()];
+        terminal[0] = ends.get(0);
+        // failure links in breadth-first order, so links of shorter prefixes are ready
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (Map.Entry<Character, Integer> e : children.get(0).entrySet()) {
+            transitions.put(key(0, e.getKey()), e.getValue());
+            terminal[e.getValue()] = ends.get(e.getValue()) || terminal[0];
+            queue.add(e.getValue());
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> e : children.get(state).entrySet()) {
+                int child = e.getValue();
+                transitions.put(key(state, e.getKey()), child);
+                fail[child] = step(fail[state], e.getKey());
+                terminal[child] = ends.get(child) || terminal[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if there are no literals to match
+     */
+    public boolean isEmpty() {
+        return fail.length == 1 && !terminal[0];
+    }
+
+    /**
+     * @param text to scan
+     * @return {@code true} if {@code text} contains at least one of literals
+     */
+    public boolean containsAny(@NotNull CharSequence text) {
+        if (terminal[0]) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            state = step(state, normalize(text.charAt(i)));
+            if (terminal[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int step(int state, char c) {
+        while (true) {
+            int next = transitions.get(key(state, c));
+            if (next != NO_STATE) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    private char normalize(char c) {
+        return ignoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    private static long key(int state, char c) {
+        return ((long) state << 16) | c;
+    }
+}
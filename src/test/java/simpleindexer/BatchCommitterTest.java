@@ -0,0 +1,158 @@
+package simpleindexer;
+
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import simpleindexer.valuestorages.ValueStorage;
+
+import java.util.*;
+
+/**
+ * Testing batching of updates by {@link simpleindexer.BatchCommitter}.
+ */
+public class BatchCommitterTest {
+
+    @Test
+    public void maxDocsTest() {
+        RecordingIndex index = new RecordingIndex();
+        BatchCommitter<String, String> committer = new BatchCommitter<>(index, 3, Long.MAX_VALUE, 60000);
+        committer.add(update("a", 1));
+        committer.add(update("b", 1));
+        Assert.assertTrue(index.commits.isEmpty());
+        committer.add(update("c", 1));
+        committer.add(update("d", 1));
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), index.commits);
+        committer.flushAll();
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b", "c"), Collections.singletonList("d")), index.commits);
+        committer.flushAll();
+        Assert.assertEquals(2, index.commits.size());
+    }
+
+    @Test
+    public void maxBytesTest() {
+        RecordingIndex index = new RecordingIndex();
+        BatchCommitter<String, String> committer = new BatchCommitter<>(index, 100, 1000, 60000);
+        committer.add(update("a", 600));
+        Assert.assertTrue(index.commits.isEmpty());
+        committer.add(update("b", 600));
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("a", "b")), index.commits);
+    }
+
+    @Test
+    public void lastUpdateWinsTest() {
+        RecordingIndex index = new RecordingIndex();
+        BatchCommitter<String, String> committer = new BatchCommitter<>(index, 100, Long.MAX_VALUE, 60000);
+        committer.add(update("a", 1));
+        committer.add(update("b", 1));
+        IndexUpdate<String, String> remove = IndexUpdate.remove("a");
+        committer.add(remove);
+        committer.flushAll();
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("b", "a")), index.commits);
+        Assert.assertTrue(index.updates.contains(remove));
+    }
+
+    @Test
+    public void flushExpiredTest() throws InterruptedException {
+        RecordingIndex index = new RecordingIndex();
+        BatchCommitter<String, String> committer = new BatchCommitter<>(index, 100, Long.MAX_VALUE, 100);
+        committer.add(update("a", 1));
+        committer.flushExpired();
+        Assert.assertTrue(index.commits.isEmpty());
+        Thread.sleep(150);
+        committer.flushExpired();
+        Assert.assertEquals(Collections.singletonList(Collections.singletonList("a")), index.commits);
+    }
+
+    @Test
+    public void updateFromOtherThreadFlushesOwnerTest() throws InterruptedException {
+        RecordingIndex index = new RecordingIndex();
+        final BatchCommitter<String, String> committer = new BatchCommitter<>(index, 100, Long.MAX_VALUE, 60000);
+        committer.add(update("a", 1));
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                committer.add(update("a", 2));
+            }
+        };
+        other.start();
+        other.join();
+        // updates of the same value are never committed out of order
+        Assert.assertEquals(Collections.singletonList(Collections.singletonList("a")), index.commits);
+        committer.flushAll();
+        Assert.assertEquals(2, index.commits.size());
+        Assert.assertEquals(2, index.updates.get(1).getSize());
+    }
+
+    @Test
+    public void failedCommitTest() throws InterruptedException {
+        RecordingIndex index = new RecordingIndex();
+        index.failures = 1;
+        BatchCommitter<String, String> committer = new BatchCommitter<>(index, 100, Long.MAX_VALUE, 100);
+        committer.add(update("a", 1));
+        Thread.sleep(150);
+        // exception of index doesn't escape, so periodic flushing goes on
+        committer.flushExpired();
+        Assert.assertTrue(index.commits.isEmpty());
+        committer.add(update("b", 1));
+        Thread.sleep(150);
+        committer.flushExpired();
+        Assert.assertEquals(Collections.singletonList(Collections.singletonList("b")), index.commits);
+    }
+
+    private static IndexUpdate<String, String> update(String value, long size) {
+        return IndexUpdate.update(value, Collections.singleton("key"), null, size);
+    }
+
+    /*
+     * Records committed batches.
+     */
+    private static class RecordingIndex implements Index<String, String, Object> {
+        private final List<List<String>> commits = new ArrayList<>();
+        private final List<IndexUpdate<String, String>> updates = new ArrayList<>();
+        private int failures;
+
+        @Override
+        public synchronized void commit(@NotNull Collection<IndexUpdate<String, String>> batch) {
+            if (failures > 0) {
+                --failures;
+                throw new IllegalStateException("commit failed");
+            }
+            List<String> values = new ArrayList<>();
+            for (IndexUpdate<String, String> u : batch) {
+                values.add(u.getValue());
+                updates.add(u);
+            }
+            commits.add(values);
+        }
+
+        @Override
+        public ValueStorage<String> get(String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void update(Object data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove(Object data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IndexUpdate<String, String> prepareUpdate(Object data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IndexUpdate<String, String> prepareRemove(Object data) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package simpleindexer;
 
+import junit.framework.Assert;
 import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Rule;
@@ -10,6 +11,7 @@ import org.junit.runners.model.FrameworkMethod;
 import simpleindexer.exceptions.IndexException;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
@@ -60,16 +62,31 @@ public class FunctionalTest extends IndexTestBase {
         createAndWrite(TEXT_A, testDirPath,   "bar1", "bar2", "foo3", "bar4", "file1");
 
         // use default IndexProperties
-        Properties testProp = new Properties();
-        testProp.setProperty(WordToPathIndex.IndexProperties.SKIP_FILES_WITHOUT_EXT_PROPERTY, "false");
-        index = new WordToPathIndex(FileSystems.getDefault(), new WordToPathIndex.IndexProperties(testProp), testDir);
         try {
-            Thread.sleep(sleepTimeBeforeMatching);
+            startIndex(new Properties());
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
     }
 
+    /*
+     * Start index of the test directory with test defaults overridden by testProp, then wait for initial indexing.
+     */
+    private void startIndex(Properties testProp) throws IOException, InterruptedException {
+        testProp.setProperty(WordToPathIndex.IndexProperties.SKIP_FILES_WITHOUT_EXT_PROPERTY, "false");
+        index = new WordToPathIndex(FileSystems.getDefault(), new WordToPathIndex.IndexProperties(testProp),
+                Paths.get(testDirPath));
+        Thread.sleep(sleepTimeBeforeMatching);
+    }
+
+    /*
+     * Replace index started by initTest with index of given properties.
+     */
+    private void restartIndex(Properties testProp) throws IOException, InterruptedException, IndexException {
+        index.shutdown();
+        startIndex(testProp);
+    }
+
     @Test
     public void afterIndexInitializeQueryTest() throws InterruptedException, IndexException {
         matchAll("aaaa", "bar1/bar2/foo3/bar4/file1", "bar1/file1", "foo1/bar2/file1", "foo1/file1");
@@ -204,6 +221,63 @@ public class FunctionalTest extends IndexTestBase {
         matchAll("cccc", "bar1/bar2/file2", "foo1/file3", "foo1/mbar2/foo3/foo4/file1");
         matchAll("aaaa", "bar1/bar2/foo3/bar4/file1", "bar1/file1", "foo1/mbar2/file1", "foo1/file1");
         matchAll("designed", "mbar4/file1", "foo1/foo2/file1");
+        Assert.assertTrue(index.getStatistics().get("move.applied") > 0);
+        // moved directory is watched at its new path
+        appendToFile("foo1/mbar2/foo3/foo4/file1", TEXT_A);
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("aaaa", "bar1/bar2/foo3/bar4/file1", "bar1/file1", "foo1/mbar2/file1", "foo1/file1",
+                "foo1/mbar2/foo3/foo4/file1");
+    }
+
+    @Test
+    public void moveDirectoryWhileIndexingTest() throws InterruptedException, IOException, IndexException {
+        Paths.get(testDirPath, "busy").toFile().mkdir();
+        for (int i = 0; i < 300; ++i) {
+            generateBigFile(2000, testDirPath, "busy", "file" + i);
+        }
+        // files of other directories are being indexed while the move is detected
+        Files.move(Paths.get(testDirPath, "foo1/bar2"), Paths.get(testDirPath, "foo1/mbar2"));
+        Thread.sleep(2 * sleepTimeBeforeMatching);
+        matchAll("cccc", "bar1/bar2/file2", "foo1/file3", "foo1/mbar2/foo3/foo4/file1");
+        matchCount("AAA", 300);
+        Assert.assertTrue(index.getStatistics().get("move.applied") > 0);
+    }
+
+    @Test
+    public void hardLinkTest() throws InterruptedException, IOException, IndexException {
+        Files.createLink(Paths.get(testDirPath, "foo1/lfile1"), Paths.get(testDirPath, "foo1/foo2/file1"));
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("designed", "bar1/bar2/bar3/bar4/file1", "foo1/foo2/file1", "foo1/lfile1");
+        Assert.assertTrue(index.getStatistics().get("aliases.shared") > 0);
+        Files.delete(Paths.get(testDirPath, "foo1/foo2/file1"));
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("designed", "bar1/bar2/bar3/bar4/file1", "foo1/lfile1");
+    }
+
+    @Test
+    public void copyFileTest() throws InterruptedException, IOException, IndexException {
+        Files.copy(Paths.get(testDirPath, "foo1/foo2/file1"), Paths.get(testDirPath, "foo1/cfile1"));
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("designed", "bar1/bar2/bar3/bar4/file1", "foo1/foo2/file1", "foo1/cfile1");
+        Assert.assertTrue(index.getStatistics().get("dedup.ratio.percent") > 0);
+        appendToFile("foo1/cfile1", TEXT_C);
+        Files.delete(Paths.get(testDirPath, "foo1/foo2/file1"));
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("designed", "bar1/bar2/bar3/bar4/file1", "foo1/cfile1");
+        matchAll("cccc", "bar1/bar2/file2", "foo1/file3", "foo1/bar2/foo3/foo4/file1", "foo1/cfile1");
+    }
+
+    @Test
+    public void ignoreFileTest() throws InterruptedException, IOException, IndexException {
+        Path ignore = Paths.get(testDirPath, "foo1", PathFilter.IGNORE_FILE_NAME);
+        Files.write(ignore, Arrays.asList("file2", "bar2/"), StandardCharsets.UTF_8);
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("bbb", "bar1/bar2/bar3/bar4/file1", "bar1/bar2/file1", "/foo1/foo2/file1");
+        matchAll("cccc", "bar1/bar2/file2", "foo1/file3");
+        Files.delete(ignore);
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("bbb", "bar1/bar2/bar3/bar4/file1", "bar1/bar2/file1", "foo1/file2", "/foo1/foo2/file1");
+        matchAll("cccc", "bar1/bar2/file2", "foo1/file3", "foo1/bar2/foo3/foo4/file1");
     }
 
     @Test
@@ -219,6 +293,27 @@ public class FunctionalTest extends IndexTestBase {
         matchAll("designed", "foo1/foo2/file1");
     }
 
+    @Test
+    public void deleteFilesThenDirectoryTest() throws InterruptedException, IOException, IndexException {
+        for (int d = 0; d < 5; ++d) {
+            Paths.get(testDirPath, "dir" + d).toFile().mkdir();
+            for (int f = 0; f < 40; ++f) {
+                createAndWrite("zzzz " + d + " " + f, testDirPath, "dir" + d, "file" + f);
+            }
+        }
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchCount("zzzz", 200);
+        // events of files come before the event of their directory, while their tasks may be still queued
+        for (int d = 0; d < 5; ++d) {
+            for (int f = 0; f < 40; ++f) {
+                Files.delete(Paths.get(testDirPath, "dir" + d, "file" + f));
+            }
+            Files.delete(Paths.get(testDirPath, "dir" + d));
+        }
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchCount("zzzz", 0);
+    }
+
     @Test
     public void startWatchNewRootTest() throws InterruptedException, IOException {
         final String swTestDirPath = Paths.get(testDirPath).toString() + "startWatch";
@@ -274,7 +369,8 @@ public class FunctionalTest extends IndexTestBase {
         matchAll("bbb");
         matchAll("cccc");
         matchAll("aaaa");
-        matchAll("designed");
+        matchAll("designed");        // terms of removed files are removed from dictionary
+        Assert.assertEquals(0L, (long) index.getStatistics().get("terms.count"));
     }
 
     @Test
@@ -292,6 +388,49 @@ public class FunctionalTest extends IndexTestBase {
         matchAll("designed", "foo1/foo2/file1");
     }
 
+    @Test
+    public void stopWatchWhileIndexingTest() throws InterruptedException, IOException, IndexException {
+        Path root = Files.createTempDirectory(TEST_DIR_NAME);
+        addShutdownHook(root);
+        for (int i = 0; i < 3000; ++i) {
+            createAndWrite("zzzq " + i, root.toString(), "file" + i);
+        }
+        index.startWatch(root);
+        // wait until crawl registers root
+        for (int i = 0; ; ++i) {
+            try {
+                index.stopWatch(root);
+                break;
+            } catch (NoSuchFileException e) {
+                if (i > 1000) {
+                    throw e;
+                }
+                Thread.sleep(1);
+            }
+        }
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAllTestDir("zzzq", root.toString());
+        Map<String, Long> statistics = index.getStatistics();
+        Assert.assertTrue(statistics.get("cancelled.tasks") + statistics.get("crawl.cancelled") > 0);
+    }
+
+    @Test
+    public void crawlRateLimitTest() throws InterruptedException, IOException, IndexException {
+        Path root = Files.createTempDirectory(TEST_DIR_NAME);
+        addShutdownHook(root);
+        for (int i = 0; i < 40; ++i) {
+            createAndWrite("zzzr " + i, root.toString(), "file" + i);
+        }
+        index.setCrawlRateLimits(0, 10);
+        index.startWatch(root);
+        Thread.sleep(sleepTimeBeforeMatching);
+        // 40 files can't be read at 10 files per second without waiting
+        Assert.assertTrue(index.getStatistics().get("rate.throttled") > 0);
+        index.setCrawlRateLimits(0, 0);
+        Thread.sleep(sleepTimeBeforeMatching);
+        Assert.assertTrue(index.getPathsByWord("zzzr").size() == 40);
+    }
+
     @Test(expected = NoSuchFileException.class)
     public void stopWatchFileTest() throws InterruptedException, IOException, IndexException {
         index.stopWatch(Paths.get(testDirPath, "foo1", "file1"));
@@ -371,6 +510,136 @@ public class FunctionalTest extends IndexTestBase {
         executor.shutdown();
     }
 
+    /*
+     * All file events are collapsed into directory rescans.
+     */
+    @Test
+    public void overloadedQueueRescanTest() throws IOException, InterruptedException, IndexException {
+        Properties testProp = new Properties();
+        testProp.setProperty(WordToPathIndex.IndexProperties.QUEUE_RESCAN_THRESHOLD_PROPERTY, "0");
+        restartIndex(testProp);
+        createAndWrite("foo bar", testDirPath, "f1");
+        createAndWrite("bar", testDirPath, "bar1", "bar2", "f2");
+        appendToFile("foo1/file1", " foo");
+        Files.delete(Paths.get(testDirPath, "foo1/file3"));
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("foo", "f1", "foo1/file1");
+        matchAll("bar", "f1", "bar1/bar2/f2");
+        matchAll("cccc", "bar1/bar2/file2", "foo1/bar2/foo3/foo4/file1");
+        Assert.assertTrue(index.getStatistics().get("rescan.count") > 0);
+    }
+
+    /*
+     * Batches of watcher go to the index as is, without debouncing and move detection.
+     */
+    @Test
+    public void undebouncedEventsTest() throws IOException, InterruptedException, IndexException {
+        Properties testProp = new Properties();
+        testProp.setProperty(WordToPathIndex.IndexProperties.DEBOUNCE_QUIET_PERIOD_PROPERTY, "0");
+        testProp.setProperty(WordToPathIndex.IndexProperties.MOVE_DETECTION_WINDOW_PROPERTY, "0");
+        testProp.setProperty(WordToPathIndex.IndexProperties.WATCHER_SHARDS_PROPERTY, "3");
+        restartIndex(testProp);
+        for (int i = 0; i < 20; ++i) {
+            createAndWrite("zebra", testDirPath, "f" + i);
+        }
+        createAndWrite("yak", testDirPath, "bar1", "bar2", "f2");
+        appendToFile("foo1/file1", " zebra");
+        Files.delete(Paths.get(testDirPath, "foo1/file3"));
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchCount("zebra", 21);
+        matchAll("yak", "bar1/bar2/f2");
+        matchAll("cccc", "bar1/bar2/file2", "foo1/bar2/foo3/foo4/file1");
+    }
+
+    @Test
+    public void pollingBackendTest() throws IOException, InterruptedException, IndexException {
+        Properties testProp = new Properties();
+        testProp.setProperty(WordToPathIndex.IndexProperties.WATCH_BACKEND_PROPERTY, "polling");
+        testProp.setProperty(WordToPathIndex.IndexProperties.POLL_MAX_INTERVAL_PROPERTY, "500");
+        restartIndex(testProp);
+        createAndWrite("foo bar", testDirPath, "f1");
+        Files.createDirectory(Paths.get(testDirPath, "foo1", "new"));
+        createAndWrite("bar", testDirPath, "foo1", "new", "f2");
+        appendToFile("foo1/file1", " foo");
+        Files.delete(Paths.get(testDirPath, "foo1/file3"));
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("foo", "f1", "foo1/file1");
+        matchAll("bar", "f1", "foo1/new/f2");
+        matchAll("cccc", "bar1/bar2/file2", "foo1/bar2/foo3/foo4/file1");
+        Assert.assertTrue(index.getStatistics().get("poll.events") > 0);
+    }
+
+    @Test
+    public void watchBudgetTest() throws IOException, InterruptedException, IndexException {
+        Properties testProp = new Properties();
+        testProp.setProperty(WordToPathIndex.IndexProperties.WATCH_BUDGET_PROPERTY, "2");
+        testProp.setProperty(WordToPathIndex.IndexProperties.WATCH_COLD_PERIOD_PROPERTY, "0");
+        testProp.setProperty(WordToPathIndex.IndexProperties.POLL_MAX_INTERVAL_PROPERTY, "500");
+        restartIndex(testProp);
+        createAndWrite("foo bar", testDirPath, "f1");
+        Files.createDirectory(Paths.get(testDirPath, "foo1", "new"));
+        createAndWrite("bar", testDirPath, "foo1", "new", "f2");
+        appendToFile("foo1/bar2/foo3/foo4/file1", " foo");
+        Files.delete(Paths.get(testDirPath, "foo1/file3"));
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("foo", "f1", "foo1/bar2/foo3/foo4/file1");
+        matchAll("bar", "f1", "foo1/new/f2");
+        matchAll("cccc", "bar1/bar2/file2", "foo1/bar2/foo3/foo4/file1");
+        Map<String, Long> statistics = index.getStatistics();
+        Assert.assertTrue(statistics.get("watch.native") <= 2);
+        Assert.assertTrue(statistics.get("watch.polled") > 0);
+        Assert.assertTrue(statistics.get("watch.promotions") > 0);
+    }
+
+    @Test
+    public void asyncReadModeTest() throws IOException, InterruptedException, IndexException {
+        Properties testProp = new Properties();
+        testProp.setProperty(WordToPathIndex.IndexProperties.READ_MODE_PROPERTY, "async");
+        testProp.setProperty(WordToPathIndex.IndexProperties.ASYNC_READS_IN_FLIGHT_PROPERTY, "4");
+        restartIndex(testProp);
+        afterIndexInitializeQueryTest();
+        appendToFile("bar1/bar2/file2", TEXT_A);
+        // bigger than pooled buffers
+        generateBigFile(100 * 1024, testDirPath, "chunked");
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("aaaa", "bar1/bar2/foo3/bar4/file1", "bar1/file1", "foo1/bar2/file1", "foo1/file1", "bar1/bar2/file2");
+        matchAll("EEE", "chunked");
+        Map<String, Long> statistics = index.getStatistics();
+        Assert.assertTrue(statistics.get("async.reads") > 0);
+        Assert.assertTrue(statistics.get("async.in.flight") == 0);
+    }
+
+    /*
+     * Buffers of files read at start are reused for reading of changed ones.
+     */
+    @Test
+    public void readBufferPoolTest() throws IOException, InterruptedException, IndexException {
+        long allocated = index.getStatistics().get("buffers.allocated.bytes");
+        Assert.assertTrue(allocated > 0);
+        appendToFile("bar1/bar2/file2", TEXT_A);
+        appendToFile("foo1/file3", TEXT_A);
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("aaaa", "bar1/bar2/foo3/bar4/file1", "bar1/file1", "foo1/bar2/file1", "foo1/file1", "bar1/bar2/file2", "foo1/file3");
+        Map<String, Long> statistics = index.getStatistics();
+        Assert.assertTrue(statistics.get("buffers.hits") > 0);
+        Assert.assertTrue(statistics.get("buffers.hit.percent") > 0);
+    }
+
+    /*
+     * File is large enough to be indexed by chunks.
+     */
+    @Test
+    public void modifyChunkedFileTest() throws IOException, InterruptedException, IndexException {
+        generateBigFile(100 * 1024, testDirPath, "chunked");
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("EEE", "chunked");
+        appendToFile("chunked", "Hello tail");
+        Thread.sleep(sleepTimeBeforeMatching);
+        matchAll("EEE", "chunked");
+        matchAll("tail", "chunked");
+        matchAll("Hello", "foo1/foo2/foo3/file1", "bar1/bar2/foo3/file1", "foo1/foo2/file1", "bar1/bar2/bar3/bar4/file1", "chunked");
+    }
+
     // this test is allowed to fail, since it is strongly depends on OS/hardware.
     @Test
     public void bigFilesTest() throws IOException, InterruptedException, IndexException {
@@ -0,0 +1,83 @@
+package simpleindexer;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import simpleindexer.fs.PathTable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+/**
+ * Testing extensions and cached scopes of ignore files of {@link simpleindexer.PathFilter}.
+ */
+public class PathFilterTest {
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("simpleindexer");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(root.resolve("dir").resolve(PathFilter.IGNORE_FILE_NAME));
+        Files.deleteIfExists(root.resolve("dir"));
+        Files.delete(root);
+    }
+
+    @Test
+    public void skipFilesWithoutExtTest() {
+        Properties properties = new Properties();
+        properties.setProperty(WordToPathIndex.IndexProperties.SKIP_FILES_WITHOUT_EXT_PROPERTY, "true");
+        PathFilter filter = new PathFilter(new WordToPathIndex.IndexProperties(properties), new PathTable());
+        Assert.assertTrue(filter.accept(root.resolve("dir/file.txt"), false));
+        Assert.assertFalse(filter.accept(root.resolve("dir/file"), false));
+        // dot in name of parent directory doesn't make extension of file
+        Assert.assertFalse(filter.accept(root.resolve("dir.d/file"), false));
+        Assert.assertTrue(filter.accept(root.resolve("dir"), true));
+
+        properties.setProperty(WordToPathIndex.IndexProperties.SKIP_FILES_WITHOUT_EXT_PROPERTY, "false");
+        filter = new PathFilter(new WordToPathIndex.IndexProperties(properties), new PathTable());
+        Assert.assertTrue(filter.accept(root.resolve("dir.d/file"), false));
+    }
+
+    @Test
+    public void cachedScopeTest() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(WordToPathIndex.IndexProperties.SKIP_FILES_WITHOUT_EXT_PROPERTY, "false");
+        PathTable table = new PathTable();
+        PathFilter filter = new PathFilter(new WordToPathIndex.IndexProperties(properties), table);
+        Path dir = Files.createDirectory(root.resolve("dir"));
+        Path sub = dir.resolve("a/b");
+        table.acquire(sub.resolve("file"));
+        Files.write(dir.resolve(PathFilter.IGNORE_FILE_NAME), Collections.singletonList("*.log"),
+                StandardCharsets.UTF_8);
+        filter.reload(dir);
+
+        PathFilter.Scope scope = filter.getScope(sub);
+        Assert.assertNotNull(scope);
+        Assert.assertSame(scope, filter.getScope(sub));
+        Assert.assertFalse(filter.accept(sub.resolve("file.log"), false));
+        Assert.assertTrue(filter.accept(sub.resolve("file.txt"), false));
+
+        // changed rules replace cached scopes
+        Files.write(dir.resolve(PathFilter.IGNORE_FILE_NAME), Arrays.asList("*.txt"), StandardCharsets.UTF_8);
+        filter.reload(dir);
+        Assert.assertTrue(filter.accept(sub.resolve("file.log"), false));
+        Assert.assertFalse(filter.accept(sub.resolve("file.txt"), false));
+
+        // directory moved keeping its id
+        Path moved = root.resolve("moved/b");
+        table.move(table.find(sub), moved);
+        Assert.assertNull(filter.getScope(moved));
+        Assert.assertTrue(filter.accept(moved.resolve("file.txt"), false));
+    }
+}
@@ -0,0 +1,64 @@
+package simpleindexer;
+
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import simpleindexer.fs.FileWrapper;
+import simpleindexer.valuestorages.ValueStorage;
+
+import java.util.*;
+
+/**
+ * Testing queries of {@link simpleindexer.StringStringMemoIndex} over many documents.
+ */
+public class StringStringMemoIndexTest {
+
+    private static final DataIndexer<String, Void, FileWrapper> NO_INDEXER = new DataIndexer<String, Void, FileWrapper>() {
+        @NotNull
+        @Override
+        public Map<String, Void> index(@NotNull FileWrapper data) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    @Test
+    public void queryTest() throws Exception {
+        StringStringMemoIndex index = new StringStringMemoIndex(NO_INDEXER);
+        Random random = new Random(3);
+        Map<String, Set<String>> expected = new HashMap<>();
+        List<IndexUpdate<String, String>> updates = new ArrayList<>();
+        for (int file = 0; file < 2000; ++file) {
+            String path = "/tmp/memo/file" + file;
+            Set<String> keys = new HashSet<>();
+            for (int i = 0; i < 200; ++i) {
+                keys.add("w" + random.nextInt(20000));
+            }
+            keys.add(file % 2 == 0 ? "even" : "odd");
+            for (String key : keys) {
+                if (!expected.containsKey(key)) {
+                    expected.put(key, new HashSet<String>());
+                }
+                expected.get(key).add(path);
+            }
+            updates.add(IndexUpdate.update(path, keys, null, 1000));
+        }
+        index.commit(updates);
+        for (int i = 0; i < 20000; i += 97) {
+            assertPaths(expected.get("w" + i), index.get("w" + i));
+        }
+        assertPaths(expected.get("even"), index.get("even"));
+        Assert.assertEquals(1000, index.get("odd").asList().size());
+        Assert.assertNull(index.get("missing"));
+
+        index.commit(Collections.singletonList(IndexUpdate.<String, String>remove("/tmp/memo/file1")));
+        Assert.assertEquals(999, index.get("odd").asList().size());
+    }
+
+    private static void assertPaths(Set<String> expected, ValueStorage<String> actual) {
+        if (expected == null) {
+            Assert.assertNull(actual);
+            return;
+        }
+        Assert.assertEquals(expected, new HashSet<>(actual.asList()));
+    }
+}
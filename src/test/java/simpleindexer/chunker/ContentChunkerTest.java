@@ -0,0 +1,72 @@
+package simpleindexer.chunker;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Testing boundaries chosen by {@link simpleindexer.chunker.ContentChunker}.
+ */
+public class ContentChunkerTest {
+
+    private static final String DELIMITERS = " \n";
+
+    @Test
+    public void chunksEndWithDelimitersTest() {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(1);
+        while (sb.length() < 100000) {
+            for (int i = random.nextInt(12); i >= 0; --i) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+            sb.append(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+        String content = sb.toString();
+        int[] ends = new ContentChunker(DELIMITERS, 256).split(content);
+        Assert.assertTrue(ends.length > 1);
+        Assert.assertEquals(content.length(), ends[ends.length - 1]);
+        for (int i = 0; i < ends.length - 1; ++i) {
+            Assert.assertTrue(DELIMITERS.indexOf(content.charAt(ends[i] - 1)) >= 0);
+        }
+    }
+
+    @Test
+    public void contentWithoutDelimitersIsCutTest() {
+        char[] chars = new char[100000];
+        for (int i = 0; i < chars.length; ++i) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        int[] ends = new ContentChunker(DELIMITERS, 256).split(new String(chars));
+        Assert.assertEquals(chars.length, ends[ends.length - 1]);
+        int start = 0;
+        for (int end : ends) {
+            Assert.assertTrue(end - start <= 16 * 256);
+            start = end;
+        }
+    }
+
+    @Test
+    public void editKeepsOtherBoundariesTest() {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(2);
+        while (sb.length() < 50000) {
+            sb.append(Integer.toString(random.nextInt(100000), 36)).append(' ');
+        }
+        String content = sb.toString();
+        String edited = "inserted words " + content;
+        ContentChunker chunker = new ContentChunker(DELIMITERS, 256);
+        int[] before = chunker.split(content);
+        int[] after = chunker.split(edited);
+        int shift = edited.length() - content.length();
+        int same = 0;
+        for (int end : before) {
+            if (Arrays.binarySearch(after, end + shift) >= 0) {
+                ++same;
+            }
+        }
+        // only boundaries near the edit move
+        Assert.assertTrue(same >= before.length - 2);
+    }
+}
@@ -0,0 +1,159 @@
+package simpleindexer.fs;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Testing merging of events by {@link simpleindexer.fs.FSEventDebouncer}.
+ */
+public class FSEventDebouncerTest {
+
+    private final Path file = Paths.get("/tmp/debounced/file");
+    private final Path dir = Paths.get("/tmp/debounced/dir");
+
+    @Test
+    public void createAndModifyTest() throws Exception {
+        Recorder recorder = new Recorder();
+        FSEventDebouncer debouncer = newDebouncer(recorder);
+        debouncer.onFileCreated(file);
+        debouncer.onFileModified(file);
+        debouncer.onFileModified(file);
+        debouncer.onDirectoryCreated(dir);
+        debouncer.onDirectoryModified(dir);
+        debouncer.flush();
+        Assert.assertEquals("[created " + file + ", created dir " + dir + "]", recorder.events.toString());
+        Assert.assertEquals(5, debouncer.getReceivedCount());
+        Assert.assertEquals(2, debouncer.getFiredCount());
+        Assert.assertEquals(0, debouncer.getPendingCount());
+    }
+
+    @Test
+    public void createAndDeleteTest() throws Exception {
+        Recorder recorder = new Recorder();
+        FSEventDebouncer debouncer = newDebouncer(recorder);
+        debouncer.onFileCreated(file);
+        debouncer.onFileModified(file);
+        debouncer.onDeleted(file);
+        debouncer.flush();
+        Assert.assertTrue(recorder.events.isEmpty());
+    }
+
+    @Test
+    public void modifyAndDeleteTest() throws Exception {
+        Recorder recorder = new Recorder();
+        FSEventDebouncer debouncer = newDebouncer(recorder);
+        debouncer.onFileModified(file);
+        debouncer.onDeleted(file);
+        debouncer.flush();
+        Assert.assertEquals("[deleted " + file + "]", recorder.events.toString());
+    }
+
+    @Test
+    public void replaceTest() throws Exception {
+        Recorder recorder = new Recorder();
+        FSEventDebouncer debouncer = newDebouncer(recorder);
+        debouncer.onFileModified(file);
+        debouncer.onDeleted(file);
+        debouncer.onFileCreated(file);
+        debouncer.flush();
+        Assert.assertEquals("[deleted " + file + ", created " + file + "]", recorder.events.toString());
+    }
+
+    @Test
+    public void maxPendingTest() throws Exception {
+        Recorder recorder = new Recorder();
+        FSEventDebouncer debouncer = new FSEventDebouncer(recorder, 60000, 60000, 2);
+        for (int i = 0; i < 5; ++i) {
+            debouncer.onFileModified(file.resolveSibling("file" + i));
+        }
+        // the oldest paths are passed by the receiving thread
+        Assert.assertEquals(2, debouncer.getPendingCount());
+        Assert.assertEquals("modified " + file.resolveSibling("file0"), recorder.events.get(0));
+    }
+
+    @Test
+    public void failingDelegateTest() throws Exception {
+        Recorder recorder = new Recorder() {
+            private boolean failed;
+
+            @Override
+            public void onFileModified(Path path) {
+                if (!failed) {
+                    failed = true;
+                    throw new IllegalStateException("delegate failed");
+                }
+                super.onFileModified(path);
+            }
+        };
+        FSEventDebouncer debouncer = new FSEventDebouncer(recorder, 50, 1000, 100);
+        debouncer.start();
+        try {
+            debouncer.onFileModified(file);
+            debouncer.onFileCreated(dir.resolve("other"));
+            awaitEvents(recorder, 1);
+            // the periodic task survives the exception and passes later events
+            debouncer.onFileModified(file);
+            awaitEvents(recorder, 2);
+            Assert.assertEquals("[created " + dir.resolve("other") + ", modified " + file + "]",
+                    recorder.getEvents().toString());
+        } finally {
+            debouncer.stop();
+        }
+    }
+
+    private static void awaitEvents(Recorder recorder, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (recorder.getEvents().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static FSEventDebouncer newDebouncer(FSEventListener delegate) {
+        // events are passed only by flush
+        return new FSEventDebouncer(delegate, 60000, 60000, 100);
+    }
+
+    /*
+     * Records passed events in order.
+     */
+    private static class Recorder implements FSEventListener {
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onFileCreated(Path path) {
+            events.add("created " + path);
+        }
+
+        @Override
+        public void onFileModified(Path path) {
+            events.add("modified " + path);
+        }
+
+        @Override
+        public void onDirectoryCreated(Path path) {
+            events.add("created dir " + path);
+        }
+
+        @Override
+        public void onDirectoryModified(Path path) {
+            events.add("modified dir " + path);
+        }
+
+        @Override
+        public void onDeleted(Path path) {
+            events.add("deleted " + path);
+        }
+
+        List<String> getEvents() {
+            synchronized (events) {
+                return new ArrayList<>(events);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package simpleindexer.fs;
+
+import junit.framework.Assert;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Testing order of events delivered by {@link simpleindexer.fs.FSWatcher} with several shards.
+ */
+public class FSWatcherTest {
+
+    private static final int FILES = 50;
+
+    private Path root;
+    private FSWatcher watcher;
+
+    @Before
+    public void init() throws IOException {
+        root = Files.createTempDirectory("simpleindexer");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        if (watcher != null) {
+            watcher.stop();
+            watcher.close();
+        }
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    @Test
+    public void eventsOfDirectoryAreOrderedTest() throws IOException, InterruptedException {
+        Path child = Files.createDirectory(root.resolve("child"));
+        Recorder recorder = new Recorder();
+        FSEventDispatcher<FSEventListener> dispatcher = new FSEventDispatcher<>();
+        // basic listener gets batches event by event
+        dispatcher.addListener(recorder);
+        List<FSChangeSource> sources = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            sources.add(new WatchServiceChangeSource(FileSystems.getDefault().newWatchService(),
+                    new WatchEvent.Kind<?>[]{StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE}));
+        }
+        watcher = new FSWatcher(sources, dispatcher, 16);
+        watcher.register(root);
+        watcher.register(child);
+        watcher.start();
+        for (int i = 0; i < FILES; ++i) {
+            Files.createFile(root.resolve("file" + i));
+            Files.createFile(child.resolve("file" + i));
+        }
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < FILES; ++i) {
+            expected.add("created file" + i);
+        }
+        // type of created path is read when its event is dispatched, so files are deleted after that
+        for (Path dir : Arrays.asList(root, child)) {
+            Assert.assertEquals(expected, recorder.await(dir, expected.size()));
+        }
+        for (int i = 0; i < FILES; ++i) {
+            Files.delete(child.resolve("file" + i));
+            Files.delete(root.resolve("file" + i));
+        }
+        for (int i = 0; i < FILES; ++i) {
+            expected.add("deleted file" + i);
+        }
+        for (Path dir : Arrays.asList(root, child)) {
+            Assert.assertEquals(expected, recorder.await(dir, expected.size()));
+        }
+    }
+
+    @Test
+    public void subtreeIsWatchedByOneShardTest() throws IOException {
+        List<Source> sources = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            sources.add(new Source());
+        }
+        watcher = new FSWatcher(sources, new FSEventDispatcher<>(), 16);
+        watcher.register(root);
+        List<Path> tops = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            Path top = root.resolve("dir" + i);
+            tops.add(top);
+            watcher.register(top);
+            watcher.register(top.resolve("a"));
+            watcher.register(top.resolve("a/b"));
+            watcher.register(top.resolve("c"));
+        }
+        Set<Source> used = new HashSet<>();
+        for (Path top : tops) {
+            Source source = null;
+            for (Source s : sources) {
+                if (s.dirs.contains(top)) {
+                    source = s;
+                }
+            }
+            Assert.assertNotNull(source);
+            used.add(source);
+            Assert.assertTrue(source.dirs.containsAll(Arrays.asList(top.resolve("a"), top.resolve("a/b"), top.resolve("c"))));
+        }
+        // top-level subtrees are spread among shards
+        Assert.assertTrue(used.size() > 1);
+    }
+
+    /*
+     * Records registered directories.
+     */
+    private static class Source implements FSChangeSource {
+        private final Set<Path> dirs = new HashSet<>();
+
+        @Override
+        public WatchKey register(Path dir) {
+            dirs.add(dir);
+            return null;
+        }
+
+        @Override
+        public WatchKey poll(long timeout, TimeUnit unit) {
+            return null;
+        }
+
+        @Override
+        public void exportMetrics(Map<String, Long> metrics) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /*
+     * Records events by directory.
+     */
+    private static class Recorder implements FSEventListener {
+        private final Map<Path, List<String>> events = new HashMap<>();
+
+        @Override
+        public void onFileCreated(Path path) {
+            add(path, "created");
+        }
+
+        @Override
+        public void onFileModified(Path path) {
+            add(path, "modified");
+        }
+
+        @Override
+        public void onDirectoryCreated(Path path) {
+            add(path, "created");
+        }
+
+        @Override
+        public void onDirectoryModified(Path path) {
+            add(path, "modified");
+        }
+
+        @Override
+        public void onDeleted(Path path) {
+            add(path, "deleted");
+        }
+
+        private synchronized void add(Path path, String kind) {
+            List<String> list = events.get(path.getParent());
+            if (list == null) {
+                list = new ArrayList<>();
+                events.put(path.getParent(), list);
+            }
+            list.add(kind + " " + path.getFileName());
+            notifyAll();
+        }
+
+        synchronized List<String> await(Path dir, int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (events.get(dir) == null || events.get(dir).size() < count) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    break;
+                }
+                wait(left);
+            }
+            return events.get(dir) == null ? Collections.<String>emptyList() : new ArrayList<>(events.get(dir));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package simpleindexer.fs;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Testing groups of paths of the same file of {@link simpleindexer.fs.FileAliases}.
+ */
+public class FileAliasesTest {
+
+    private final Path root = Paths.get("/tmp/aliases");
+
+    @Test
+    public void singleFilesTest() {
+        PathTable table = new PathTable();
+        FileAliases aliases = new FileAliases(table);
+        List<Path> stale = new ArrayList<>();
+        List<Path> orphans = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertNull(aliases.attach(root.resolve("file" + i), new Attrs(i, 10, 1), stale, orphans));
+        }
+        // read again, e.g. after modification
+        Assert.assertNull(aliases.attach(root.resolve("file0"), new Attrs(0, 20, 2), stale, orphans));
+        Assert.assertFalse(aliases.hasAliases());
+        Assert.assertEquals(0, aliases.getAliasesCount());
+        Assert.assertEquals(Collections.<Path>emptyList(), aliases.getAliases(root.resolve("file0")));
+        Assert.assertTrue(stale.isEmpty());
+        Assert.assertTrue(orphans.isEmpty());
+        Assert.assertNull(aliases.detach(root.resolve("file0")));
+        Assert.assertEquals(PathTable.NO_ID, table.find(root.resolve("file0")));
+        aliases.clear();
+        Assert.assertEquals(0, table.size());
+    }
+
+    @Test
+    public void hardLinksTest() {
+        PathTable table = new PathTable();
+        FileAliases aliases = new FileAliases(table);
+        List<Path> stale = new ArrayList<>();
+        List<Path> orphans = new ArrayList<>();
+        Path first = root.resolve("first");
+        Path second = root.resolve("dir/second");
+        Assert.assertNull(aliases.attach(first, new Attrs(1, 10, 1), stale, orphans));
+        Assert.assertEquals(first, aliases.attach(second, new Attrs(1, 10, 1), stale, orphans));
+        Assert.assertEquals(1, aliases.getAliasesCount());
+        Assert.assertEquals(1, aliases.getSharedCount());
+        Assert.assertEquals(Collections.singletonList(second), aliases.getAliases(first));
+        Assert.assertEquals(Collections.<Path>emptyList(), aliases.getAliases(second));
+
+        // file is modified, the path read last owns content
+        Assert.assertNull(aliases.attach(second, new Attrs(1, 20, 2), stale, orphans));
+        Assert.assertEquals(Collections.singletonList(first), stale);
+        Assert.assertEquals(second, aliases.attach(first, new Attrs(1, 20, 2), stale, orphans));
+        Assert.assertEquals(Collections.singletonList(first), aliases.getAliases(second));
+
+        // owner is removed, the alias should be read
+        Assert.assertEquals(first, aliases.detach(second));
+        Assert.assertEquals(0, aliases.getAliasesCount());
+        Assert.assertNull(aliases.attach(first, new Attrs(1, 20, 2), stale, orphans));
+        Assert.assertNull(aliases.detach(first));
+        Assert.assertEquals(0, table.size());
+    }
+
+    @Test
+    public void replacedFileTest() {
+        PathTable table = new PathTable();
+        FileAliases aliases = new FileAliases(table);
+        List<Path> stale = new ArrayList<>();
+        List<Path> orphans = new ArrayList<>();
+        Path first = root.resolve("first");
+        Path second = root.resolve("second");
+        Assert.assertNull(aliases.attach(first, new Attrs(1, 10, 1), stale, orphans));
+        Assert.assertEquals(first, aliases.attach(second, new Attrs(1, 10, 1), stale, orphans));
+        // owner path now is another file, content of the old one should be read at its alias
+        Assert.assertNull(aliases.attach(first, new Attrs(2, 5, 3), stale, orphans));
+        Assert.assertEquals(Collections.singletonList(second), orphans);
+        Assert.assertEquals(0, aliases.getAliasesCount());
+        Assert.assertNull(aliases.attach(second, new Attrs(1, 10, 1), stale, orphans));
+        Assert.assertTrue(stale.isEmpty());
+        aliases.clear();
+        Assert.assertEquals(0, table.size());
+    }
+
+    private static class Attrs implements BasicFileAttributes {
+        private final Object fileKey;
+        private final long size;
+        private final FileTime lastModified;
+
+        Attrs(Object fileKey, long size, long lastModified) {
+            this.fileKey = fileKey;
+            this.size = size;
+            this.lastModified = FileTime.fromMillis(lastModified);
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return lastModified;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModified;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return fileKey;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package simpleindexer.fs;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Testing ids, moves and pruning of {@link simpleindexer.fs.PathTable}.
+ */
+public class PathTableTest {
+
+    private final Path root = Paths.get("/tmp/table");
+
+    @Test
+    public void acquireAndFindTest() {
+        PathTable table = new PathTable();
+        int file = table.acquire(root.resolve("a/b/file"));
+        Assert.assertEquals(file, table.acquire(root.resolve("a/b/file")));
+        Assert.assertEquals(file, table.find(root.resolve("a/b/file")));
+        Assert.assertEquals(root.resolve("a/b/file"), table.getPath(file));
+        Assert.assertEquals("file", table.getName(file));
+        Assert.assertEquals(PathTable.NO_ID, table.find(root.resolve("a/b/other")));
+        int dir = table.find(root.resolve("a/b"));
+        Assert.assertTrue(dir != PathTable.NO_ID);
+        Assert.assertEquals(1, table.getChildren(dir).length);
+        Assert.assertEquals(dir, table.getParent(file));
+        Assert.assertEquals(PathTable.NO_ID, table.getParent(table.find(root.getRoot())));
+    }
+
+    @Test
+    public void releasePrunesTest() {
+        PathTable table = new PathTable();
+        int sibling = table.acquire(root.resolve("a/sibling"));
+        int file = table.acquire(root.resolve("a/b/file"));
+        table.acquire(root.resolve("a/b/file"));
+        int size = table.size();
+        table.release(file);
+        // still referenced once
+        Assert.assertEquals(file, table.find(root.resolve("a/b/file")));
+        table.release(file);
+        Assert.assertEquals(PathTable.NO_ID, table.find(root.resolve("a/b/file")));
+        Assert.assertEquals(PathTable.NO_ID, table.find(root.resolve("a/b")));
+        Assert.assertEquals(size - 2, table.size());
+        Assert.assertEquals(sibling, table.find(root.resolve("a/sibling")));
+        try {
+            table.release(file);
+            Assert.fail("released path must not be released again");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void moveKeepsIdsTest() {
+        PathTable table = new PathTable();
+        int dir = table.acquire(root.resolve("a/dir"));
+        int file = table.acquire(root.resolve("a/dir/file"));
+        int other = table.acquire(root.resolve("b/file"));
+        Assert.assertTrue(table.move(dir, root.resolve("b/moved")));
+        Assert.assertEquals(dir, table.find(root.resolve("b/moved")));
+        Assert.assertEquals(root.resolve("b/moved/file"), table.getPath(file));
+        Assert.assertEquals(PathTable.NO_ID, table.find(root.resolve("a/dir")));
+        // target exists
+        Assert.assertFalse(table.move(dir, root.resolve("b/file")));
+        Assert.assertEquals(root.resolve("b/file"), table.getPath(other));
+        // into itself
+        Assert.assertFalse(table.move(dir, root.resolve("b/moved/file/inner")));
+        Assert.assertEquals(PathTable.NO_ID, table.find(root.resolve("b/moved/file/inner")));
+    }
+
+    @Test
+    public void namesAreFreedTest() {
+        PathTable table = new PathTable();
+        table.acquire(root.resolve("kept"));
+        int names = table.namesCount();
+        for (int i = 0; i < 1000; ++i) {
+            int id = table.acquire(root.resolve("tmp" + i + "/file" + i));
+            if (i % 2 == 0) {
+                Assert.assertTrue(table.move(id, root.resolve("moved" + i)));
+            }
+            table.release(id);
+        }
+        Assert.assertEquals(names, table.namesCount());
+        // freed ids of names are reused
+        int id = table.acquire(root.resolve("new/name"));
+        Assert.assertEquals(root.resolve("new/name"), table.getPath(id));
+        Assert.assertEquals(names + 2, table.namesCount());
+    }
+}
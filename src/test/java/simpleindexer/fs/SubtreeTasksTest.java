@@ -0,0 +1,67 @@
+package simpleindexer.fs;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * Testing subtree lookups and references of paths of {@link simpleindexer.fs.SubtreeTasks}.
+ */
+public class SubtreeTasksTest {
+
+    private final Path root = Paths.get("/tmp/tasks");
+
+    @Test
+    public void subtreeTest() {
+        PathTable table = new PathTable();
+        SubtreeTasks<String> tasks = new SubtreeTasks<>(table);
+        tasks.add(root.resolve("a/b/file1"), "read1");
+        tasks.add(root.resolve("a/b/file1"), "tokenize1");
+        tasks.add(root.resolve("a/c/file2"), "read2");
+        tasks.add(root.resolve("d/file3"), "read3");
+        Assert.assertEquals(4, tasks.size());
+
+        Assert.assertTrue(tasks.hasTasksUnder(root));
+        Assert.assertTrue(tasks.hasTasksUnder(root.resolve("a/b")));
+        Assert.assertTrue(tasks.hasTasksUnder(root.resolve("a/c/file2")));
+        Assert.assertFalse(tasks.hasTasksUnder(root.resolve("e")));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("read1", "tokenize1", "read2")),
+                new HashSet<>(tasks.getTasksUnder(root.resolve("a"))));
+        Assert.assertEquals(Collections.singletonList("read3"), tasks.getTasksUnder(root.resolve("d")));
+        Assert.assertTrue(tasks.getTasksUnder(root.resolve("e")).isEmpty());
+
+        Assert.assertTrue(tasks.remove(root.resolve("a/c/file2"), "read2"));
+        Assert.assertFalse(tasks.remove(root.resolve("a/c/file2"), "read2"));
+        Assert.assertFalse(tasks.hasTasksUnder(root.resolve("a/c")));
+        Assert.assertTrue(tasks.hasTasksUnder(root.resolve("a")));
+        Assert.assertEquals(3, tasks.size());
+    }
+
+    @Test
+    public void releaseTest() {
+        PathTable table = new PathTable();
+        SubtreeTasks<String> tasks = new SubtreeTasks<>(table);
+        Path file = root.resolve("a/file");
+        int id = table.acquire(file);
+        tasks.add(file, "read");
+        tasks.add(file, "commit");
+        Assert.assertEquals(id, table.find(file));
+        Assert.assertTrue(tasks.remove(file, "read"));
+        Assert.assertTrue(tasks.remove(file, "commit"));
+        // path is still referenced by its owner
+        Assert.assertEquals(id, table.find(file));
+        table.release(id);
+        Assert.assertEquals(0, table.size());
+
+        tasks.add(file, "read");
+        Assert.assertTrue(tasks.remove(file, "read"));
+        Assert.assertEquals(0, table.size());
+        Assert.assertFalse(tasks.hasTasksUnder(root));
+        Assert.assertEquals(0, tasks.size());
+    }
+}
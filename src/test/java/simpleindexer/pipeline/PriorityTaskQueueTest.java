@@ -0,0 +1,83 @@
+package simpleindexer.pipeline;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Testing order and capacity of {@link simpleindexer.pipeline.PriorityTaskQueue}.
+ */
+public class PriorityTaskQueueTest {
+
+    private static class Task implements Runnable, PriorityTaskQueue.Ranked {
+        private final String name;
+        private final long rank;
+
+        Task(String name, long rank) {
+            this.name = name;
+            this.rank = rank;
+        }
+
+        @Override
+        public long getRank() {
+            return rank;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    @Test
+    public void lowerRankFirstTest() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(10);
+        queue.offer(new Task("c", 30));
+        queue.offer(new Task("a", 10));
+        queue.offer(new Task("b1", 20));
+        queue.offer(new Task("b2", 20));
+        queue.offer(new Task("b3", 20));
+        Assert.assertEquals("[a, b1, b2, b3, c]", drain(queue).toString());
+    }
+
+    @Test
+    public void agingTest() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(10);
+        long now = 1000000;
+        long penalty = 5000;
+        long queuedLongAgo = now - 2 * penalty;
+        // rank is queueing time plus penalty: background task waiting longer than its penalty overtakes live tasks
+        queue.offer(new Task("live", now));
+        queue.offer(new Task("background", now + penalty));
+        queue.offer(new Task("old background", queuedLongAgo + penalty));
+        queue.offer(new Task("later live", now + 100));
+        Assert.assertEquals("[old background, live, later live, background]", drain(queue).toString());
+    }
+
+    @Test
+    public void capacityTest() throws InterruptedException {
+        PriorityTaskQueue queue = new PriorityTaskQueue(2);
+        Task first = new Task("first", 1);
+        Assert.assertTrue(queue.offer(first));
+        Assert.assertTrue(queue.offer(new Task("second", 2)));
+        Assert.assertFalse(queue.offer(new Task("third", 0)));
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Assert.assertTrue(queue.remove(first));
+        Assert.assertTrue(queue.offer(new Task("third", 0), 10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("[third, second]", drain(queue).toString());
+        Assert.assertNull(queue.poll());
+    }
+
+    private static List<Runnable> drain(PriorityTaskQueue queue) {
+        List<Runnable> tasks = new ArrayList<>();
+        queue.drainTo(tasks);
+        return tasks;
+    }
+}
@@ -0,0 +1,60 @@
+package simpleindexer.terms;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Testing ids and reference counting of {@link simpleindexer.terms.TermDictionary}.
+ */
+public class TermDictionaryTest {
+
+    @Test
+    public void getIdsTest() {
+        TermDictionary terms = new TermDictionary();
+        int[] ids = terms.getIds(Arrays.asList("b", "a", "c", "a"));
+        Assert.assertEquals(3, ids.length);
+        for (int i = 1; i < ids.length; ++i) {
+            Assert.assertTrue(ids[i - 1] < ids[i]);
+        }
+        Assert.assertEquals(3, terms.size());
+        Assert.assertEquals("a", terms.getTerm(terms.find("a")));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")),
+                new HashSet<>(terms.getTerms(terms.getIds(Arrays.asList("a", "b", "c")))));
+        Assert.assertEquals(TermDictionary.NO_ID, terms.find("d"));
+    }
+
+    @Test
+    public void releaseTest() {
+        TermDictionary terms = new TermDictionary();
+        int[] first = terms.getIds(Arrays.asList("a", "b"));
+        int[] second = terms.getIds(Arrays.asList("b", "c"));
+        terms.release(first);
+        Assert.assertEquals(TermDictionary.NO_ID, terms.find("a"));
+        // still referenced by the second array
+        Assert.assertTrue(terms.find("b") != TermDictionary.NO_ID);
+        Assert.assertEquals(2, terms.size());
+        terms.release(second);
+        Assert.assertEquals(0, terms.size());
+        try {
+            terms.release(second);
+            Assert.fail("released ids must not be released again");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void idsAreReusedTest() {
+        TermDictionary terms = new TermDictionary();
+        for (int i = 0; i < 1000; ++i) {
+            terms.release(terms.getIds(Arrays.asList("term" + i, "other" + i)));
+        }
+        Assert.assertEquals(0, terms.size());
+        int[] ids = terms.getIds(Arrays.asList("x", "y"));
+        Assert.assertTrue(ids[1] < 2);
+        Assert.assertEquals(Arrays.asList("x", "y"), terms.getTerms(new int[]{terms.find("x"), terms.find("y")}));
+    }
+}
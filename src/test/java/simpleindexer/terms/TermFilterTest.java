@@ -0,0 +1,46 @@
+package simpleindexer.terms;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Testing membership checks of {@link simpleindexer.terms.TermFilter}.
+ */
+public class TermFilterTest {
+
+    @Test
+    public void noFalseNegativesTest() {
+        Random random = new Random(1);
+        for (int n = 0; n < 300; n += 7) {
+            int[] ids = new int[n];
+            for (int i = 0; i < n; ++i) {
+                ids[i] = random.nextInt(1000000);
+            }
+            byte[] filter = TermFilter.of(ids);
+            for (int id : ids) {
+                Assert.assertTrue(TermFilter.mayContain(filter, id));
+            }
+        }
+    }
+
+    @Test
+    public void falsePositivesAreRareTest() {
+        // consecutive ids, as dictionary assigns them
+        int[] ids = new int[1000];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = 5000 + i;
+        }
+        byte[] filter = TermFilter.of(ids);
+        Assert.assertEquals(ids.length * TermFilter.BITS_PER_ID / 8, filter.length);
+        int positives = 0;
+        for (int id = 100000; id < 200000; ++id) {
+            if (TermFilter.mayContain(filter, id)) {
+                ++positives;
+            }
+        }
+        Assert.assertTrue("false positives: " + positives, positives < 4000);
+        Assert.assertFalse(TermFilter.mayContain(TermFilter.of(new int[0]), 1));
+    }
+}
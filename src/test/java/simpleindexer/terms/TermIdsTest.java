@@ -0,0 +1,61 @@
+package simpleindexer.terms;
+
+import gnu.trove.list.array.TIntArrayList;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Testing varint encoding and merge walks of {@link simpleindexer.terms.TermIds}.
+ */
+public class TermIdsTest {
+
+    @Test
+    public void encodeDecodeTest() {
+        int[] ids = {0, 1, 127, 128, 300, 16383, 16384, 2097152, Integer.MAX_VALUE};
+        byte[] encoded = TermIds.encode(ids);
+        Assert.assertTrue(Arrays.equals(ids, TermIds.decode(encoded)));
+        Assert.assertEquals(0, TermIds.decode(TermIds.EMPTY).length);
+        Assert.assertEquals(1, TermIds.EMPTY.length);
+    }
+
+    @Test
+    public void deltasAreShortTest() {
+        int[] ids = new int[1000];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = 1000000 + i * 100;
+        }
+        byte[] encoded = TermIds.encode(ids);
+        // count, the first id in 3 bytes, then one byte per delta
+        Assert.assertEquals(2 + 3 + ids.length - 1, encoded.length);
+        Assert.assertTrue(Arrays.equals(ids, TermIds.decode(encoded)));
+    }
+
+    @Test
+    public void containsTest() {
+        byte[] encoded = TermIds.encode(new int[]{3, 200, 70000});
+        Assert.assertTrue(TermIds.contains(encoded, 3));
+        Assert.assertTrue(TermIds.contains(encoded, 200));
+        Assert.assertTrue(TermIds.contains(encoded, 70000));
+        Assert.assertFalse(TermIds.contains(encoded, 0));
+        Assert.assertFalse(TermIds.contains(encoded, 201));
+        Assert.assertFalse(TermIds.contains(encoded, 70001));
+        Assert.assertFalse(TermIds.contains(TermIds.EMPTY, 0));
+    }
+
+    @Test
+    public void diffTest() {
+        TIntArrayList removed = new TIntArrayList();
+        TIntArrayList added = new TIntArrayList();
+        TermIds.diff(new int[]{1, 2, 5, 9}, new int[]{2, 3, 9, 10, 11}, removed, added);
+        Assert.assertTrue(Arrays.equals(new int[]{1, 5}, removed.toArray()));
+        Assert.assertTrue(Arrays.equals(new int[]{3, 10, 11}, added.toArray()));
+
+        removed.clear();
+        added.clear();
+        TermIds.diff(new int[0], new int[]{4}, removed, added);
+        Assert.assertTrue(removed.isEmpty());
+        Assert.assertTrue(Arrays.equals(new int[]{4}, added.toArray()));
+    }
+}
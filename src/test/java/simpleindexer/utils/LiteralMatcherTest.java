@@ -0,0 +1,53 @@
+package simpleindexer.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Testing matching of literals by {@link simpleindexer.utils.LiteralMatcher}.
+ */
+public class LiteralMatcherTest {
+
+    @Test
+    public void containsAnyTest() {
+        LiteralMatcher matcher = new LiteralMatcher(Arrays.asList("he", "she", "his", "hers"), false);
+        Assert.assertFalse(matcher.isEmpty());
+        Assert.assertTrue(matcher.containsAny("ushers"));
+        Assert.assertTrue(matcher.containsAny("this"));
+        Assert.assertTrue(matcher.containsAny("ahe"));
+        Assert.assertFalse(matcher.containsAny("hi s"));
+        Assert.assertFalse(matcher.containsAny(""));
+        Assert.assertFalse(matcher.containsAny("HERS"));
+    }
+
+    @Test
+    public void overlappingLiteralsTest() {
+        // "bd" in "xabd" is found through the failure link of the prefix "ab" of "abc"
+        LiteralMatcher matcher = new LiteralMatcher(Arrays.asList("abc", "bd", "aab"), false);
+        Assert.assertTrue(matcher.containsAny("xabd"));
+        Assert.assertTrue(matcher.containsAny("aaab"));
+        Assert.assertTrue(matcher.containsAny("ababc"));
+        Assert.assertFalse(matcher.containsAny("abab"));
+    }
+
+    @Test
+    public void ignoreCaseTest() {
+        LiteralMatcher matcher = new LiteralMatcher(Collections.singleton("Word"), true);
+        Assert.assertTrue(matcher.containsAny("some WORD here"));
+        Assert.assertTrue(matcher.containsAny("word"));
+        Assert.assertFalse(matcher.containsAny("wor d"));
+    }
+
+    @Test
+    public void emptyTest() {
+        Assert.assertTrue(new LiteralMatcher(Collections.<String>emptyList(), false).isEmpty());
+        Assert.assertFalse(new LiteralMatcher(Collections.<String>emptyList(), false).containsAny("text"));
+        // empty literal is contained in any text
+        LiteralMatcher matcher = new LiteralMatcher(Collections.singleton(""), false);
+        Assert.assertFalse(matcher.isEmpty());
+        Assert.assertTrue(matcher.containsAny(""));
+    }
+}